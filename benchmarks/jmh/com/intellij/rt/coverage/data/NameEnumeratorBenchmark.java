@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+
+/**
+ * Measures {@link NameEnumerator.Incremental} under concurrent enumeration,
+ * while the dictionary increment is drained concurrently as a test data writer does.
+ */
+@SuppressWarnings({"unused", "used in jmh"})
+@State(Scope.Group)
+public class NameEnumeratorBenchmark {
+  private static final int NAMES_COUNT = 100000;
+
+  @Param({"0.1"})
+  public double newNamesRatio;
+
+  private String[] myNames;
+  private NameEnumerator.Incremental myEnumerator;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    myEnumerator = new NameEnumerator.Incremental();
+    myNames = new String[NAMES_COUNT];
+    final int knownNames = (int) (NAMES_COUNT * (1 - newNamesRatio));
+    for (int i = 0; i < NAMES_COUNT; i++) {
+      myNames[i] = "com/example/package" + i % 100 + "/Class" + i;
+      if (i < knownNames) {
+        myEnumerator.enumerate(myNames[i]);
+      }
+    }
+    myEnumerator.getAndClearDataIncrement();
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    int myIndex;
+  }
+
+  @Benchmark
+  @Group("enumerate")
+  @GroupThreads(4)
+  public int enumerate(ThreadState state) {
+    final int index = state.myIndex++;
+    if (state.myIndex == NAMES_COUNT) state.myIndex = 0;
+    return myEnumerator.enumerate(myNames[index]);
+  }
+
+  @Benchmark
+  @Group("enumerate")
+  @GroupThreads(1)
+  public List<NameEnumerator.Incremental.NameAndId> drainIncrement() {
+    return myEnumerator.getAndClearDataIncrement();
+  }
+}
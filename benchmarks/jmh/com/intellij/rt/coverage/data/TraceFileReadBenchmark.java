@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.data.api.SimpleDecodingTestDiscoveryProtocolReader;
+import com.intellij.rt.coverage.data.api.TestDiscoveryProtocolUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares sequential and parallel reading of a large trace file in the compressed format.
+ * The file is generated once per trial until it reaches {@link #fileSizeMb}.
+ */
+@SuppressWarnings({"unused", "used in jmh"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TraceFileReadBenchmark {
+  private static final int CLASSES_COUNT = 5000;
+  private static final int METHODS_COUNT = 30;
+  private static final int CLASSES_PER_TEST = 300;
+
+  @Param({"2048"})
+  public int fileSizeMb;
+
+  private File myFile;
+  private ExecutorService myExecutor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    myFile = File.createTempFile("trace", ".ijtc");
+    myFile.deleteOnExit();
+    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile), 1 << 16));
+    final SingleTrFileDiscoveryProtocolDataListener listener = new SingleTrFileDiscoveryProtocolDataListener(
+        output, TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final NameEnumerator enumerator = listener.getNameEnumerator();
+    final Random random = new Random(42);
+    final long size = (long) fileSizeMb << 20;
+    for (int test = 0; myFile.length() < size; test++) {
+      final Map<Integer, boolean[]> classes = new HashMap<Integer, boolean[]>();
+      final Map<Integer, int[]> methods = new HashMap<Integer, int[]>();
+      for (int i = 0; i < CLASSES_PER_TEST; i++) {
+        final int classIndex = random.nextInt(CLASSES_COUNT);
+        final int classId = enumerator.enumerate("com/example/package" + classIndex % 100 + "/Class" + classIndex);
+        final boolean[] visited = new boolean[METHODS_COUNT];
+        final int[] names = new int[METHODS_COUNT];
+        for (int j = 0; j < METHODS_COUNT; j++) {
+          visited[j] = random.nextBoolean();
+          names[j] = enumerator.enumerate("method" + j + "()V");
+        }
+        classes.put(classId, visited);
+        methods.put(classId, names);
+      }
+      listener.testFinished("com/example/Test" + test % 1000, "test" + test, classes, methods, Collections.<int[]>emptyList());
+    }
+    listener.testsFinished();
+    myExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    myExecutor.shutdown();
+    myFile.delete();
+  }
+
+  @Benchmark
+  public long readSequentially() throws IOException {
+    final CountingReader reader = new CountingReader();
+    TestDiscoveryProtocolUtil.readFile(myFile, reader);
+    return reader.myCount.get();
+  }
+
+  @Benchmark
+  public long readInParallel() throws IOException {
+    final CountingReader reader = new CountingReader();
+    TestDiscoveryProtocolUtil.readFileInParallel(myFile, reader, myExecutor);
+    return reader.myCount.get();
+  }
+
+  /**
+   * Counts the read tests, the names are decoded but not used.
+   */
+  private static class CountingReader extends SimpleDecodingTestDiscoveryProtocolReader {
+    private final AtomicLong myCount = new AtomicLong();
+
+    @Override
+    public TestDataReader createTestDataReader(int testClassId, int testMethodId) {
+      final TestDataReader reader = super.createTestDataReader(testClassId, testMethodId);
+      return new TestDataReader() {
+        public void classProcessingStarted(int classId) {
+          reader.classProcessingStarted(classId);
+        }
+
+        public void processUsedMethod(int methodId) {
+          reader.processUsedMethod(methodId);
+        }
+
+        public void classProcessingFinished(int classId) {
+          reader.classProcessingFinished(classId);
+        }
+
+        public void testDataProcessed() {
+          reader.testDataProcessed();
+          myCount.incrementAndGet();
+        }
+
+        public void processAffectedFile(int[] chunks) {
+          reader.processAffectedFile(chunks);
+        }
+      };
+    }
+
+    @Override
+    protected void processData(String testClassName, String testMethodName, String className, String methodName) {
+    }
+
+    @Override
+    protected void processClassMetadataData(ClassMetadata metadata) {
+    }
+
+    public void processMetadataEntry(String key, String value) {
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.report;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.JumpData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.data.instructions.LineInstructions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares single-threaded and parallel XML report generation for a large synthetic project.
+ */
+@SuppressWarnings({"unused", "used in jmh"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class XMLReportBenchmark {
+  private static final int CLASSES_PER_PACKAGE = 50;
+  private static final int METHODS_PER_CLASS = 10;
+  private static final int LINES_PER_METHOD = 8;
+
+  @Param({"150000"})
+  public int classesCount;
+
+  private ProjectData myProject;
+  private File myFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    myProject = createProject(classesCount);
+    myFile = File.createTempFile("report", ".xml");
+    myFile.deleteOnExit();
+  }
+
+  @Benchmark
+  public void writeSingleThreaded() throws IOException {
+    new XMLCoverageReport(1).write(new FileOutputStream(myFile), myProject, null);
+  }
+
+  @Benchmark
+  public void writeParallel() throws IOException {
+    new XMLCoverageReport().write(new FileOutputStream(myFile), myProject, null);
+  }
+
+  static ProjectData createProject(int classesCount) {
+    final ProjectData project = new ProjectData();
+    project.setInstructionsCoverage(true);
+    final Random random = new Random(42);
+    for (int c = 0; c < classesCount; c++) {
+      final String className = "com.example.package" + c / CLASSES_PER_PACKAGE + ".Class" + c;
+      final ClassData classData = project.getOrCreateClassData(className);
+      final LineData[] lines = new LineData[METHODS_PER_CLASS * LINES_PER_METHOD + 1];
+      final LineInstructions[] instructions = new LineInstructions[lines.length];
+      for (int i = 1; i < lines.length; i++) {
+        final LineData line = new LineData(i, "method" + (i - 1) / LINES_PER_METHOD + "(I)V");
+        line.setHits(random.nextInt(3));
+        final LineInstructions lineInstructions = new LineInstructions();
+        lineInstructions.setInstructions(1 + random.nextInt(10));
+        if (random.nextInt(4) == 0) {
+          final JumpData jump = line.addJump(0);
+          jump.setTrueHits(random.nextInt(2));
+          jump.setFalseHits(random.nextInt(2));
+        }
+        line.fillArrays();
+        lines[i] = line;
+        instructions[i] = lineInstructions;
+      }
+      classData.setLines(lines);
+      classData.setSource("Class" + c + ".java");
+      project.getInstructions().put(className, new ClassInstructions(instructions));
+    }
+    return project;
+  }
+}
@@ -247,11 +247,15 @@ public class CoverageIOUtil {
   }
 
 
+  /**
+   * @deprecated reports store method signatures in a dictionary since version 2
+   */
+  @Deprecated
   public static String collapse(String methodSignature, final DictionaryLookup dictionaryLookup) {
     return processWithDictionary(methodSignature, new Consumer() {
       protected String consume(String type) {
-          final int dictionaryIndex = dictionaryLookup.getDictionaryIndex(type);
-          return dictionaryIndex >= 0 ? String.valueOf(dictionaryIndex) : type;
+        final int dictionaryIndex = dictionaryLookup.getDictionaryIndex(type);
+        return dictionaryIndex >= 0 ? String.valueOf(dictionaryIndex) : type;
       }
     });
   }
@@ -262,6 +266,10 @@ public class CoverageIOUtil {
     protected abstract String consume(String str);
   }
 
+  /**
+   * Replaces class names in a method signature. Reports before version 2 stored class names
+   * in method signatures as indices of the class names dictionary.
+   */
   public static String processWithDictionary(String methodSignature, Consumer consumer) {
     final Matcher matcher = TYPE_PATTERN.matcher(methodSignature);
     while (matcher.find()) {
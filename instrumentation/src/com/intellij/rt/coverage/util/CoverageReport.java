@@ -17,6 +17,7 @@
 package com.intellij.rt.coverage.util;
 
 import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.intellij.rt.coverage.instrumentation.InstrumentationOptions;
 import com.intellij.rt.coverage.instrumentation.UnloadedUtil;
@@ -24,9 +25,7 @@ import com.intellij.rt.coverage.instrumentation.data.ProjectContext;
 import org.jetbrains.coverage.gnu.trove.TObjectIntHashMap;
 
 import java.io.*;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Save coverage report in specific binary format.
@@ -35,6 +34,12 @@ import java.util.Map;
  * @since 26-Feb-2010
  */
 public class CoverageReport {
+  /**
+   * Version of the reports written by default, {@link ProjectDataLoader#LEGACY_REPORT_VERSION} if it is not set.
+   * {@link ProjectDataLoader#SIGNATURES_DICTIONARY_VERSION} is smaller and faster to save and load,
+   * but the loaders before it return empty data.
+   */
+  public static final String VERSION_PROPERTY = "coverage.report.version";
 
   /**
    * Saves project data into a coverage report.
@@ -81,16 +86,37 @@ public class CoverageReport {
   }
 
   public static void save(ProjectData projectData, InstrumentationOptions options) {
+    save(projectData, options, getDefaultVersion());
+  }
+
+  /**
+   * @param version {@link ProjectDataLoader#LEGACY_REPORT_VERSION} to be read by the older loaders,
+   *                or {@link ProjectDataLoader#SIGNATURES_DICTIONARY_VERSION}
+   */
+  public static void save(ProjectData projectData, InstrumentationOptions options, int version) {
+    if (version != ProjectDataLoader.LEGACY_REPORT_VERSION && version != ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION) {
+      throw new IllegalArgumentException("Unknown report version: " + version);
+    }
+    final boolean signaturesDictionary = version == ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION;
     DataOutputStream os = null;
     try {
       os = CoverageIOUtil.openWriteFile(options.dataFile);
       final TObjectIntHashMap<String> dict = new TObjectIntHashMap<String>();
       final Map<String, ClassData> classes = new HashMap<String, ClassData>(projectData.getClasses());
+      if (signaturesDictionary) {
+        CoverageIOUtil.writeINT(os, ProjectDataLoader.VERSION_MARKER);
+        CoverageIOUtil.writeINT(os, version);
+      }
       CoverageIOUtil.writeINT(os, classes.size());
       saveDictionary(os, dict, classes);
-      saveData(os, dict, classes);
+      TObjectIntHashMap<String> signatures = null;
+      if (signaturesDictionary) {
+        signatures = new TObjectIntHashMap<String>();
+        saveSignatures(os, signatures, classes);
+      }
+      saveData(os, dict, signatures, classes);
 
-      CoverageIOUtil.writeINT(os, ProjectDataLoader.REPORT_VERSION);
+      CoverageIOUtil.writeINT(os, version);
       CoverageIOUtil.writeUTF(os, getExtraInfoString());
       ReportSectionsUtil.saveSections(projectData, os, dict, options);
 
@@ -102,6 +128,18 @@ public class CoverageReport {
     }
   }
 
+  private static int getDefaultVersion() {
+    final String version = System.getProperty(VERSION_PROPERTY);
+    if (version == null) return ProjectDataLoader.LEGACY_REPORT_VERSION;
+    if (String.valueOf(ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION).equals(version)) {
+      return ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION;
+    }
+    if (!String.valueOf(ProjectDataLoader.LEGACY_REPORT_VERSION).equals(version)) {
+      ErrorReporter.warn("Unknown report version " + version + ", version " + ProjectDataLoader.LEGACY_REPORT_VERSION + " is used");
+    }
+    return ProjectDataLoader.LEGACY_REPORT_VERSION;
+  }
+
   /**
    * This line may contain some useful configuration for sections parsing.
    * This field is string type to be extended easily.If a new agent version relies on this line data,
@@ -165,13 +203,43 @@ public class CoverageReport {
     }
   }
 
-  private static void saveData(DataOutputStream os, final TObjectIntHashMap<String> dict, Map<String, ClassData> classes) throws IOException {
+  private static void saveData(DataOutputStream os, final TObjectIntHashMap<String> dict, final TObjectIntHashMap<String> signatures, Map<String, ClassData> classes) throws IOException {
+    final DictionaryLookup classesLookup = new DictionaryLookup() {
+      public int getDictionaryIndex(String className) {
+        return dict.containsKey(className) ? dict.get(className) : -1;
+      }
+    };
+    // the signatures are written in the class data of the older report version
+    final DictionaryLookup signaturesLookup = signatures == null ? null : new DictionaryLookup() {
+      public int getDictionaryIndex(String signature) {
+        return signatures.containsKey(signature) ? signatures.get(signature) : -1;
+      }
+    };
     for (ClassData o : classes.values()) {
-      o.save(os, new DictionaryLookup() {
-        public int getDictionaryIndex(String className) {
-          return dict.containsKey(className) ? dict.get(className) : -1;
+      o.save(os, classesLookup, signaturesLookup);
+    }
+  }
+
+  /**
+   * Writes each distinct method signature once, class data refer to the signatures by index.
+   */
+  private static void saveSignatures(DataOutputStream os, TObjectIntHashMap<String> signatures, Map<String, ClassData> classes) throws IOException {
+    final List<String> list = new ArrayList<String>();
+    for (ClassData classData : classes.values()) {
+      final Object[] lines = classData.getLines();
+      if (lines == null) continue;
+      for (Object line : lines) {
+        if (line == null) continue;
+        final String signature = ((LineData) line).getMethodSignature();
+        if (!signatures.containsKey(signature)) {
+          signatures.put(signature, list.size());
+          list.add(signature);
         }
-      });
+      }
+    }
+    CoverageIOUtil.writeINT(os, list.size());
+    for (String signature : list) {
+      CoverageIOUtil.writeUTF(os, signature);
     }
   }
 
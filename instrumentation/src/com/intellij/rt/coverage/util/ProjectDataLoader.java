@@ -34,7 +34,25 @@ import java.io.IOException;
  * @since 05-May-2009
  */
 public class ProjectDataLoader {
-  public static final int REPORT_VERSION = 1;
+  /**
+   * The maximal supported report version.
+   */
+  public static final int REPORT_VERSION = 2;
+  /**
+   * Version of the reports that can be read by the loaders before version 2, it is written by default.
+   */
+  public static final int LEGACY_REPORT_VERSION = 1;
+  /**
+   * Since this version method signatures are written once in a dictionary after the class names,
+   * and classes refer to them by index.
+   */
+  public static final int SIGNATURES_DICTIONARY_VERSION = 2;
+  /**
+   * Reports since version 2 start with this marker followed by the report version.
+   * Older loaders read the marker as a negative class count, then find the version
+   * in place of the extra info and reject the report.
+   */
+  static final int VERSION_MARKER = -1;
 
   public static ProjectData loadLocked(final File sessionDataFile) {
     CoverageIOUtil.FileLock lock = null;
@@ -56,19 +74,27 @@ public class ProjectDataLoader {
     try {
       in = CoverageIOUtil.openReadFile(sessionDataFile);
       final TIntObjectHashMap<ClassData> dict = new TIntObjectHashMap<ClassData>(1000, 0.99f);
-      final int classCount = CoverageIOUtil.readINT(in);
+      int classCount = CoverageIOUtil.readINT(in);
+      final boolean hasSignaturesDictionary = classCount == VERSION_MARKER;
+      if (hasSignaturesDictionary) {
+        if (!checkVersion(CoverageIOUtil.readINT(in))) return projectInfo;
+        classCount = CoverageIOUtil.readINT(in);
+      }
       for (int c = 0; c < classCount; c++) {
         final String className = pool.getFromPool(CoverageIOUtil.readUTFFast(in));
         final ClassData classInfo = projectInfo.getOrCreateClassData(className);
         dict.put(c, classInfo);
       }
+      final String[] signatures = hasSignaturesDictionary ? readSignatures(in, pool) : null;
       for (int c = 0; c < classCount; c++) {
         final ClassData classInfo = dict.get(CoverageIOUtil.readINT(in));
         final int methCount = CoverageIOUtil.readINT(in);
         final TIntObjectHashMap<LineData> lines = new TIntObjectHashMap<LineData>(4, 0.99f);
         int maxLine = -1;
         for (int m = 0; m < methCount; m++) {
-          final String methodSig = pool.getFromPool(expand(in, dict));
+          final String methodSig = signatures != null
+              ? readSignature(in, signatures, pool)
+              : pool.getFromPool(expand(in, dict));
           final int lineCount = CoverageIOUtil.readINT(in);
           for (int l = 0; l < lineCount; l++) {
             final int line = CoverageIOUtil.readINT(in);
@@ -119,6 +145,25 @@ public class ProjectDataLoader {
     return projectInfo;
   }
 
+  private static String[] readSignatures(DataInputStream in, StringsPool pool) throws IOException {
+    final String[] signatures = new String[CoverageIOUtil.readINT(in)];
+    for (int i = 0; i < signatures.length; i++) {
+      signatures[i] = pool.getFromPool(CoverageIOUtil.readUTFFast(in));
+    }
+    return signatures;
+  }
+
+  /**
+   * A signature missing in the dictionary is written inline after -1.
+   */
+  private static String readSignature(DataInputStream in, String[] signatures, StringsPool pool) throws IOException {
+    final int index = CoverageIOUtil.readINT(in);
+    return index >= 0 ? signatures[index] : pool.getFromPool(CoverageIOUtil.readUTFFast(in));
+  }
+
+  /**
+   * Expands class indices in a method signature of a report before version 2.
+   */
   private static String expand(DataInputStream in, final TIntObjectHashMap<ClassData> dict) throws IOException {
     return CoverageIOUtil.processWithDictionary(CoverageIOUtil.readUTFFast(in), new CoverageIOUtil.Consumer() {
       protected String consume(String type) {
@@ -142,12 +187,17 @@ public class ProjectDataLoader {
       // old format, no extra info
       return;
     }
+    if (!checkVersion(version)) return;
+    final String ignored = CoverageIOUtil.readUTFFast(in);
+    ReportSectionsUtil.loadSections(projectData, in, dict);
+  }
+
+  private static boolean checkVersion(int version) {
     if (version > REPORT_VERSION) {
       ErrorReporter.warn("Report version " + version + " is greater than agent maximum support version "
           + REPORT_VERSION + "\n" + "Please try to update coverage agent.");
-      return;
+      return false;
     }
-    final String ignored = CoverageIOUtil.readUTFFast(in);
-    ReportSectionsUtil.loadSections(projectData, in, dict);
+    return true;
   }
 }
\ No newline at end of file
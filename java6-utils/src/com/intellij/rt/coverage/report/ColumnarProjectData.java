@@ -0,0 +1,399 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.report;
+
+import com.intellij.rt.coverage.data.*;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.data.instructions.JumpInstructions;
+import com.intellij.rt.coverage.data.instructions.LineInstructions;
+import com.intellij.rt.coverage.data.instructions.SwitchInstructions;
+import com.intellij.rt.coverage.util.ArrayUtil;
+import org.jetbrains.coverage.gnu.trove.TIntArrayList;
+import org.jetbrains.coverage.gnu.trove.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only coverage data of a project stored in primitive arrays.
+ * Lines of all classes, their jumps, switches and instructions are kept in columns indexed by a global line,
+ * jump or switch index, so that a large project takes a few dozen arrays instead of an object per line and branch.
+ * <p>
+ * {@link ClassData} and {@link ClassInstructions} objects are created on request and are not cached,
+ * the caller may process classes one by one to keep the memory footprint low.
+ * Test tracking data and instrumentation ids are not stored.
+ */
+public class ColumnarProjectData {
+  private static final byte HAS_JUMPS_AND_SWITCHES = 1;
+  private static final byte HAS_INSTRUCTIONS = 2;
+
+  private final boolean myInstructionsCoverage;
+
+  private final String[] myClassNames;
+  private final String[] mySources;
+  private final boolean[] myFullyAnalysed;
+  /**
+   * Length of the lines array of a class or -1 if the class has no lines array.
+   */
+  private final int[] myLinesArrayLength;
+  private final int[] myClassLinesStart;
+
+  private final String[] mySignatures;
+  private final int[] myLineIndices;
+  private final int[] myLineNumbers;
+  private final int[] myLineSignatures;
+  private final int[] myLineHits;
+  private final byte[] myLineFlags;
+  private final int[] myLineJumpsStart;
+  private final int[] myLineSwitchesStart;
+
+  private final int[] myJumpTrueHits;
+  private final int[] myJumpFalseHits;
+
+  private final int[] mySwitchDefaultHits;
+  private final int[] mySwitchKeysStart;
+  private final int[] mySwitchKeys;
+  private final int[] mySwitchKeyHits;
+
+  private final int[] myLineInstructions;
+  private final int[] myLineInstructionJumpsStart;
+  private final int[] myLineInstructionSwitchesStart;
+  private final int[] myJumpTrueInstructions;
+  private final int[] myJumpFalseInstructions;
+  private final int[] mySwitchDefaultInstructions;
+  private final int[] mySwitchInstructionsStart;
+  private final int[] mySwitchKeyInstructions;
+
+  private final TObjectIntHashMap<String> myClassIndices;
+
+  private ColumnarProjectData(Builder builder) {
+    myInstructionsCoverage = builder.myInstructionsCoverage;
+    myClassNames = builder.myClassNames;
+    mySources = builder.mySources;
+    myFullyAnalysed = builder.myFullyAnalysed;
+    myLinesArrayLength = builder.myLinesArrayLength.toNativeArray();
+    myClassLinesStart = builder.myClassLinesStart.toNativeArray();
+    mySignatures = builder.mySignatures.toArray(new String[0]);
+    myLineIndices = builder.myLineIndices.toNativeArray();
+    myLineNumbers = builder.myLineNumbers.toNativeArray();
+    myLineSignatures = builder.myLineSignatures.toNativeArray();
+    myLineHits = builder.myLineHits.toNativeArray();
+    final int[] flags = builder.myLineFlags.toNativeArray();
+    myLineFlags = new byte[flags.length];
+    for (int i = 0; i < flags.length; i++) {
+      myLineFlags[i] = (byte) flags[i];
+    }
+    myLineJumpsStart = builder.myLineJumpsStart.toNativeArray();
+    myLineSwitchesStart = builder.myLineSwitchesStart.toNativeArray();
+    myJumpTrueHits = builder.myJumpTrueHits.toNativeArray();
+    myJumpFalseHits = builder.myJumpFalseHits.toNativeArray();
+    mySwitchDefaultHits = builder.mySwitchDefaultHits.toNativeArray();
+    mySwitchKeysStart = builder.mySwitchKeysStart.toNativeArray();
+    mySwitchKeys = builder.mySwitchKeys.toNativeArray();
+    mySwitchKeyHits = builder.mySwitchKeyHits.toNativeArray();
+    myLineInstructions = builder.myLineInstructions.toNativeArray();
+    myLineInstructionJumpsStart = builder.myLineInstructionJumpsStart.toNativeArray();
+    myLineInstructionSwitchesStart = builder.myLineInstructionSwitchesStart.toNativeArray();
+    myJumpTrueInstructions = builder.myJumpTrueInstructions.toNativeArray();
+    myJumpFalseInstructions = builder.myJumpFalseInstructions.toNativeArray();
+    mySwitchDefaultInstructions = builder.mySwitchDefaultInstructions.toNativeArray();
+    mySwitchInstructionsStart = builder.mySwitchInstructionsStart.toNativeArray();
+    mySwitchKeyInstructions = builder.mySwitchKeyInstructions.toNativeArray();
+
+    myClassIndices = new TObjectIntHashMap<String>(myClassNames.length);
+    for (int i = 0; i < myClassNames.length; i++) {
+      myClassIndices.put(myClassNames[i], i);
+    }
+  }
+
+  /**
+   * Copies the coverage data of the project, the classes are stored in the order of {@link ProjectData#getClassesCollection()}.
+   */
+  public static ColumnarProjectData create(ProjectData project) {
+    final List<ClassData> classes = new ArrayList<ClassData>(project.getClassesCollection());
+    final Builder builder = new Builder(project, classes.size());
+    for (ClassData classData : classes) {
+      builder.addClass(classData);
+    }
+    return new ColumnarProjectData(builder);
+  }
+
+  public boolean isInstructionsCoverageEnabled() {
+    return myInstructionsCoverage;
+  }
+
+  public int getClassesCount() {
+    return myClassNames.length;
+  }
+
+  public String getClassName(int classIndex) {
+    return myClassNames[classIndex];
+  }
+
+  /**
+   * @return index of the class or -1 if there is no such class
+   */
+  public int getClassIndex(String className) {
+    return myClassIndices.containsKey(className) ? myClassIndices.get(className) : -1;
+  }
+
+  /**
+   * Creates a new class data object with all the lines of the class.
+   */
+  public ClassData getClassData(int classIndex) {
+    final ClassData classData = new ClassData(myClassNames[classIndex]);
+    classData.setSource(mySources[classIndex]);
+    final int length = myLinesArrayLength[classIndex];
+    if (length >= 0) {
+      final LineData[] lines = new LineData[length];
+      for (int line = myClassLinesStart[classIndex]; line < myClassLinesStart[classIndex + 1]; line++) {
+        final LineData lineData = createLine(line);
+        lines[myLineIndices[line]] = lineData;
+        classData.registerMethodSignature(lineData);
+      }
+      classData.setLines(lines);
+    }
+    classData.setFullyAnalysed(myFullyAnalysed[classIndex]);
+    return classData;
+  }
+
+  /**
+   * Creates instructions data for the lines of the class.
+   *
+   * @return instructions indexed by line number or null if the class has no instructions data
+   */
+  public ClassInstructions getClassInstructions(int classIndex) {
+    int maxLine = -1;
+    for (int line = myClassLinesStart[classIndex]; line < myClassLinesStart[classIndex + 1]; line++) {
+      if ((myLineFlags[line] & HAS_INSTRUCTIONS) != 0) {
+        maxLine = Math.max(maxLine, myLineNumbers[line]);
+      }
+    }
+    if (maxLine < 0) return null;
+    final LineInstructions[] lines = new LineInstructions[maxLine + 1];
+    for (int line = myClassLinesStart[classIndex]; line < myClassLinesStart[classIndex + 1]; line++) {
+      if ((myLineFlags[line] & HAS_INSTRUCTIONS) != 0) {
+        lines[myLineNumbers[line]] = createLineInstructions(line);
+      }
+    }
+    return new ClassInstructions(lines);
+  }
+
+  /**
+   * Creates a new project with all the classes, it can be used with the APIs that need {@link ProjectData}.
+   */
+  public ProjectData toProjectData() {
+    final ProjectData project = new ProjectData();
+    project.setInstructionsCoverage(myInstructionsCoverage);
+    for (int i = 0; i < myClassNames.length; i++) {
+      project.addClassData(getClassData(i));
+      final ClassInstructions instructions = getClassInstructions(i);
+      if (instructions != null) {
+        project.getInstructions().put(myClassNames[i], instructions);
+      }
+    }
+    return project;
+  }
+
+  private LineData createLine(int line) {
+    final int signatureIndex = myLineSignatures[line];
+    final LineData lineData = new LineData(myLineNumbers[line], signatureIndex < 0 ? null : mySignatures[signatureIndex]);
+    lineData.setHits(myLineHits[line]);
+    if ((myLineFlags[line] & HAS_JUMPS_AND_SWITCHES) != 0) {
+      lineData.setJumpsAndSwitches(new JumpsAndSwitches());
+      final int jumpsStart = myLineJumpsStart[line];
+      for (int jump = jumpsStart; jump < myLineJumpsStart[line + 1]; jump++) {
+        lineData.setTrueHits(jump - jumpsStart, myJumpTrueHits[jump]);
+        lineData.setFalseHits(jump - jumpsStart, myJumpFalseHits[jump]);
+      }
+      final int switchesStart = myLineSwitchesStart[line];
+      for (int s = switchesStart; s < myLineSwitchesStart[line + 1]; s++) {
+        final int from = mySwitchKeysStart[s];
+        final int to = mySwitchKeysStart[s + 1];
+        final int[] keys = new int[to - from];
+        final int[] hits = new int[to - from];
+        System.arraycopy(mySwitchKeys, from, keys, 0, keys.length);
+        System.arraycopy(mySwitchKeyHits, from, hits, 0, hits.length);
+        lineData.setDefaultHits(s - switchesStart, keys, mySwitchDefaultHits[s]);
+        lineData.setSwitchHits(s - switchesStart, keys, hits);
+      }
+      lineData.fillArrays();
+    }
+    return lineData;
+  }
+
+  private LineInstructions createLineInstructions(int line) {
+    final LineInstructions lineInstructions = new LineInstructions();
+    lineInstructions.setInstructions(myLineInstructions[line]);
+    for (int jump = myLineInstructionJumpsStart[line]; jump < myLineInstructionJumpsStart[line + 1]; jump++) {
+      final JumpInstructions jumpInstructions = new JumpInstructions();
+      jumpInstructions.setInstructions(true, myJumpTrueInstructions[jump]);
+      jumpInstructions.setInstructions(false, myJumpFalseInstructions[jump]);
+      lineInstructions.addJump(jumpInstructions);
+    }
+    for (int s = myLineInstructionSwitchesStart[line]; s < myLineInstructionSwitchesStart[line + 1]; s++) {
+      final int from = mySwitchInstructionsStart[s];
+      final int to = mySwitchInstructionsStart[s + 1];
+      final SwitchInstructions switchInstructions = new SwitchInstructions(to - from);
+      switchInstructions.setInstructions(-1, mySwitchDefaultInstructions[s]);
+      for (int key = from; key < to; key++) {
+        switchInstructions.setInstructions(key - from, mySwitchKeyInstructions[key]);
+      }
+      lineInstructions.addSwitch(switchInstructions);
+    }
+    return lineInstructions;
+  }
+
+  private static class Builder {
+    private final ProjectData myProject;
+    private final boolean myInstructionsCoverage;
+    private final String[] myClassNames;
+    private final String[] mySources;
+    private final boolean[] myFullyAnalysed;
+    private int myClassesCount = 0;
+
+    private final TIntArrayList myLinesArrayLength = new TIntArrayList();
+    private final TIntArrayList myClassLinesStart = new TIntArrayList();
+    private final TObjectIntHashMap<String> mySignatureIndices = new TObjectIntHashMap<String>();
+    private final List<String> mySignatures = new ArrayList<String>();
+    private final TIntArrayList myLineIndices = new TIntArrayList();
+    private final TIntArrayList myLineNumbers = new TIntArrayList();
+    private final TIntArrayList myLineSignatures = new TIntArrayList();
+    private final TIntArrayList myLineHits = new TIntArrayList();
+    private final TIntArrayList myLineFlags = new TIntArrayList();
+    private final TIntArrayList myLineJumpsStart = new TIntArrayList();
+    private final TIntArrayList myLineSwitchesStart = new TIntArrayList();
+    private final TIntArrayList myJumpTrueHits = new TIntArrayList();
+    private final TIntArrayList myJumpFalseHits = new TIntArrayList();
+    private final TIntArrayList mySwitchDefaultHits = new TIntArrayList();
+    private final TIntArrayList mySwitchKeysStart = new TIntArrayList();
+    private final TIntArrayList mySwitchKeys = new TIntArrayList();
+    private final TIntArrayList mySwitchKeyHits = new TIntArrayList();
+    private final TIntArrayList myLineInstructions = new TIntArrayList();
+    private final TIntArrayList myLineInstructionJumpsStart = new TIntArrayList();
+    private final TIntArrayList myLineInstructionSwitchesStart = new TIntArrayList();
+    private final TIntArrayList myJumpTrueInstructions = new TIntArrayList();
+    private final TIntArrayList myJumpFalseInstructions = new TIntArrayList();
+    private final TIntArrayList mySwitchDefaultInstructions = new TIntArrayList();
+    private final TIntArrayList mySwitchInstructionsStart = new TIntArrayList();
+    private final TIntArrayList mySwitchKeyInstructions = new TIntArrayList();
+
+    private Builder(ProjectData project, int classesCount) {
+      myProject = project;
+      myInstructionsCoverage = project.isInstructionsCoverageEnabled();
+      myClassNames = new String[classesCount];
+      mySources = new String[classesCount];
+      myFullyAnalysed = new boolean[classesCount];
+      myClassLinesStart.add(0);
+      myLineJumpsStart.add(0);
+      myLineSwitchesStart.add(0);
+      mySwitchKeysStart.add(0);
+      myLineInstructionJumpsStart.add(0);
+      myLineInstructionSwitchesStart.add(0);
+      mySwitchInstructionsStart.add(0);
+    }
+
+    private void addClass(ClassData classData) {
+      final int classIndex = myClassesCount++;
+      myClassNames[classIndex] = classData.getName();
+      mySources[classIndex] = classData.getSource();
+      myFullyAnalysed[classIndex] = classData.isFullyAnalysed();
+      final ClassInstructions classInstructions = myProject.getInstructions().get(classData.getName());
+      final LineInstructions[] instructions = classInstructions == null ? null : classInstructions.getlines();
+      final Object[] lines = classData.getLines();
+      myLinesArrayLength.add(lines == null ? -1 : lines.length);
+      if (lines != null) {
+        for (int i = 0; i < lines.length; i++) {
+          final LineData lineData = (LineData) lines[i];
+          if (lineData == null) continue;
+          myLineIndices.add(i);
+          addLine(lineData, ArrayUtil.safeLoad(instructions, lineData.getLineNumber()));
+        }
+      }
+      myClassLinesStart.add(myLineIndices.size());
+    }
+
+    private void addLine(LineData lineData, LineInstructions lineInstructions) {
+      myLineNumbers.add(lineData.getLineNumber());
+      myLineSignatures.add(getSignatureIndex(lineData.getMethodSignature()));
+      myLineHits.add(lineData.getHits());
+      int flags = 0;
+      final JumpData[] jumps = lineData.getJumps();
+      final SwitchData[] switches = lineData.getSwitches();
+      if (lineData.getBranchData() != null) {
+        flags |= HAS_JUMPS_AND_SWITCHES;
+        if (jumps != null) {
+          for (JumpData jump : jumps) {
+            myJumpTrueHits.add(jump == null ? 0 : jump.getTrueHits());
+            myJumpFalseHits.add(jump == null ? 0 : jump.getFalseHits());
+          }
+        }
+        if (switches != null) {
+          for (SwitchData switchData : switches) {
+            final int[] keys = switchData == null ? new int[0] : switchData.getKeys();
+            final int[] hits = switchData == null ? new int[0] : switchData.getHits();
+            mySwitchDefaultHits.add(switchData == null ? 0 : switchData.getDefaultHits());
+            for (int k = 0; k < hits.length; k++) {
+              mySwitchKeys.add(k < keys.length ? keys[k] : 0);
+              mySwitchKeyHits.add(hits[k]);
+            }
+            mySwitchKeysStart.add(mySwitchKeys.size());
+          }
+        }
+      }
+      myLineJumpsStart.add(myJumpTrueHits.size());
+      myLineSwitchesStart.add(mySwitchDefaultHits.size());
+
+      if (lineInstructions != null) {
+        flags |= HAS_INSTRUCTIONS;
+        myLineInstructions.add(lineInstructions.getInstructions());
+        if (lineInstructions.getJumps() != null) {
+          for (JumpInstructions jump : lineInstructions.getJumps()) {
+            myJumpTrueInstructions.add(jump.getInstructions(true));
+            myJumpFalseInstructions.add(jump.getInstructions(false));
+          }
+        }
+        if (lineInstructions.getSwitches() != null) {
+          for (SwitchInstructions switchInstructions : lineInstructions.getSwitches()) {
+            mySwitchDefaultInstructions.add(switchInstructions.getInstructions(-1));
+            for (int key = 0; key < switchInstructions.size(); key++) {
+              mySwitchKeyInstructions.add(switchInstructions.getInstructions(key));
+            }
+            mySwitchInstructionsStart.add(mySwitchKeyInstructions.size());
+          }
+        }
+      } else {
+        myLineInstructions.add(0);
+      }
+      myLineInstructionJumpsStart.add(myJumpTrueInstructions.size());
+      myLineInstructionSwitchesStart.add(mySwitchDefaultInstructions.size());
+      myLineFlags.add(flags);
+    }
+
+    /**
+     * @return index of the signature in the signatures column or -1 for a null signature
+     */
+    private int getSignatureIndex(String signature) {
+      if (signature == null) return -1;
+      if (mySignatureIndices.containsKey(signature)) return mySignatureIndices.get(signature);
+      final int index = mySignatures.size();
+      mySignatures.add(signature);
+      mySignatureIndices.put(signature, index);
+      return index;
+    }
+  }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.report;
+
+import com.intellij.rt.coverage.data.BranchData;
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.data.instructions.LineInstructions;
+import com.intellij.rt.coverage.util.ArrayUtil;
+import org.jetbrains.coverage.gnu.trove.TIntObjectHashMap;
+
+import java.util.*;
+
+/**
+ * Coverage counters of a project computed in a single traversal of the coverage data.
+ * The summary is a tree: project, packages, classes, methods and lines. Lines of classes with the same source file
+ * in a package are also merged into a source file summary.
+ * <p>
+ * The summary is not modified after creation, so it can be shared by several reports.
+ */
+public class CoverageSummary {
+  private final List<PackageSummary> myPackages;
+  private final List<ClassSummary> myClasses;
+  private final Counter myCounter;
+  private final boolean myInstructionsCoverage;
+
+  private CoverageSummary(List<PackageSummary> packages, List<ClassSummary> classes, Counter counter, boolean instructionsCoverage) {
+    myPackages = packages;
+    myClasses = classes;
+    myCounter = counter;
+    myInstructionsCoverage = instructionsCoverage;
+  }
+
+  public static CoverageSummary create(ProjectData project) {
+    final List<ClassSummary> classes = new ArrayList<ClassSummary>();
+    for (ClassData classData : project.getClassesCollection()) {
+      final ClassInstructions classInstructions = project.getInstructions().get(classData.getName());
+      classes.add(createClass(classData, classInstructions));
+    }
+    return create(classes, project.isInstructionsCoverageEnabled());
+  }
+
+  /**
+   * Summary of a single class of the project.
+   */
+  public static ClassSummary createClass(ProjectData project, ClassData classData) {
+    return createClass(classData, project.getInstructions().get(classData.getName()));
+  }
+
+  /**
+   * Creates the summary from the columnar data, class data objects are created and dropped one by one.
+   */
+  public static CoverageSummary create(ColumnarProjectData project) {
+    final List<ClassSummary> classes = new ArrayList<ClassSummary>(project.getClassesCount());
+    for (int i = 0; i < project.getClassesCount(); i++) {
+      classes.add(createClass(project.getClassData(i), project.getClassInstructions(i)));
+    }
+    return create(classes, project.isInstructionsCoverageEnabled());
+  }
+
+  private static CoverageSummary create(List<ClassSummary> classes, boolean instructionsCoverage) {
+    final Map<String, ClassSummary> classesWithLines = new TreeMap<String, ClassSummary>();
+    for (ClassSummary classSummary : classes) {
+      if (classSummary.myCounter.myTotalLines > 0) classesWithLines.put(classSummary.myName, classSummary);
+    }
+    final Map<String, List<ClassSummary>> packageClasses = groupByPackage(classesWithLines, true);
+
+    final List<PackageSummary> packages = new ArrayList<PackageSummary>();
+    final Counter counter = new Counter();
+    for (Map.Entry<String, List<ClassSummary>> packageEntry : packageClasses.entrySet()) {
+      final PackageSummary packageSummary = createPackage(packageEntry.getKey(), packageEntry.getValue());
+      packages.add(packageSummary);
+      counter.add(packageSummary.myCounter);
+    }
+    return new CoverageSummary(Collections.unmodifiableList(packages), Collections.unmodifiableList(classes),
+        counter, instructionsCoverage);
+  }
+
+  /**
+   * Packages of classes with lines, in the order of {@link XMLCoverageReport#mapClassesToPackages}.
+   * Each class of the default package is a separate package named after the class.
+   */
+  public List<PackageSummary> getPackages() {
+    return myPackages;
+  }
+
+  /**
+   * All the classes of the project including the classes without lines.
+   */
+  public List<ClassSummary> getClasses() {
+    return myClasses;
+  }
+
+  public Counter getCounter() {
+    return myCounter;
+  }
+
+  public boolean isInstructionsCoverageEnabled() {
+    return myInstructionsCoverage;
+  }
+
+  /**
+   * @param useClassNameIfEmpty return the class name for a class of the default package instead of an empty string
+   */
+  static String getPackageName(String className, boolean useClassNameIfEmpty) {
+    final int indexOfName = className.lastIndexOf('.');
+    if (indexOfName < 0) return useClassNameIfEmpty ? className : "";
+    return className.substring(0, indexOfName);
+  }
+
+  /**
+   * Groups classes by package, the classes of a package keep the order of the map.
+   *
+   * @param classes classes by name
+   */
+  static <T> HashMap<String, List<T>> groupByPackage(Map<String, T> classes, boolean useClassNameIfEmpty) {
+    final HashMap<String, List<T>> packages = new HashMap<String, List<T>>();
+    for (Map.Entry<String, T> entry : classes.entrySet()) {
+      final String packageName = getPackageName(entry.getKey(), useClassNameIfEmpty);
+      List<T> packageClasses = packages.get(packageName);
+      if (packageClasses == null) {
+        packageClasses = new ArrayList<T>();
+        packages.put(packageName, packageClasses);
+      }
+      packageClasses.add(entry.getValue());
+    }
+    return packages;
+  }
+
+  private static PackageSummary createPackage(String packageName, List<ClassSummary> classes) {
+    final Counter counter = new Counter();
+    final Map<String, List<LineSummary>> fileLines = new HashMap<String, List<LineSummary>>();
+    for (ClassSummary classSummary : classes) {
+      counter.add(classSummary.myCounter);
+      final String source = classSummary.mySource;
+      if (source == null || source.isEmpty()) continue;
+      List<LineSummary> lines = fileLines.get(source);
+      if (lines == null) {
+        lines = new ArrayList<LineSummary>();
+        fileLines.put(source, lines);
+      }
+      for (MethodSummary method : classSummary.myMethods) {
+        lines.addAll(method.myLines);
+      }
+    }
+    final List<FileSummary> files = new ArrayList<FileSummary>();
+    for (Map.Entry<String, List<LineSummary>> fileEntry : fileLines.entrySet()) {
+      files.add(createFile(fileEntry.getKey(), fileEntry.getValue()));
+    }
+    return new PackageSummary(packageName, Collections.unmodifiableList(classes), Collections.unmodifiableList(files), counter);
+  }
+
+  private static FileSummary createFile(String fileName, List<LineSummary> classLines) {
+    final TIntObjectHashMap<Counter> groupedLines = new TIntObjectHashMap<Counter>();
+    for (LineSummary line : classLines) {
+      Counter lineCounter = groupedLines.get(line.myLineNumber);
+      if (lineCounter == null) {
+        lineCounter = new Counter();
+        groupedLines.put(line.myLineNumber, lineCounter);
+      }
+      lineCounter.add(line.myCounter);
+    }
+    final int[] lineNumbers = groupedLines.keys();
+    Arrays.sort(lineNumbers);
+    final List<LineSummary> lines = new ArrayList<LineSummary>(lineNumbers.length);
+    final Counter counter = new Counter();
+    for (int lineNumber : lineNumbers) {
+      final Counter lineCounter = groupedLines.get(lineNumber);
+      lines.add(new LineSummary(lineNumber, lineCounter));
+      counter.add(lineCounter);
+    }
+    return new FileSummary(fileName, Collections.unmodifiableList(lines), counter);
+  }
+
+  private static ClassSummary createClass(ClassData classData, ClassInstructions classInstructions) {
+    final LineInstructions[] instructions = classInstructions == null ? null : classInstructions.getlines();
+    final Counter counter = new Counter();
+    final List<MethodSummary> methods = new ArrayList<MethodSummary>();
+    for (Map.Entry<String, List<LineData>> methodEntry : classData.mapLinesToMethods().entrySet()) {
+      final MethodSummary method = createMethod(methodEntry.getKey(), methodEntry.getValue(), instructions);
+      methods.add(method);
+      counter.add(method.myCounter);
+    }
+    counter.myTotalClasses = 1;
+    if (counter.myCoveredMethods > 0) counter.myCoveredClasses = 1;
+    return new ClassSummary(classData.getName(), classData.getSource(), Collections.unmodifiableList(methods), counter);
+  }
+
+  private static MethodSummary createMethod(String signature, List<LineData> lineDataList, LineInstructions[] instructions) {
+    final Counter counter = new Counter();
+    final List<LineSummary> lines = new ArrayList<LineSummary>(lineDataList.size());
+    for (LineData lineData : lineDataList) {
+      final LineInstructions lineInstructions = ArrayUtil.safeLoad(instructions, lineData.getLineNumber());
+      final LineSummary line = new LineSummary(lineData.getLineNumber(), createLineCounter(lineInstructions, lineData));
+      lines.add(line);
+      counter.add(line.myCounter);
+    }
+    counter.myTotalMethods = 1;
+    if (counter.myCoveredLines > 0) counter.myCoveredMethods = 1;
+    return new MethodSummary(signature, Collections.unmodifiableList(lines), counter);
+  }
+
+  private static Counter createLineCounter(LineInstructions lineInstructions, LineData lineData) {
+    final Counter counter = new Counter();
+    counter.myTotalLines = 1;
+    counter.myCoveredLines = lineData.getHits() > 0 ? 1 : 0;
+
+    final BranchData branchData = lineData.getBranchData();
+    counter.myTotalBranches = branchData == null ? 0 : branchData.getTotalBranches();
+    counter.myCoveredBranches = branchData == null ? 0 : branchData.getCoveredBranches();
+
+    if (lineInstructions != null) {
+      final BranchData instructionsData = lineInstructions.getInstructionsData(lineData);
+      counter.myTotalInstructions = instructionsData.getTotalBranches();
+      counter.myCoveredInstructions = instructionsData.getCoveredBranches();
+    } else {
+      counter.myTotalLinesWithoutInstructions = 1;
+      counter.myCoveredLinesWithoutInstructions = counter.myCoveredLines;
+    }
+    return counter;
+  }
+
+  /**
+   * Covered and total numbers of elements. The counter is modified only while the summary is created.
+   */
+  public static class Counter {
+    private int myTotalClasses;
+    private int myCoveredClasses;
+    private int myTotalMethods;
+    private int myCoveredMethods;
+    private int myTotalLines;
+    private int myCoveredLines;
+    private int myTotalBranches;
+    private int myCoveredBranches;
+    private int myTotalInstructions;
+    private int myCoveredInstructions;
+    private int myTotalLinesWithoutInstructions;
+    private int myCoveredLinesWithoutInstructions;
+
+    private void add(Counter other) {
+      myTotalClasses += other.myTotalClasses;
+      myCoveredClasses += other.myCoveredClasses;
+      myTotalMethods += other.myTotalMethods;
+      myCoveredMethods += other.myCoveredMethods;
+      myTotalLines += other.myTotalLines;
+      myCoveredLines += other.myCoveredLines;
+      myTotalBranches += other.myTotalBranches;
+      myCoveredBranches += other.myCoveredBranches;
+      myTotalInstructions += other.myTotalInstructions;
+      myCoveredInstructions += other.myCoveredInstructions;
+      myTotalLinesWithoutInstructions += other.myTotalLinesWithoutInstructions;
+      myCoveredLinesWithoutInstructions += other.myCoveredLinesWithoutInstructions;
+    }
+
+    public int getTotalClasses() {
+      return myTotalClasses;
+    }
+
+    public int getCoveredClasses() {
+      return myCoveredClasses;
+    }
+
+    public int getTotalMethods() {
+      return myTotalMethods;
+    }
+
+    public int getCoveredMethods() {
+      return myCoveredMethods;
+    }
+
+    public int getTotalLines() {
+      return myTotalLines;
+    }
+
+    public int getCoveredLines() {
+      return myCoveredLines;
+    }
+
+    public int getTotalBranches() {
+      return myTotalBranches;
+    }
+
+    public int getCoveredBranches() {
+      return myCoveredBranches;
+    }
+
+    /**
+     * Instructions of the lines with instructions data.
+     */
+    public int getTotalInstructions() {
+      return myTotalInstructions;
+    }
+
+    public int getCoveredInstructions() {
+      return myCoveredInstructions;
+    }
+
+    /**
+     * Lines without instructions data, reports may count each of them as a single instruction.
+     */
+    public int getTotalLinesWithoutInstructions() {
+      return myTotalLinesWithoutInstructions;
+    }
+
+    public int getCoveredLinesWithoutInstructions() {
+      return myCoveredLinesWithoutInstructions;
+    }
+  }
+
+  public static class PackageSummary {
+    private final String myName;
+    private final List<ClassSummary> myClasses;
+    private final List<FileSummary> myFiles;
+    private final Counter myCounter;
+
+    private PackageSummary(String name, List<ClassSummary> classes, List<FileSummary> files, Counter counter) {
+      myName = name;
+      myClasses = classes;
+      myFiles = files;
+      myCounter = counter;
+    }
+
+    /**
+     * @return package name or the class name for a class of the default package
+     */
+    public String getName() {
+      return myName;
+    }
+
+    /**
+     * @return package name, which is empty for the default package
+     */
+    public String getPackageName() {
+      return CoverageSummary.getPackageName(myClasses.get(0).myName, false);
+    }
+
+    /**
+     * Classes sorted by name.
+     */
+    public List<ClassSummary> getClasses() {
+      return myClasses;
+    }
+
+    public List<FileSummary> getFiles() {
+      return myFiles;
+    }
+
+    public Counter getCounter() {
+      return myCounter;
+    }
+  }
+
+  public static class FileSummary {
+    private final String myName;
+    private final List<LineSummary> myLines;
+    private final Counter myCounter;
+
+    private FileSummary(String name, List<LineSummary> lines, Counter counter) {
+      myName = name;
+      myLines = lines;
+      myCounter = counter;
+    }
+
+    public String getName() {
+      return myName;
+    }
+
+    /**
+     * Lines sorted by line number, lines of different classes with the same number are merged.
+     */
+    public List<LineSummary> getLines() {
+      return myLines;
+    }
+
+    public Counter getCounter() {
+      return myCounter;
+    }
+  }
+
+  public static class ClassSummary {
+    private final String myName;
+    private final String mySource;
+    private final List<MethodSummary> myMethods;
+    private final Counter myCounter;
+
+    private ClassSummary(String name, String source, List<MethodSummary> methods, Counter counter) {
+      myName = name;
+      mySource = source;
+      myMethods = methods;
+      myCounter = counter;
+    }
+
+    public String getName() {
+      return myName;
+    }
+
+    public String getSource() {
+      return mySource;
+    }
+
+    public List<MethodSummary> getMethods() {
+      return myMethods;
+    }
+
+    public Counter getCounter() {
+      return myCounter;
+    }
+  }
+
+  public static class MethodSummary {
+    private final String mySignature;
+    private final List<LineSummary> myLines;
+    private final Counter myCounter;
+
+    private MethodSummary(String signature, List<LineSummary> lines, Counter counter) {
+      mySignature = signature;
+      myLines = lines;
+      myCounter = counter;
+    }
+
+    /**
+     * Method name concatenated with its descriptor.
+     */
+    public String getSignature() {
+      return mySignature;
+    }
+
+    public List<LineSummary> getLines() {
+      return myLines;
+    }
+
+    public Counter getCounter() {
+      return myCounter;
+    }
+  }
+
+  public static class LineSummary {
+    private final int myLineNumber;
+    private final Counter myCounter;
+
+    private LineSummary(int lineNumber, Counter counter) {
+      myLineNumber = lineNumber;
+      myCounter = counter;
+    }
+
+    public int getLineNumber() {
+      return myLineNumber;
+    }
+
+    public Counter getCounter() {
+      return myCounter;
+    }
+  }
+}
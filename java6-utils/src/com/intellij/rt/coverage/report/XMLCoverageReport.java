@@ -16,23 +16,23 @@
 
 package com.intellij.rt.coverage.report;
 
-import com.intellij.rt.coverage.data.BranchData;
 import com.intellij.rt.coverage.data.ClassData;
-import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
-import com.intellij.rt.coverage.data.instructions.ClassInstructions;
-import com.intellij.rt.coverage.data.instructions.LineInstructions;
-import com.intellij.rt.coverage.util.ArrayUtil;
 import com.intellij.rt.coverage.util.ClassNameUtil;
 import com.intellij.rt.coverage.util.CoverageIOUtil;
 import com.intellij.rt.coverage.util.ErrorReporter;
-import org.jetbrains.coverage.gnu.trove.TIntObjectHashMap;
-import org.jetbrains.coverage.gnu.trove.TIntObjectProcedure;
 
 import javax.xml.stream.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
+/**
+ * Reads and writes coverage reports in the JaCoCo compatible XML format.
+ * <p>
+ * Packages are written into separate buffers concurrently, and the buffers are written to the report
+ * in the same order as in the single-threaded mode, so the report does not depend on the number of threads.
+ */
 public class XMLCoverageReport {
   private static final String LINE_COUNTER = "LINE";
   private static final String BRANCH_COUNTER = "BRANCH";
@@ -66,10 +66,21 @@ public class XMLCoverageReport {
   public static final String MISSED_TAG = "missed";
   public static final String COVERED_TAG = "covered";
   private static final String SOURCEFILE_NAME_TAG = "sourcefilename";
-  private final Map<String, List<LineData>> myFiles = new HashMap<String, List<LineData>>();
+  private final int myThreadsCount;
   private XMLStreamWriter myOut;
   private XMLStreamReader myIn;
 
+  public XMLCoverageReport() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param threadsCount number of threads writing packages, packages are written in the calling thread if it is 1
+   */
+  public XMLCoverageReport(int threadsCount) {
+    myThreadsCount = Math.max(1, threadsCount);
+  }
+
   /**
    * Check whether a file may be an XML coverage report of a suitable format.
    */
@@ -246,10 +257,17 @@ public class XMLCoverageReport {
   }
 
   public void write(FileOutputStream fOut, ProjectData project, String title) throws IOException {
+    write(fOut, CoverageSummary.create(project), title);
+  }
+
+  /**
+   * Writes the report from a summary, which may be shared with other reports of the same project.
+   */
+  public void write(FileOutputStream fOut, CoverageSummary summary, String title) throws IOException {
     XMLOutputFactory factory = XMLOutputFactory.newInstance();
     try {
-      myOut = factory.createXMLStreamWriter(new BufferedOutputStream(fOut));
-      myFiles.clear();
+      final OutputStream out = new BufferedOutputStream(fOut);
+      myOut = factory.createXMLStreamWriter(out);
 
       myOut.writeStartDocument();
       newLine();
@@ -257,7 +275,7 @@ public class XMLCoverageReport {
       String reportName = title != null ? title : IJ_REPORT_NAME;
       myOut.writeAttribute(NAME_TAG, reportName);
       newLine();
-      writeProject(project);
+      writeProject(summary, factory, out);
       myOut.writeEndDocument();
     } catch (XMLStreamException e) {
       throw wrapIOException(e);
@@ -279,190 +297,158 @@ public class XMLCoverageReport {
     myOut.writeCharacters(NEW_LINE);
   }
 
-  private void writeProject(ProjectData project) throws XMLStreamException {
-    final HashMap<String, List<ClassData>> packages = mapClassesToPackages(project, true);
-
-    final Counter counter = new Counter();
-    for (Map.Entry<String, List<ClassData>> packageEntry : packages.entrySet()) {
-      String packageName = packageEntry.getKey();
-      List<ClassData> classes = packageEntry.getValue();
-      final Counter packageCounter = writePackage(project, packageName, classes);
-      counter.add(packageCounter);
+  private void writeProject(CoverageSummary summary, XMLOutputFactory factory, OutputStream out) throws XMLStreamException, IOException {
+    final List<CoverageSummary.PackageSummary> packages = summary.getPackages();
+    if (myThreadsCount > 1 && packages.size() > 1) {
+      writePackagesInParallel(packages, factory, out);
+    } else {
+      for (CoverageSummary.PackageSummary packageSummary : packages) {
+        writePackage(packageSummary);
+      }
     }
-    writeCounter(counter, INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK | CLASS_MASK);
+    writeCounter(summary.getCounter(), INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK | CLASS_MASK);
     myOut.writeEndElement();
     newLine();
   }
 
-  private Counter writePackage(ProjectData project, String packageName, List<ClassData> classes) throws XMLStreamException {
+  /**
+   * Writes packages into buffers in a thread pool, and writes the buffers directly to <code>out</code> in the list order.
+   */
+  private void writePackagesInParallel(List<CoverageSummary.PackageSummary> packages,
+                                       XMLOutputFactory factory, OutputStream out) throws XMLStreamException, IOException {
+    final ExecutorService executor = Executors.newFixedThreadPool(myThreadsCount, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "XML report writer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      // the written part of the report must be in the stream before the buffers
+      myOut.flush();
+      // limits the number of package buffers kept in memory
+      final int window = 4 * myThreadsCount;
+      final ArrayDeque<Future<PackageBuffer>> buffers = new ArrayDeque<Future<PackageBuffer>>(window);
+      for (CoverageSummary.PackageSummary packageSummary : packages) {
+        if (buffers.size() == window) {
+          get(buffers.poll()).writeTo(out);
+        }
+        buffers.add(executor.submit(new PackageBuffer(packageSummary, factory)));
+      }
+      while (!buffers.isEmpty()) {
+        get(buffers.poll()).writeTo(out);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static <T> T get(Future<T> future) throws XMLStreamException, IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      if (cause instanceof XMLStreamException) throw (XMLStreamException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private void writePackage(CoverageSummary.PackageSummary packageSummary) throws XMLStreamException {
     myOut.writeStartElement(PACKAGE_TAG);
-    myOut.writeAttribute("name", ClassNameUtil.convertToInternalName(packageName));
+    myOut.writeAttribute("name", ClassNameUtil.convertToInternalName(packageSummary.getName()));
     newLine();
-    myFiles.clear();
-    final Counter counter = new Counter();
-    final Map<LineData, Counter> lineCounters = new HashMap<LineData, Counter>();
-    for (ClassData classData : classes) {
-      final Counter classCounter = writeClass(project, classData, lineCounters);
-      counter.add(classCounter);
+    for (CoverageSummary.ClassSummary classSummary : packageSummary.getClasses()) {
+      writeClass(classSummary);
     }
-    for (Map.Entry<String, List<LineData>> fileEntry : myFiles.entrySet()) {
-      writeFile(fileEntry.getKey(), fileEntry.getValue(), lineCounters);
+    for (CoverageSummary.FileSummary fileSummary : packageSummary.getFiles()) {
+      writeFile(fileSummary);
     }
 
-    writeCounter(counter, INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK | CLASS_MASK);
+    writeCounter(packageSummary.getCounter(), INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK | CLASS_MASK);
 
     myOut.writeEndElement();
     newLine();
-
-    return counter;
   }
 
-  private void writeFile(String fileName, List<LineData> lines, Map<LineData, Counter> lineCounters) throws XMLStreamException {
+  private void writeFile(CoverageSummary.FileSummary fileSummary) throws XMLStreamException {
     myOut.writeStartElement(SOURCEFILE_TAG);
-    myOut.writeAttribute(NAME_TAG, fileName);
+    myOut.writeAttribute(NAME_TAG, fileSummary.getName());
     newLine();
-    final TIntObjectHashMap<Counter> groupedLines = new TIntObjectHashMap<Counter>();
-    for (LineData lineData : lines) {
-      if (lineData == null) continue;
-      final int lineNumber = lineData.getLineNumber();
-      Counter lineCounter = groupedLines.get(lineNumber);
-      if (lineCounter == null) {
-        lineCounter = new Counter();
-        groupedLines.put(lineNumber, lineCounter);
-      }
-      final Counter counter = lineCounters.get(lineData);
-      if (counter != null) {
-        lineCounter.add(counter);
-      }
+    for (CoverageSummary.LineSummary line : fileSummary.getLines()) {
+      writeLine(line.getCounter(), line.getLineNumber());
     }
-
-    final List<LineCounter> groupedLinesList = new ArrayList<LineCounter>();
-    groupedLines.forEachEntry(new TIntObjectProcedure<Counter>() {
-      public boolean execute(int lineNumber, Counter counter) {
-        groupedLinesList.add(new LineCounter(lineNumber, counter));
-        return true;
-      }
-    });
-
-    Collections.sort(groupedLinesList, new Comparator<LineCounter>() {
-      public int compare(LineCounter o1, LineCounter o2) {
-        return o1.line - o2.line;
-      }
-    });
-
-
-    final Counter counter = new Counter();
-    for (LineCounter lineCounter : groupedLinesList) {
-      writeLine(lineCounter.counter, lineCounter.line);
-      counter.add(lineCounter.counter);
-    }
-    writeCounter(counter, INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK);
+    writeCounter(fileSummary.getCounter(), INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK);
     myOut.writeEndElement();
     newLine();
   }
 
-  private Counter writeClass(ProjectData project, ClassData classData, Map<LineData, Counter> lineCounters) throws XMLStreamException {
-    final ClassInstructions classInstructions = project.getInstructions().get(classData.getName());
+  private void writeClass(CoverageSummary.ClassSummary classSummary) throws XMLStreamException {
     myOut.writeStartElement(CLASS_TAG);
-    final String className = ClassNameUtil.convertToInternalName(classData.getName());
+    final String className = ClassNameUtil.convertToInternalName(classSummary.getName());
     myOut.writeAttribute("name", className);
-    String sourceName = classData.getSource();
+    String sourceName = classSummary.getSource();
     if (sourceName != null && !sourceName.isEmpty()) {
       myOut.writeAttribute(SOURCEFILE_NAME_TAG, sourceName);
-      newLine();
-      List<LineData> lines = myFiles.get(sourceName);
-      if (lines == null) {
-        lines = new ArrayList<LineData>();
-        myFiles.put(sourceName, lines);
-      }
-      LineData[] linesArray = (LineData[]) classData.getLines();
-      if (linesArray != null) {
-        for (LineData line : linesArray) {
-          if (line == null) continue;
-          lines.add(line);
-        }
-      }
-    } else {
-      newLine();
     }
-    final Counter counter = new Counter();
-    Map<String, List<LineData>> methods = classData.mapLinesToMethods();
-    for (Map.Entry<String, List<LineData>> methodEntry : methods.entrySet()) {
-      final Counter methodCounter = writeMethod(classInstructions, methodEntry.getKey(), methodEntry.getValue(), lineCounters);
-      counter.add(methodCounter);
+    newLine();
+    for (CoverageSummary.MethodSummary method : classSummary.getMethods()) {
+      writeMethod(method);
     }
-    counter.totalClasses = 1;
-    if (counter.coveredMethods > 0) counter.coveredClasses = 1;
-    writeCounter(counter, INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK);
+    writeCounter(classSummary.getCounter(), INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK | METHOD_MASK);
     myOut.writeEndElement();
     newLine();
-    return counter;
   }
 
-  private Counter writeMethod(ClassInstructions classInstructions, String signature, List<LineData> lines, Map<LineData, Counter> lineCounters) throws XMLStreamException {
+  private void writeMethod(CoverageSummary.MethodSummary method) throws XMLStreamException {
     myOut.writeStartElement(METHOD_TAG);
+    final String signature = method.getSignature();
     int nameIndex = signature.indexOf('(');
     String name = signature.substring(0, nameIndex);
     String descriptor = signature.substring(nameIndex);
     myOut.writeAttribute(NAME_TAG, name);
     myOut.writeAttribute(DESC_TAG, descriptor);
     newLine();
-
-    final Counter counter = new Counter();
-    final LineInstructions[] instructions = classInstructions == null ? null : classInstructions.getlines();
-    for (LineData lineData : lines) {
-      if (lineData == null) continue;
-      final LineInstructions lineInstructions = ArrayUtil.safeLoad(instructions, lineData.getLineNumber());
-      final Counter lineCounter = getLineCounter(lineInstructions, lineData);
-      lineCounters.put(lineData, lineCounter);
-      counter.add(lineCounter);
-    }
-    counter.totalMethods = 1;
-    if (counter.coveredLines > 0) counter.coveredMethods = 1;
-    writeCounter(counter, INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK);
+    writeCounter(method.getCounter(), INSTRUCTION_MASK | LINE_MASK | BRANCH_MASK);
 
     myOut.writeEndElement();
     newLine();
-    return counter;
   }
 
-  private void writeLine(Counter counter, int lineNumber) throws XMLStreamException {
+  private void writeLine(CoverageSummary.Counter counter, int lineNumber) throws XMLStreamException {
     myOut.writeEmptyElement(LINE_TAG);
     myOut.writeAttribute(LINE_NUMBER_TAG, Integer.toString(lineNumber));
 
-    myOut.writeAttribute(MISSED_INSTRUCTIONS_TAG, Integer.toString(counter.totalInstructions - counter.coveredInstructions));
-    myOut.writeAttribute(COVERED_INSTRUCTIONS_TAG, Integer.toString(counter.coveredInstructions));
-    myOut.writeAttribute(MISSED_BRANCHES_TAG, Integer.toString(counter.totalBranches - counter.coveredBranches));
-    myOut.writeAttribute(COVERED_BRANCHES_TAG, Integer.toString(counter.coveredBranches));
+    final int coveredInstructions = getCoveredInstructions(counter);
+    myOut.writeAttribute(MISSED_INSTRUCTIONS_TAG, Integer.toString(getTotalInstructions(counter) - coveredInstructions));
+    myOut.writeAttribute(COVERED_INSTRUCTIONS_TAG, Integer.toString(coveredInstructions));
+    myOut.writeAttribute(MISSED_BRANCHES_TAG, Integer.toString(counter.getTotalBranches() - counter.getCoveredBranches()));
+    myOut.writeAttribute(COVERED_BRANCHES_TAG, Integer.toString(counter.getCoveredBranches()));
     newLine();
   }
 
-  private Counter getLineCounter(LineInstructions lineInstructions, LineData lineData) {
-    final Counter counter = new Counter();
-    counter.totalLines = 1;
-    counter.coveredLines = lineData.getHits() > 0 ? 1 : 0;
-
-    final BranchData branchData = lineData.getBranchData();
-    counter.totalBranches = branchData == null ? 0 : branchData.getTotalBranches();
-    counter.coveredBranches = branchData == null ? 0 : branchData.getCoveredBranches();
+  /**
+   * A line without instructions data is counted as a single instruction.
+   */
+  private static int getTotalInstructions(CoverageSummary.Counter counter) {
+    return counter.getTotalInstructions() + counter.getTotalLinesWithoutInstructions();
+  }
 
-    if (lineInstructions != null) {
-      final BranchData instructionsData = lineInstructions.getInstructionsData(lineData);
-      counter.totalInstructions = instructionsData.getTotalBranches();
-      counter.coveredInstructions = instructionsData.getCoveredBranches();
-    } else {
-      counter.totalInstructions = 1;
-      counter.coveredInstructions = counter.coveredLines;
-    }
-    return counter;
+  private static int getCoveredInstructions(CoverageSummary.Counter counter) {
+    return counter.getCoveredInstructions() + counter.getCoveredLinesWithoutInstructions();
   }
 
-  private void writeCounter(Counter counter, int mask) throws XMLStreamException {
-    if ((mask & INSTRUCTION_MASK) != 0) writeCounter(INSTRUCTION_COUNTER, counter.totalInstructions, counter.coveredInstructions);
-    if ((mask & BRANCH_MASK) != 0) writeCounter(BRANCH_COUNTER, counter.totalBranches, counter.coveredBranches);
-    if ((mask & LINE_MASK) != 0) writeCounter(LINE_COUNTER, counter.totalLines, counter.coveredLines);
-    if ((mask & METHOD_MASK) != 0) writeCounter(METHOD_COUNTER, counter.totalMethods, counter.coveredMethods);
-    if ((mask & CLASS_MASK) != 0) writeCounter(CLASS_COUNTER, counter.totalClasses, counter.coveredClasses);
+  private void writeCounter(CoverageSummary.Counter counter, int mask) throws XMLStreamException {
+    if ((mask & INSTRUCTION_MASK) != 0) writeCounter(INSTRUCTION_COUNTER, getTotalInstructions(counter), getCoveredInstructions(counter));
+    if ((mask & BRANCH_MASK) != 0) writeCounter(BRANCH_COUNTER, counter.getTotalBranches(), counter.getCoveredBranches());
+    if ((mask & LINE_MASK) != 0) writeCounter(LINE_COUNTER, counter.getTotalLines(), counter.getCoveredLines());
+    if ((mask & METHOD_MASK) != 0) writeCounter(METHOD_COUNTER, counter.getTotalMethods(), counter.getCoveredMethods());
+    if ((mask & CLASS_MASK) != 0) writeCounter(CLASS_COUNTER, counter.getTotalClasses(), counter.getCoveredClasses());
   }
 
   private void writeCounter(String type, int total, int covered) throws XMLStreamException {
@@ -483,27 +469,12 @@ public class XMLCoverageReport {
   }
 
   public static HashMap<String, List<ClassData>> mapClassesToPackages(ProjectData project, boolean useClassNameIfEmpty) {
-    HashMap<String, List<ClassData>> packages = new HashMap<String, List<ClassData>>();
-    final List<ClassData> classes = new ArrayList<ClassData>(project.getClassesCollection());
-    Collections.sort(classes, new Comparator<ClassData>() {
-      @Override
-      public int compare(ClassData o1, ClassData o2) {
-        return o1.getName().compareTo(o2.getName());
-      }
-    });
-    for (ClassData classData : classes) {
+    final Map<String, ClassData> classes = new TreeMap<String, ClassData>();
+    for (ClassData classData : project.getClassesCollection()) {
       if (!shouldIncludeClass(classData)) continue;
-      String className = classData.getName();
-      int indexOfName = className.lastIndexOf('.');
-      String packageName = indexOfName < 0 ? (useClassNameIfEmpty ? className : "") : className.substring(0, indexOfName);
-      List<ClassData> packageClasses = packages.get(packageName);
-      if (!packages.containsKey(packageName)) {
-        packageClasses = new ArrayList<ClassData>();
-        packages.put(packageName, packageClasses);
-      }
-      packageClasses.add(classData);
+      classes.put(classData.getName(), classData);
     }
-    return packages;
+    return CoverageSummary.groupByPackage(classes, useClassNameIfEmpty);
   }
 
   private IOException wrapIOException(Throwable t) {
@@ -512,43 +483,33 @@ public class XMLCoverageReport {
     return e;
   }
 
-  private static class Counter {
-    public int totalClasses;
-    public int coveredClasses;
-
-    public int totalMethods;
-    public int coveredMethods;
-
-    public int totalLines;
-    public int coveredLines;
-
-    public int totalInstructions;
-    public int coveredInstructions;
-
-    public int coveredBranches;
-    public int totalBranches;
-
-    public void add(Counter other) {
-      totalClasses += other.totalClasses;
-      coveredClasses += other.coveredClasses;
-      totalMethods += other.totalMethods;
-      coveredMethods += other.coveredMethods;
-      totalLines += other.totalLines;
-      coveredLines += other.coveredLines;
-      totalBranches += other.totalBranches;
-      coveredBranches += other.coveredBranches;
-      totalInstructions += other.totalInstructions;
-      coveredInstructions += other.coveredInstructions;
+  /**
+   * A package written with a separate report instance into a buffer.
+   */
+  private static class PackageBuffer implements Callable<PackageBuffer> {
+    private final CoverageSummary.PackageSummary myPackage;
+    private final XMLOutputFactory myFactory;
+    private final ByteArrayOutputStream myBuffer = new ByteArrayOutputStream();
+
+    private PackageBuffer(CoverageSummary.PackageSummary packageSummary, XMLOutputFactory factory) {
+      myPackage = packageSummary;
+      myFactory = factory;
     }
-  }
 
-  private static class LineCounter {
-    private final int line;
-    private final Counter counter;
+    public PackageBuffer call() throws XMLStreamException {
+      final XMLCoverageReport report = new XMLCoverageReport(1);
+      // factories are not guaranteed to be thread-safe
+      synchronized (myFactory) {
+        report.myOut = myFactory.createXMLStreamWriter(myBuffer);
+      }
+      report.writePackage(myPackage);
+      report.myOut.flush();
+      report.myOut.close();
+      return this;
+    }
 
-    private LineCounter(int line, Counter counter) {
-      this.line = line;
-      this.counter = counter;
+    void writeTo(OutputStream out) throws IOException {
+      myBuffer.writeTo(out);
     }
   }
 }
@@ -16,11 +16,10 @@
 
 package org.junit.runner;
 
+import com.intellij.rt.coverage.testDiscovery.launcher.TestDiscoveryCallbacks;
 import org.junit.internal.RealSystem;
 import org.junit.runner.notification.RunListener;
 
-import java.lang.reflect.Method;
-
 public class JUnitLauncher extends JUnitCore {
 
   public static void main(String... args) {
@@ -46,48 +45,20 @@ public class JUnitLauncher extends JUnitCore {
   }
 
   private static class TestDiscoveryJUnitRunListener extends RunListener {
+    private final TestDiscoveryCallbacks myCallbacks = new TestDiscoveryCallbacks();
+
     @Override
     public void testStarted(Description description) {
-
-      final String className = description.getClassName();
-      final String methodName = description.getMethodName();
-      try {
-        Object data = getData();
-        Method testStarted = data.getClass().getMethod("testDiscoveryStarted", String.class, String.class);
-        testStarted.invoke(data, className, methodName);
-      } catch (Throwable t) {
-        t.printStackTrace();
-      }
+      myCallbacks.testStarted(description.getClassName(), description.getMethodName());
     }
 
     @Override
     public void testFinished(Description description) {
-      final String className = description.getClassName();
-      final String methodName = description.getMethodName();
-
-      try {
-        Object data = getData();
-        Method testEnded = data.getClass().getMethod("testDiscoveryEnded", String.class, String.class);
-        testEnded.invoke(data, className, methodName);
-      } catch (Throwable t) {
-        t.printStackTrace();
-      }
+      myCallbacks.testEnded(description.getClassName(), description.getMethodName());
     }
 
     void finish() {
-      try {
-        Object data = getData();
-        Method testEnded = data.getClass().getMethod("testDiscoveryFinished");
-        testEnded.invoke(data);
-      } catch (Throwable t) {
-        t.printStackTrace();
-      }
-    }
-
-    private Object getData() throws Exception {
-      return Class.forName("com.intellij.rt.coverage.data.TestDiscoveryProjectData")
-          .getMethod("getProjectData")
-          .invoke(null);
+      myCallbacks.finished();
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.testDiscovery.launcher;
+
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+
+/**
+ * JUnit Platform counterpart of the JUnit 4 <code>JUnitLauncher</code> listener.
+ * It is registered as a service, so it is enough to add it to the test classpath together with the agent.
+ * Only tests with a method source are reported.
+ * The data is finished by the agent on shutdown, as several test plans may be executed in the same JVM.
+ */
+public class TestDiscoveryTestExecutionListener implements TestExecutionListener {
+  private final TestDiscoveryCallbacks myCallbacks;
+
+  public TestDiscoveryTestExecutionListener() {
+    this(new TestDiscoveryCallbacks());
+  }
+
+  // For tests
+  TestDiscoveryTestExecutionListener(TestDiscoveryCallbacks callbacks) {
+    myCallbacks = callbacks;
+  }
+
+  @Override
+  public void executionStarted(TestIdentifier testIdentifier) {
+    final MethodSource source = getMethodSource(testIdentifier);
+    if (source == null) return;
+    myCallbacks.testStarted(source.getClassName(), source.getMethodName());
+  }
+
+  @Override
+  public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+    final MethodSource source = getMethodSource(testIdentifier);
+    if (source == null) return;
+    myCallbacks.testEnded(source.getClassName(), source.getMethodName());
+  }
+
+  private static MethodSource getMethodSource(TestIdentifier testIdentifier) {
+    if (!testIdentifier.isTest()) return null;
+    final TestSource source = testIdentifier.getSource().orElse(null);
+    return source instanceof MethodSource ? (MethodSource) source : null;
+  }
+}
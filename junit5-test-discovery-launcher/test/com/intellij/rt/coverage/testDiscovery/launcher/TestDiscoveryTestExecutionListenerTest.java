@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.testDiscovery.launcher;
+
+import org.junit.Test;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDiscoveryTestExecutionListenerTest {
+  @Test
+  public void testMethodSourceIsReported() {
+    final RecordingProjectData data = new RecordingProjectData();
+    final TestDiscoveryTestExecutionListener listener = new TestDiscoveryTestExecutionListener(new TestDiscoveryCallbacks(data));
+    final TestIdentifier test = identifier("test", TestDescriptor.Type.TEST, MethodSource.from("a.ATest", "testA"));
+
+    listener.executionStarted(test);
+    listener.executionFinished(test, TestExecutionResult.successful());
+
+    assertEquals(Arrays.asList("started a.ATest.testA", "ended a.ATest.testA"), data.myEvents);
+  }
+
+  @Test
+  public void testContainersAndOtherSourcesAreIgnored() {
+    final RecordingProjectData data = new RecordingProjectData();
+    final TestDiscoveryTestExecutionListener listener = new TestDiscoveryTestExecutionListener(new TestDiscoveryCallbacks(data));
+    final TestIdentifier container = identifier("container", TestDescriptor.Type.CONTAINER, ClassSource.from("a.ATest"));
+    final TestIdentifier classTest = identifier("class", TestDescriptor.Type.TEST, ClassSource.from("a.ATest"));
+    final TestIdentifier noSource = identifier("none", TestDescriptor.Type.TEST, null);
+
+    for (TestIdentifier identifier : Arrays.asList(container, classTest, noSource)) {
+      listener.executionStarted(identifier);
+      listener.executionFinished(identifier, TestExecutionResult.successful());
+    }
+
+    assertEquals(0, data.myEvents.size());
+  }
+
+  @Test
+  public void testMissingAgentIsIgnored() {
+    final TestDiscoveryTestExecutionListener listener = new TestDiscoveryTestExecutionListener(new TestDiscoveryCallbacks(null));
+    final TestIdentifier test = identifier("test", TestDescriptor.Type.TEST, MethodSource.from("a.ATest", "testA"));
+
+    listener.executionStarted(test);
+    listener.executionFinished(test, TestExecutionResult.successful());
+  }
+
+  private static TestIdentifier identifier(String name, final TestDescriptor.Type type, TestSource source) {
+    final UniqueId id = UniqueId.forEngine("test-engine").append("test", name);
+    return TestIdentifier.from(new AbstractTestDescriptor(id, name, source) {
+      @Override
+      public Type getType() {
+        return type;
+      }
+    });
+  }
+
+  /**
+   * Has the same methods as <code>TestDiscoveryProjectData</code> of the agent.
+   */
+  public static class RecordingProjectData {
+    private final List<String> myEvents = new ArrayList<String>();
+
+    public void testDiscoveryStarted(String className, String methodName) {
+      myEvents.add("started " + className + "." + methodName);
+    }
+
+    public void testDiscoveryEnded(String className, String methodName) {
+      myEvents.add("ended " + className + "." + methodName);
+    }
+
+    public void testDiscoveryFinished() {
+      myEvents.add("finished");
+    }
+  }
+}
@@ -21,16 +21,41 @@ import com.intellij.rt.coverage.util.CoverageIOUtil;
 import com.intellij.rt.coverage.util.ErrorReporter;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * This report is used in case of offline instrumentation.
  * As no class file analysis is done in runtime, this report stores coverage results
  * in row format. It includes only class names and arrays with hits.
  * On load, this information could be applied to a ProjectData with already analysed classes.
+ * <p>
+ * The format version is stored in the configuration line after the magic number:
+ * <ul>
+ *   <li>{@link #LEGACY_VERSION}: a class name and a varint per array element for each class;</li>
+ *   <li>{@link #COMPACT_VERSION}: the number of classes, then for each class in the order of names:
+ *   the class name front-coded against the previous name, the array kind and length, and the array,
+ *   which is a bitmap for boolean masks, and a list of index gaps and hits for mostly-zero hits arrays.</li>
+ * </ul>
+ * The legacy version is written by default, as the older loaders do not check the version.
+ * The compact version is written when it is requested explicitly or with the {@link #VERSION_PROPERTY} property.
  */
 public class RawHitsReport {
   private static final int MAGIC = 284996684;
 
+  public static final String LEGACY_VERSION = "";
+  public static final String COMPACT_VERSION = "2";
+  /**
+   * Version of the reports written by default, {@link #LEGACY_VERSION} if it is not set.
+   */
+  public static final String VERSION_PROPERTY = "coverage.offline.report.version";
+
+  private static final byte MASK_KIND = 0;
+  private static final byte DENSE_HITS_KIND = 1;
+  private static final byte SPARSE_HITS_KIND = 2;
+
   static void dump(File file, RawProjectData data) {
     DataOutputStream os = null;
     try {
@@ -49,11 +74,33 @@ public class RawHitsReport {
   }
 
   public static void dump(DataOutput out, RawProjectData data) throws IOException {
+    dump(out, data, getDefaultVersion());
+  }
+
+  /**
+   * @param version {@link #LEGACY_VERSION} to be read by the older report loaders, or {@link #COMPACT_VERSION}
+   */
+  public static void dump(DataOutput out, RawProjectData data, String version) throws IOException {
     CoverageIOUtil.writeINT(out, MAGIC);
+    CoverageIOUtil.writeUTF(out, version);
+    if (COMPACT_VERSION.equals(version)) {
+      dumpCompact(out, data);
+    } else if (LEGACY_VERSION.equals(version)) {
+      dumpLegacy(out, data);
+    } else {
+      throw new IllegalArgumentException("Unknown raw hits report version: " + version);
+    }
+  }
 
-    // leave empty line as a space for format configuration
-    CoverageIOUtil.writeUTF(out, "");
+  private static String getDefaultVersion() {
+    final String version = System.getProperty(VERSION_PROPERTY);
+    if (version == null || LEGACY_VERSION.equals(version)) return LEGACY_VERSION;
+    if (COMPACT_VERSION.equals(version)) return COMPACT_VERSION;
+    ErrorReporter.warn("Unknown raw hits report version " + version + ", the legacy version is used");
+    return LEGACY_VERSION;
+  }
 
+  private static void dumpLegacy(DataOutput out, RawProjectData data) throws IOException {
     for (RawClassData classData : data.getClasses()) {
       int[] hits = CommonArrayUtil.getIntArray(classData.hits);
       if (hits == null || hits.length == 0) continue;
@@ -68,6 +115,79 @@ public class RawHitsReport {
     CoverageIOUtil.writeUTF(out, "");
   }
 
+  private static void dumpCompact(DataOutput out, RawProjectData data) throws IOException {
+    final List<RawClassData> classes = new ArrayList<RawClassData>();
+    for (RawClassData classData : data.getClasses()) {
+      if (classData.getLength() > 0) classes.add(classData);
+    }
+    Collections.sort(classes, new Comparator<RawClassData>() {
+      public int compare(RawClassData o1, RawClassData o2) {
+        return o1.name.compareTo(o2.name);
+      }
+    });
+    CoverageIOUtil.writeINT(out, classes.size());
+    String previousName = "";
+    for (RawClassData classData : classes) {
+      final String name = classData.name;
+      final int prefix = commonPrefixLength(previousName, name);
+      CoverageIOUtil.writeINT(out, prefix);
+      CoverageIOUtil.writeUTF(out, name.substring(prefix));
+      previousName = name;
+
+      if (classData.hits instanceof boolean[]) {
+        writeMask(out, (boolean[]) classData.hits);
+      } else {
+        // the hits may be updated concurrently, so the encoding is chosen for a snapshot
+        writeHits(out, ((int[]) classData.hits).clone());
+      }
+    }
+  }
+
+  private static void writeMask(DataOutput out, boolean[] mask) throws IOException {
+    out.writeByte(MASK_KIND);
+    CoverageIOUtil.writeINT(out, mask.length);
+    for (int i = 0; i < mask.length; i += 8) {
+      int bits = 0;
+      for (int j = 0; j < 8 && i + j < mask.length; j++) {
+        if (mask[i + j]) bits |= 1 << j;
+      }
+      out.writeByte(bits);
+    }
+  }
+
+  private static void writeHits(DataOutput out, int[] hits) throws IOException {
+    int nonZero = 0;
+    for (int hit : hits) {
+      if (hit != 0) nonZero++;
+    }
+    // an index gap and a value are written for each non-zero element of a sparse array
+    if (2 * nonZero < hits.length) {
+      out.writeByte(SPARSE_HITS_KIND);
+      CoverageIOUtil.writeINT(out, hits.length);
+      CoverageIOUtil.writeINT(out, nonZero);
+      int previous = -1;
+      for (int i = 0; i < hits.length; i++) {
+        if (hits[i] == 0) continue;
+        CoverageIOUtil.writeINT(out, i - previous - 1);
+        CoverageIOUtil.writeINT(out, hits[i]);
+        previous = i;
+      }
+    } else {
+      out.writeByte(DENSE_HITS_KIND);
+      CoverageIOUtil.writeINT(out, hits.length);
+      for (int hit : hits) {
+        CoverageIOUtil.writeINT(out, hit);
+      }
+    }
+  }
+
+  private static int commonPrefixLength(String a, String b) {
+    final int length = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < length && a.charAt(i) == b.charAt(i)) i++;
+    return i;
+  }
+
   public static RawProjectData load(File file) throws IOException {
     final RawProjectData projectData = new RawProjectData();
     DataInputStream is = null;
@@ -79,8 +199,14 @@ public class RawHitsReport {
         throw new IOException("This file is not in raw hits report format");
       }
 
-      // read config line
-      CoverageIOUtil.readUTFFast(is);
+      final String version = CoverageIOUtil.readUTFFast(is);
+      if (COMPACT_VERSION.equals(version)) {
+        loadCompact(is, projectData);
+        return projectData;
+      }
+      if (!LEGACY_VERSION.equals(version)) {
+        throw new IOException("Unsupported raw hits report version: " + version);
+      }
 
       String className;
       while (!"".equals(className = CoverageIOUtil.readUTFFast(is))) {
@@ -96,6 +222,44 @@ public class RawHitsReport {
     return projectData;
   }
 
+  private static void loadCompact(DataInput in, RawProjectData projectData) throws IOException {
+    final int classesCount = CoverageIOUtil.readINT(in);
+    String previousName = "";
+    for (int c = 0; c < classesCount; c++) {
+      final int prefix = CoverageIOUtil.readINT(in);
+      final String className = previousName.substring(0, prefix) + CoverageIOUtil.readUTFFast(in);
+      previousName = className;
+
+      final byte kind = in.readByte();
+      final int length = CoverageIOUtil.readINT(in);
+      final int[] hits = (int[]) projectData.getOrCreateClass(className, length, true).hits;
+      if (kind == MASK_KIND) {
+        for (int i = 0; i < length; i += 8) {
+          final int bits = in.readUnsignedByte();
+          for (int j = 0; j < 8 && i + j < length; j++) {
+            if ((bits & (1 << j)) != 0) hits[i + j] = 1;
+          }
+        }
+      } else if (kind == SPARSE_HITS_KIND) {
+        final int nonZero = CoverageIOUtil.readINT(in);
+        int index = -1;
+        for (int i = 0; i < nonZero; i++) {
+          index += CoverageIOUtil.readINT(in) + 1;
+          hits[index] = CoverageIOUtil.readINT(in);
+        }
+      } else if (kind == DENSE_HITS_KIND) {
+        for (int i = 0; i < length; i++) {
+          hits[i] = CoverageIOUtil.readINT(in);
+        }
+      } else {
+        throw new IOException("Unknown hits array kind " + kind + " of class " + className);
+      }
+    }
+  }
+
+  /**
+   * Checks the magic number, which is the same for all the versions of the report.
+   */
   public static boolean isRawHitsFile(File file) throws IOException {
     DataInputStream is = null;
     try {
@@ -17,15 +17,16 @@
 package com.intellij.rt.coverage.offline;
 
 import java.util.Collection;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
- * A storage for class data at runtime in case of offline instrumentation
+ * A storage for class data at runtime in case of offline instrumentation.
+ * Classes are registered without locking, as many classes may be initialized concurrently.
  */
 public class RawProjectData {
-  private final Map<String, RawClassData> myClasses = new ConcurrentHashMap<String, RawClassData>();
+  private final ConcurrentMap<String, RawClassData> myClasses = new ConcurrentHashMap<String, RawClassData>();
 
   public Collection<RawClassData> getClasses() {
     return myClasses.values();
@@ -40,14 +41,16 @@ public class RawProjectData {
     return createClassData(className, length, hits);
   }
 
-  private synchronized RawClassData createClassData(String className, int length, boolean hits) {
-    RawClassData classData = myClasses.get(className);
-    if (classData != null) {
-      checkLength(classData, length);
-      return classData;
+  /**
+   * In case of a race, the data registered first is used by all the threads.
+   */
+  private RawClassData createClassData(String className, int length, boolean hits) {
+    final RawClassData classData = new RawClassData(className, hits ? new int[length] : new boolean[length]);
+    final RawClassData existing = myClasses.putIfAbsent(className, classData);
+    if (existing != null) {
+      checkLength(existing, length);
+      return existing;
     }
-    classData = new RawClassData(className, hits ? new int[length] : new boolean[length]);
-    myClasses.put(className, classData);
     return classData;
   }
 
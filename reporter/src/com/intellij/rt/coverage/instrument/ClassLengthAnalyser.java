@@ -23,12 +23,22 @@ import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
 
 /**
  * A class visitor to collect information about number of jumps and lines.
+ * The class is passed to the delegate visitor unchanged, so that the class is analysed while it is instrumented.
  */
 class ClassLengthAnalyser extends ClassVisitor {
+  private final int myLengthPlaceholder;
   private int myHits = 0;
 
-  public ClassLengthAnalyser() {
-    super(Opcodes.API_VERSION);
+  /**
+   * @param lengthPlaceholder the constant used by the delegate visitor instead of the not yet known length
+   */
+  public ClassLengthAnalyser(ClassVisitor cv, int lengthPlaceholder) {
+    super(Opcodes.API_VERSION, cv);
+    myLengthPlaceholder = lengthPlaceholder;
+  }
+
+  public int getLengthPlaceholder() {
+    return myLengthPlaceholder;
   }
 
   public int getHits() {
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.instrument;
+
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of an incrementally instrumented output directory: size, modification time and content hash of
+ * every input file, together with a hash of the instrumentation options.
+ * An input file is instrumented again only if its content has changed or its output is missing.
+ * <p>
+ * Format: the first line is the options hash, then a line per file:
+ * relative path, size, modification time and content hash separated with tabs.
+ */
+class InstrumentationManifest {
+  static final String FILE_NAME = ".coverage-instrumentation-manifest";
+
+  private final File myOutputRoot;
+  private final String myOptionsHash;
+  private final Map<String, Entry> myOldEntries = new ConcurrentHashMap<String, Entry>();
+  private final Map<String, Entry> myNewEntries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Loads the manifest of the output root. Previous state is ignored if it is missing, broken or the options have changed.
+   */
+  InstrumentationManifest(File outputRoot, String optionsHash) {
+    myOutputRoot = outputRoot;
+    myOptionsHash = optionsHash;
+    final File file = new File(outputRoot, FILE_NAME);
+    if (!file.isFile()) return;
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      if (!optionsHash.equals(reader.readLine())) return;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] parts = line.split("\t");
+        if (parts.length != 4) {
+          myOldEntries.clear();
+          return;
+        }
+        myOldEntries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+      }
+    } catch (IOException e) {
+      myOldEntries.clear();
+    } catch (NumberFormatException e) {
+      myOldEntries.clear();
+    } finally {
+      CoverageIOUtil.close(reader);
+    }
+  }
+
+  /**
+   * Checks the input file with its size and modification time first, and with its content if they have changed.
+   * The input file is recorded to the new state of the manifest.
+   *
+   * @param path   path of the file relative to the root
+   * @param input  input file
+   * @param output output file of the input
+   * @return <code>null</code> if the output is up to date, input file content otherwise
+   */
+  byte[] readIfChanged(String path, File input, File output) throws IOException {
+    final long size = input.length();
+    final long modificationTime = input.lastModified();
+    final Entry old = myOldEntries.get(path);
+    final boolean outputExists = old != null && output.isFile();
+    if (outputExists && old.mySize == size && old.myModificationTime == modificationTime) {
+      myNewEntries.put(path, old);
+      return null;
+    }
+    final byte[] bytes = IOUtil.readBytes(input);
+    final String hash = hash(bytes);
+    myNewEntries.put(path, new Entry(size, modificationTime, hash));
+    return outputExists && old.myHash.equals(hash) ? null : bytes;
+  }
+
+  /**
+   * Deletes outputs of the input files that have been removed since the previous instrumentation
+   * and saves the new state.
+   */
+  void finish() throws IOException {
+    for (String path : myOldEntries.keySet()) {
+      if (myNewEntries.containsKey(path)) continue;
+      final File output = new File(myOutputRoot, path);
+      if (output.exists() && !output.delete()) {
+        throw new IOException("Failed to delete " + output.getAbsolutePath());
+      }
+    }
+    final StringBuilder builder = new StringBuilder(myOptionsHash).append('\n');
+    for (Map.Entry<String, Entry> e : myNewEntries.entrySet()) {
+      final Entry entry = e.getValue();
+      builder.append(e.getKey()).append('\t')
+          .append(entry.mySize).append('\t')
+          .append(entry.myModificationTime).append('\t')
+          .append(entry.myHash).append('\n');
+    }
+    IOUtil.writeBytes(new File(myOutputRoot, FILE_NAME), builder.toString().getBytes("UTF-8"));
+  }
+
+  static String hash(String s) {
+    try {
+      return hash(s.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static String hash(byte[] bytes) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    final byte[] hash = digest.digest(bytes);
+    final StringBuilder builder = new StringBuilder(2 * hash.length);
+    for (byte b : hash) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  private static class Entry {
+    private final long mySize;
+    private final long myModificationTime;
+    private final String myHash;
+
+    private Entry(long size, long modificationTime, String hash) {
+      mySize = size;
+      myModificationTime = modificationTime;
+      myHash = hash;
+    }
+  }
+}
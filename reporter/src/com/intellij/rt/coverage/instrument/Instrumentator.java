@@ -20,33 +20,61 @@ import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
 import com.intellij.rt.coverage.instrumentation.InstrumentationOptions;
 import com.intellij.rt.coverage.report.api.Filters;
 import com.intellij.rt.coverage.util.ClassNameUtil;
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+import com.intellij.rt.coverage.util.ErrorReporter;
 import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Perform offline instrumentation of class files in specified output roots.
  * If a class is not included into coverage instrumentation via filters,
  * its class file is copied to new output directory without modifications.
+ * <p>
+ * A root is either a directory or a jar file. The output of a jar file root is a jar file too.
+ * Signature files are not copied from jar files, as the signatures are not valid after instrumentation.
+ * Files are instrumented in a pool of worker threads with a single shared transformer.
+ * <p>
+ * In the incremental mode, only changed files of directory roots are processed,
+ * see {@link InstrumentationManifest}.
  */
 public class Instrumentator {
+  private static final String MODULE_INFO = "module-info" + ClassNameUtil.CLASS_FILE_SUFFIX;
+
   private final List<File> myRoots;
   private final List<File> myOutputRoots;
   private final Filters myFilters;
+  private final int myThreadsCount;
   /**
    * This loader is provided to the instrumenter for correct frames computation in ClassWriterImpl.
    */
   private final ClassLoader myLoader;
 
   public Instrumentator(List<File> roots, List<File> outputRoots, Filters filters) {
+    this(roots, outputRoots, filters, Runtime.getRuntime().availableProcessors());
+  }
+
+  public Instrumentator(List<File> roots, List<File> outputRoots, Filters filters, int threadsCount) {
     myRoots = roots;
     myOutputRoots = outputRoots;
     myFilters = filters;
+    myThreadsCount = Math.max(1, threadsCount);
     myLoader = createClassLoader(roots);
   }
 
@@ -63,11 +91,133 @@ public class Instrumentator {
   }
 
   public void instrument(final boolean countHits) {
-    for (int i = 0; i < myRoots.size(); i++) {
-      final File root = myRoots.get(i);
-      final File outputRoot = myOutputRoots.get(i);
-      new InstrumentationVisitor(root, outputRoot, countHits).visitFiles();
+    instrument(countHits, false);
+  }
+
+  /**
+   * @param incremental skip files of directory roots that have not changed since the previous instrumentation
+   *                    into the same output root with the same options
+   */
+  public void instrument(final boolean countHits, final boolean incremental) {
+    final long start = System.nanoTime();
+    final String optionsHash = incremental ? getOptionsHash(countHits) : null;
+    if (incremental && optionsHash == null) {
+      ErrorReporter.warn("Incremental instrumentation is disabled as the instrumenter version is unknown");
+    }
+    final InstrumentationOptions options = new InstrumentationOptions.Builder()
+        .setIsCalculateHits(countHits)
+        .setExcludeAnnotations(myFilters.excludeAnnotations)
+        .build();
+    final Worker worker = new Worker(new OfflineCoverageTransformer(options));
+    final List<InstrumentationManifest> manifests = new ArrayList<InstrumentationManifest>();
+    try {
+      for (int i = 0; i < myRoots.size(); i++) {
+        final File root = myRoots.get(i);
+        final File outputRoot = myOutputRoots.get(i);
+        if (root.isFile()) {
+          new JarInstrumenter(root, outputRoot, worker).instrument();
+        } else {
+          InstrumentationManifest manifest = null;
+          if (optionsHash != null) {
+            manifest = new InstrumentationManifest(outputRoot, optionsHash);
+            manifests.add(manifest);
+          }
+          new InstrumentationVisitor(root, outputRoot, worker, manifest).visitFiles();
+        }
+      }
+      worker.waitAll();
+      for (InstrumentationManifest manifest : manifests) {
+        manifest.finish();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      worker.shutdown();
     }
+    final double time = 1. * (System.nanoTime() - start) / CoverageIOUtil.GIGA;
+    final int classes = worker.myClassesCount.get();
+    ErrorReporter.info("Offline instrumentation: " + classes + " classes in " + time + "s, "
+        + (long) (classes / Math.max(time, 1e-9)) + " classes/s in " + myThreadsCount + " threads");
+  }
+
+  /**
+   * Outputs of the previous instrumentation are reused only if the instrumenter and all the options
+   * affecting the output are the same.
+   *
+   * @return null if the instrumenter version is unknown
+   */
+  private String getOptionsHash(boolean countHits) {
+    final String instrumentatorVersion = getInstrumenterVersion(Instrumentator.class);
+    final String transformerVersion = getInstrumenterVersion(CoverageTransformer.class);
+    if (instrumentatorVersion == null || transformerVersion == null) return null;
+    final StringBuilder builder = new StringBuilder("v2\n")
+        .append(instrumentatorVersion).append('\n')
+        .append(transformerVersion).append('\n')
+        .append(countHits).append('\n');
+    appendPatterns(builder, "includeClasses", myFilters.includeClasses);
+    appendPatterns(builder, "excludeClasses", myFilters.excludeClasses);
+    appendPatterns(builder, "includeAnnotations", myFilters.includeAnnotations);
+    appendPatterns(builder, "excludeAnnotations", myFilters.excludeAnnotations);
+    appendPatterns(builder, "includeInherits", myFilters.includeInherits);
+    appendPatterns(builder, "excludeInherits", myFilters.excludeInherits);
+    return InstrumentationManifest.hash(builder.toString());
+  }
+
+  private static void appendPatterns(StringBuilder builder, String name, List<Pattern> patterns) {
+    builder.append(name).append(' ').append(patterns.size()).append('\n');
+    for (Pattern pattern : patterns) {
+      builder.append(pattern.pattern()).append('\n');
+    }
+  }
+
+  /**
+   * Implementation version of the jar with the class if it is specified in the jar manifest,
+   * otherwise size and modification time of the jar or the class file, which change when the library is rebuilt.
+   * If the location of the class is unknown, the hash of the class file content is used.
+   *
+   * @return null if the version cannot be determined
+   */
+  private static String getInstrumenterVersion(Class<?> aClass) {
+    final Package aPackage = aClass.getPackage();
+    final String version = aPackage == null ? null : aPackage.getImplementationVersion();
+    if (version != null) return version;
+    final CodeSource source = aClass.getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null) return getClassContentHash(aClass);
+    File file;
+    try {
+      file = new File(source.getLocation().toURI());
+    } catch (URISyntaxException e) {
+      return getClassContentHash(aClass);
+    } catch (IllegalArgumentException e) {
+      return getClassContentHash(aClass);
+    }
+    if (file.isDirectory()) {
+      file = new File(file, aClass.getName().replace('.', File.separatorChar) + ClassNameUtil.CLASS_FILE_SUFFIX);
+    }
+    return file.length() + " " + file.lastModified();
+  }
+
+  private static String getClassContentHash(Class<?> aClass) {
+    final InputStream input = aClass.getResourceAsStream("/" + ClassNameUtil.convertToInternalName(aClass.getName()) + ClassNameUtil.CLASS_FILE_SUFFIX);
+    if (input == null) return null;
+    try {
+      return InstrumentationManifest.hash(IOUtil.readBytes(input));
+    } catch (IOException e) {
+      return null;
+    } finally {
+      CoverageIOUtil.close(input);
+    }
+  }
+
+  /**
+   * Versioned classes and module descriptors are copied as is.
+   *
+   * @param path '/' separated path relative to the root
+   */
+  private static boolean isTransformedClass(String path) {
+    return path.endsWith(ClassNameUtil.CLASS_FILE_SUFFIX)
+        && !path.startsWith("META-INF/")
+        && !path.equals(MODULE_INFO) && !path.endsWith("/" + MODULE_INFO);
   }
 
   public static byte[] instrument(final byte[] bytes, boolean countHits) {
@@ -79,46 +229,227 @@ public class Instrumentator {
     return transformer.transform(loader, className, bytes, null);
   }
 
-  private class InstrumentationVisitor extends DirectoryVisitor {
-    private final File myOutput;
+  /**
+   * Transforms files in a thread pool.
+   */
+  private class Worker {
     private final CoverageTransformer myTransformer;
+    private final ExecutorService myExecutor;
+    private final List<Future<?>> myTasks = new ArrayList<Future<?>>();
+    private final AtomicInteger myClassesCount = new AtomicInteger();
+
+    private Worker(CoverageTransformer transformer) {
+      myTransformer = transformer;
+      myExecutor = Executors.newFixedThreadPool(myThreadsCount, new ThreadFactory() {
+        private final AtomicInteger myIndex = new AtomicInteger();
 
-    private InstrumentationVisitor(File root, File output, boolean countHits) {
+        public Thread newThread(Runnable r) {
+          final Thread thread = new Thread(r, "Offline instrumentation " + myIndex.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    /**
+     * @param className internal class name or <code>null</code> if the file is not a class file
+     * @return instrumented class or the original bytes if the class is not instrumented
+     */
+    byte[] transform(String className, byte[] bytes) {
+      if (className == null) return bytes;
+      myClassesCount.incrementAndGet();
+      final byte[] transformed = myTransformer.transform(myLoader, className, null, null, bytes);
+      return transformed == null ? bytes : transformed;
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+      return myExecutor.submit(task);
+    }
+
+    void submitAndForget(Callable<?> task) {
+      myTasks.add(myExecutor.submit(task));
+    }
+
+    void waitAll() {
+      for (Future<?> task : myTasks) {
+        get(task);
+      }
+      myTasks.clear();
+    }
+
+    void shutdown() {
+      myExecutor.shutdownNow();
+    }
+  }
+
+  private static <T> T get(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private static class InstrumentationVisitor extends DirectoryVisitor {
+    private final File myOutput;
+    private final Worker myWorker;
+    private final InstrumentationManifest myManifest;
+
+    private InstrumentationVisitor(File root, File output, Worker worker, InstrumentationManifest manifest) {
       super(root);
       myOutput = output;
-      InstrumentationOptions options = new InstrumentationOptions.Builder()
-          .setIsCalculateHits(countHits)
-          .setExcludeAnnotations(myFilters.excludeAnnotations)
-          .build();
-      myTransformer = new OfflineCoverageTransformer(options);
+      myWorker = worker;
+      myManifest = manifest;
     }
 
     @Override
-    protected void visitFile(String packageName, File file) {
-      try {
-        byte[] bytes = IOUtil.readBytes(file);
-
-        if (file.getName().endsWith(ClassNameUtil.CLASS_FILE_SUFFIX)) {
-          final String classSimpleName = ClassNameUtil.removeClassSuffix(file.getName());
-          final String className = packageName.isEmpty()
-              ? classSimpleName
-              : ClassNameUtil.convertToInternalName(packageName) + "/" + classSimpleName;
-          final byte[] transformed = myTransformer.transform(myLoader, className, null, null, bytes);
-          if (transformed != null) {
-            bytes = transformed;
+    protected void visitFile(final String packageName, final File file) {
+      myWorker.submitAndForget(new Callable<Object>() {
+        public Object call() throws IOException {
+          final String relativePath = packageName.isEmpty()
+              ? file.getName()
+              : packageName.replace('.', '/') + "/" + file.getName();
+          final File directory = new File(myOutput, packageName.replace(".", File.separator));
+          final File newFile = new File(directory, file.getName());
+          final byte[] original;
+          if (myManifest == null) {
+            original = IOUtil.readBytes(file);
+          } else {
+            original = myManifest.readIfChanged(relativePath, file, newFile);
+            if (original == null) return null;
           }
-        }
 
-        final File directory = new File(myOutput, packageName.replace(".", File.separator));
-        if (!directory.exists() && !directory.mkdirs()) {
-          throw new RuntimeException("Failed to create directory at " + directory.getAbsolutePath());
+          String className = null;
+          if (isTransformedClass(relativePath)) {
+            final String classSimpleName = ClassNameUtil.removeClassSuffix(file.getName());
+            className = packageName.isEmpty()
+                ? classSimpleName
+                : ClassNameUtil.convertToInternalName(packageName) + "/" + classSimpleName;
+          }
+          final byte[] bytes = myWorker.transform(className, original);
+
+          // the directory may be created concurrently
+          if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new RuntimeException("Failed to create directory at " + directory.getAbsolutePath());
+          }
+
+          IOUtil.writeBytes(newFile, bytes);
+          return null;
         }
+      });
+    }
+  }
+
+  /**
+   * Instruments a jar file into a new jar file. Entries are transformed in parallel
+   * and written in the original order.
+   */
+  private class JarInstrumenter {
+    private final File myRoot;
+    private final File myOutput;
+    private final Worker myWorker;
+
+    private JarInstrumenter(File root, File output, Worker worker) {
+      myRoot = root;
+      myOutput = output;
+      myWorker = worker;
+    }
 
-        final File newFile = new File(directory, file.getName());
-        IOUtil.writeBytes(newFile, bytes);
+    void instrument() {
+      final File parent = myOutput.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new RuntimeException("Failed to create directory at " + parent.getAbsolutePath());
+      }
+      ZipFile zip = null;
+      ZipOutputStream output = null;
+      try {
+        zip = new ZipFile(myRoot);
+        output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(myOutput)));
+        // limits the number of entries kept in memory
+        final int window = 4 * myThreadsCount;
+        final ArrayDeque<Future<TransformedEntry>> entries = new ArrayDeque<Future<TransformedEntry>>(window);
+        final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+          final ZipEntry entry = zipEntries.nextElement();
+          if (isSignatureFile(entry.getName())) continue;
+          if (entries.size() == window) {
+            write(output, get(entries.poll()));
+          }
+          entries.add(myWorker.submit(new TransformedEntry(zip, entry, myWorker)));
+        }
+        while (!entries.isEmpty()) {
+          write(output, get(entries.poll()));
+        }
       } catch (IOException e) {
         throw new RuntimeException(e);
+      } finally {
+        CoverageIOUtil.close(output);
+        if (zip != null) {
+          try {
+            zip.close();
+          } catch (IOException ignored) {
+          }
+        }
+      }
+    }
+
+    private void write(ZipOutputStream output, TransformedEntry entry) throws IOException {
+      final ZipEntry newEntry = new ZipEntry(entry.myEntry.getName());
+      newEntry.setTime(entry.myEntry.getTime());
+      output.putNextEntry(newEntry);
+      if (entry.myBytes != null) {
+        output.write(entry.myBytes);
+      }
+      output.closeEntry();
+    }
+  }
+
+  /**
+   * Signature block files and signature files of a signed jar, see the jar file specification.
+   */
+  static boolean isSignatureFile(String name) {
+    if (!name.regionMatches(true, 0, "META-INF/", 0, "META-INF/".length())) return false;
+    final String fileName = name.substring("META-INF/".length());
+    if (fileName.indexOf('/') >= 0) return false;
+    final String upperCase = fileName.toUpperCase(Locale.ENGLISH);
+    return upperCase.startsWith("SIG-")
+        || upperCase.endsWith(".SF")
+        || upperCase.endsWith(".RSA")
+        || upperCase.endsWith(".DSA")
+        || upperCase.endsWith(".EC");
+  }
+
+  private static class TransformedEntry implements Callable<TransformedEntry> {
+    private final ZipFile myZip;
+    private final ZipEntry myEntry;
+    private final Worker myWorker;
+    private byte[] myBytes;
+
+    private TransformedEntry(ZipFile zip, ZipEntry entry, Worker worker) {
+      myZip = zip;
+      myEntry = entry;
+      myWorker = worker;
+    }
+
+    public TransformedEntry call() throws IOException {
+      if (myEntry.isDirectory()) return this;
+      final InputStream input = myZip.getInputStream(myEntry);
+      final byte[] bytes;
+      try {
+        bytes = IOUtil.readBytes(input);
+      } finally {
+        CoverageIOUtil.close(input);
       }
+      final String name = myEntry.getName();
+      final boolean isClass = isTransformedClass(name);
+      myBytes = myWorker.transform(isClass ? ClassNameUtil.removeClassSuffix(name) : null, bytes);
+      return this;
     }
   }
 }
@@ -23,6 +23,8 @@ import com.intellij.rt.coverage.instrumentation.data.ProjectContext;
 import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
 import com.intellij.rt.coverage.instrumentation.dataAccess.DataAccessUtil;
 import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
 
 
 /**
@@ -30,19 +32,34 @@ import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
  * can be initialized without information in ProjectData.
  * Namely, the bytecode generated with this transformer includes length of data array for coverage hits storage.
  * <p>
+ * The class is parsed once: the length is calculated while the class is instrumented, so a placeholder
+ * constant is used in the bytecode, which is replaced with the actual length in the constant pool of the result.
+ * The placeholder is added to the constant pool first, so it is found in the result without parsing it.
+ * <p>
  * Offline instrumentation is required when there is no ability to install transformer on VM start.
  * Instead, offline transformation is run before application start with modification of class files on disk.
  *
  * @see com.intellij.rt.coverage.offline.RawProjectInit
  */
 public class OfflineCoverageTransformer extends CoverageTransformer {
+  private static final int CONSTANT_INTEGER_TAG = 3;
+  /**
+   * Offset of the first constant pool entry: magic, minor and major versions, and constant pool size.
+   */
+  private static final int FIRST_CONSTANT_OFFSET = 10;
+
+  /**
+   * Placeholder of the class which visitor is being created in this thread.
+   */
+  private final ThreadLocal<Integer> myLengthPlaceholder = new ThreadLocal<Integer>();
+
   public OfflineCoverageTransformer(InstrumentationOptions options) {
     super(new ProjectData(), new ProjectContext(options, null));
   }
 
   @Override
   protected CoverageDataAccess.Init createInit(String className, ClassReader cr, boolean needCache) {
-    int length = getRequiredArrayLength(cr);
+    int length = getCurrentLengthPlaceholder(cr);
     boolean calculateHits = myProjectContext.getOptions().isCalculateHits;
     String arrayType = calculateHits ? DataAccessUtil.HITS_ARRAY_TYPE : DataAccessUtil.MASK_ARRAY_TYPE;
     String methodName = calculateHits ? "getOrCreateHits" : "getOrCreateHitsMask";
@@ -52,7 +69,7 @@ public class OfflineCoverageTransformer extends CoverageTransformer {
 
   @Override
   protected CoverageDataAccess.Init createCondyInit(String className, ClassReader cr) {
-    final int length = getRequiredArrayLength(cr);
+    final int length = getCurrentLengthPlaceholder(cr);
     boolean calculateHits = myProjectContext.getOptions().isCalculateHits;
     String arrayType = calculateHits ? DataAccessUtil.HITS_ARRAY_TYPE : DataAccessUtil.MASK_ARRAY_TYPE;
     String methodName = calculateHits ? "getOrCreateHits" : "getOrCreateHitsMask";
@@ -60,13 +77,75 @@ public class OfflineCoverageTransformer extends CoverageTransformer {
         methodName, "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;I)" + arrayType, new Object[]{className, length});
   }
 
-  private static int getRequiredArrayLength(ClassReader cr) {
-    return analyseClassLength(cr).getHits();
+  @Override
+  protected ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw) {
+    final int placeholder = getLengthPlaceholder(cr);
+    if (cw instanceof ClassWriter) {
+      ((ClassWriter) cw).newConst(placeholder);
+    }
+    final ClassVisitor instrumenter;
+    myLengthPlaceholder.set(placeholder);
+    try {
+      instrumenter = super.createClassVisitor(className, loader, cr, cw);
+    } finally {
+      myLengthPlaceholder.remove();
+    }
+    if (instrumenter == null) return null;
+    return new ClassLengthAnalyser(instrumenter, placeholder);
+  }
+
+  @Override
+  protected byte[] finishTransformation(ClassVisitor cv, byte[] bytes) {
+    final ClassLengthAnalyser analyser = (ClassLengthAnalyser) cv;
+    final int placeholder = analyser.getLengthPlaceholder();
+    int index = FIRST_CONSTANT_OFFSET + 1;
+    if (bytes[index - 1] != CONSTANT_INTEGER_TAG || readInt(bytes, index) != placeholder) {
+      // the writer was not empty, so the placeholder is searched in the whole constant pool
+      index = findIntConstant(new ClassReader(bytes), placeholder);
+    }
+    if (index > 0) {
+      // the bytes are created by the class writer, so they can be patched in place
+      final int value = analyser.getHits();
+      bytes[index] = (byte) (value >>> 24);
+      bytes[index + 1] = (byte) (value >>> 16);
+      bytes[index + 2] = (byte) (value >>> 8);
+      bytes[index + 3] = (byte) value;
+    }
+    return bytes;
+  }
+
+  private int getCurrentLengthPlaceholder(ClassReader cr) {
+    final Integer placeholder = myLengthPlaceholder.get();
+    return placeholder != null ? placeholder : getLengthPlaceholder(cr);
+  }
+
+  private static int readInt(byte[] bytes, int index) {
+    return (bytes[index] & 0xFF) << 24 | (bytes[index + 1] & 0xFF) << 16 | (bytes[index + 2] & 0xFF) << 8 | (bytes[index + 3] & 0xFF);
+  }
+
+  /**
+   * The placeholder must not be used by the original class, so that only the placeholder is replaced in the result.
+   * Large values are chosen, as they are loaded from the constant pool with <code>LDC</code>.
+   */
+  private static int getLengthPlaceholder(ClassReader cr) {
+    int placeholder = Integer.MAX_VALUE;
+    while (findIntConstant(cr, placeholder) > 0) {
+      placeholder--;
+    }
+    return placeholder;
   }
 
-  private static ClassLengthAnalyser analyseClassLength(ClassReader cr) {
-    final ClassLengthAnalyser analyser = new ClassLengthAnalyser();
-    cr.accept(analyser, ClassReader.SKIP_FRAMES);
-    return analyser;
+  /**
+   * @return offset of the integer constant value in the class bytes, or -1 if there is no such constant in the constant pool
+   */
+  private static int findIntConstant(ClassReader cr, int value) {
+    for (int i = 1; i < cr.getItemCount(); i++) {
+      final int offset = cr.getItem(i);
+      // the second slots of long and double constants have no offset
+      if (offset > 0 && cr.readByte(offset - 1) == CONSTANT_INTEGER_TAG && cr.readInt(offset) == value) {
+        return offset;
+      }
+    }
+    return -1;
   }
 }
@@ -34,6 +34,13 @@ public class OfflineInstrumentationApi {
     new Instrumentator(roots, outputRoots, filters).instrument(countHits);
   }
 
+  /**
+   * @param incremental reuse the outputs of directory roots that have not changed since the previous instrumentation
+   */
+  public static void instrument(List<File> roots, List<File> outputRoots, Filters filters, boolean countHits, boolean incremental) {
+    new Instrumentator(roots, outputRoots, filters).instrument(countHits, incremental);
+  }
+
   public static byte[] instrument(InputStream input, boolean countHits) throws IOException {
     byte[] bytes = IOUtil.readBytes(input);
     return Instrumentator.instrument(bytes, countHits);
@@ -24,22 +24,41 @@ import jetbrains.coverage.report.SourceCodeProvider;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * Provide source code for HTML report.
  */
-public class DirectorySourceCodeProvider implements SourceCodeProvider {
+public class DirectorySourceCodeProvider implements SourceCodeProvider, Closeable {
   private final FileLocator myFileLocator;
+  private final Map<String, Pattern> myPackagePatterns = new ConcurrentHashMap<String, Pattern>();
+  private final SourceFilePrefetcher myPrefetcher;
 
   public DirectorySourceCodeProvider(ProjectData projectData, List<File> sources) {
+    this(projectData, sources, 0);
+  }
+
+  /**
+   * @param threadsCount number of threads reading source files ahead of the requests, 0 to read files on demand
+   */
+  public DirectorySourceCodeProvider(ProjectData projectData, List<File> sources, int threadsCount) {
     myFileLocator = new SourceFileLocator(sources, projectData);
+    if (threadsCount > 0) {
+      final List<String> classNames = new ArrayList<String>(projectData.getClasses().keySet());
+      myPrefetcher = new SourceFilePrefetcher(myFileLocator, classNames, threadsCount);
+    } else {
+      myPrefetcher = null;
+    }
   }
 
-  private static String readText(File file) {
+  static String readText(File file) {
     try {
       return FileUtils.readAll(file);
     } catch (IOException e) {
@@ -75,14 +94,13 @@ public class DirectorySourceCodeProvider implements SourceCodeProvider {
   public CharSequence getSourceCode(@NotNull String className) {
     final List<File> candidates = myFileLocator.locate(className);
     if (candidates.isEmpty()) return null;
-    if (candidates.size() == 1) return readText(candidates.get(0));
+    if (candidates.size() == 1) return readText(className, candidates.get(0));
 
     final int packageIndex = className.lastIndexOf('.');
-    final String packageName = packageIndex == -1 ? ".*" : className.substring(0, packageIndex).replace(".", "\\.");
-    final Pattern pattern = Pattern.compile("package +" + packageName);
+    final Pattern pattern = getPackagePattern(packageIndex == -1 ? "" : className.substring(0, packageIndex));
     String lastCandidateText = null;
     for (File candidate : candidates) {
-      final String text = readText(candidate);
+      final String text = readText(className, candidate);
       if (text == null) continue;
       lastCandidateText = text;
       final boolean matchFound = pattern.matcher(lastCandidateText).find();
@@ -90,4 +108,28 @@ public class DirectorySourceCodeProvider implements SourceCodeProvider {
     }
     return lastCandidateText;
   }
+
+  private String readText(String className, File file) {
+    if (myPrefetcher == null) return readText(file);
+    return myPrefetcher.read(className, file);
+  }
+
+  private Pattern getPackagePattern(String packageName) {
+    Pattern pattern = myPackagePatterns.get(packageName);
+    if (pattern == null) {
+      final String packageRegex = packageName.length() == 0 ? ".*" : packageName.replace(".", "\\.");
+      pattern = Pattern.compile("package +" + packageRegex);
+      myPackagePatterns.put(packageName, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Stops reading source files ahead.
+   */
+  public void close() {
+    if (myPrefetcher != null) {
+      myPrefetcher.shutdown();
+    }
+  }
 }
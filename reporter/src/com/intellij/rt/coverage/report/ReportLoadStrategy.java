@@ -30,6 +30,7 @@ public abstract class ReportLoadStrategy {
   protected final List<File> myOutputRoots;
   protected final List<File> mySourceRoots;
   private ProjectData myCacheData;
+  private CoverageSummary myCacheSummary;
 
   protected ReportLoadStrategy(List<BinaryReport> reports, List<File> outputRoots, List<File> sourceRoots) {
     myReports = reports;
@@ -45,6 +46,16 @@ public abstract class ReportLoadStrategy {
     return myCacheData;
   }
 
+  /**
+   * Coverage counters of the project data, computed once for all the reports.
+   */
+  public CoverageSummary getCoverageSummary() {
+    if (myCacheSummary == null) {
+      myCacheSummary = CoverageSummary.create(getProjectData());
+    }
+    return myCacheSummary;
+  }
+
   protected abstract ProjectData loadProjectData();
 
 
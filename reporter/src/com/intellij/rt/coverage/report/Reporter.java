@@ -19,7 +19,6 @@ package com.intellij.rt.coverage.report;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.intellij.rt.coverage.util.CoverageIOUtil;
 import jetbrains.coverage.report.ReportBuilderFactory;
-import jetbrains.coverage.report.SourceCodeProvider;
 import jetbrains.coverage.report.html.HTMLReportBuilder;
 import jetbrains.coverage.report.idea.IDEACoverageData;
 import jetbrains.coverage.report.impl.html.HTMLReportBuilderImpl;
@@ -46,7 +45,7 @@ public class Reporter {
     try {
       xmlFile.getParentFile().mkdirs();
       out = new FileOutputStream(xmlFile);
-      report.write(out, myLoad.getProjectData(), myTitle);
+      report.write(out, myLoad.getCoverageSummary(), myTitle);
     } finally {
       CoverageIOUtil.close(out);
     }
@@ -65,8 +64,13 @@ public class Reporter {
         ((HTMLReportBuilderImpl) builder).setCharset(charset);
       }
     }
-    final SourceCodeProvider sourceCodeProvider = new DirectorySourceCodeProvider(myLoad.getProjectData(), myLoad.getSources());
-    builder.generateReport(new IDEACoverageData(myLoad.getProjectData(), sourceCodeProvider));
+    final int threadsCount = Runtime.getRuntime().availableProcessors();
+    final DirectorySourceCodeProvider sourceCodeProvider = new DirectorySourceCodeProvider(myLoad.getProjectData(), myLoad.getSources(), threadsCount);
+    try {
+      builder.generateReport(new IDEACoverageData(myLoad.getProjectData(), sourceCodeProvider));
+    } finally {
+      sourceCodeProvider.close();
+    }
   }
 
   public ProjectData getProjectData() {
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.report;
+
+import com.intellij.rt.coverage.report.util.FileLocator;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads source files on a thread pool ahead of the requests.
+ * The files of {@link #WINDOW} classes following the requested class in the order of class names are scheduled,
+ * and the texts are kept in a bounded cache. A file which is not in the cache is read in the calling thread.
+ * <p>
+ * The HTML report builder is expected to request classes package by package in the order of names,
+ * then most of the files are read ahead. The texts do not depend on the order of the requests,
+ * in any other order fewer files are found in the cache.
+ */
+class SourceFilePrefetcher {
+  private static final int WINDOW = 64;
+  private static final int CACHE_SIZE = 4 * WINDOW;
+
+  private final FileLocator myLocator;
+  private final String[] myClasses;
+  private final Map<String, Integer> myClassIndices;
+  private final ExecutorService myExecutor;
+  private final Map<File, Future<String>> myCache = new LinkedHashMap<File, Future<String>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, Future<String>> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+  private final boolean[] myScheduled;
+
+  SourceFilePrefetcher(FileLocator locator, Collection<String> classNames, int threadsCount) {
+    myLocator = locator;
+    myClasses = classNames.toArray(new String[0]);
+    Arrays.sort(myClasses);
+    myScheduled = new boolean[myClasses.length];
+    myClassIndices = new HashMap<String, Integer>(2 * myClasses.length);
+    for (int i = 0; i < myClasses.length; i++) {
+      myClassIndices.put(myClasses[i], i);
+    }
+    myExecutor = Executors.newFixedThreadPool(threadsCount, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "Source file reader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    synchronized (this) {
+      schedule(0);
+    }
+  }
+
+  /**
+   * @param className class which source is requested, it moves the prefetching window
+   * @return text of the file or null if it cannot be read
+   */
+  String read(String className, File file) {
+    final Future<String> future;
+    synchronized (this) {
+      final Integer index = myClassIndices.get(className);
+      if (index != null) schedule(index + 1);
+      future = myCache.get(file);
+    }
+    if (future == null) return DirectorySourceCodeProvider.readText(file);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  void shutdown() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * Schedules the files of the classes in the window starting at the index, which have not been scheduled yet.
+   */
+  private void schedule(int start) {
+    final int end = Math.min(start + WINDOW, myClasses.length);
+    for (int i = start; i < end; i++) {
+      if (myScheduled[i]) continue;
+      myScheduled[i] = true;
+      for (final File file : myLocator.locate(myClasses[i])) {
+        if (myCache.containsKey(file)) continue;
+        myCache.put(file, myExecutor.submit(new Callable<String>() {
+          public String call() {
+            return DirectorySourceCodeProvider.readText(file);
+          }
+        }));
+      }
+    }
+  }
+}
@@ -25,9 +25,18 @@ import java.util.List;
  */
 public abstract class FileLocator {
   protected final List<File> myRoots;
+  protected final SourceFilesIndex myIndex;
 
   public FileLocator(List<File> roots) {
+    this(roots, null);
+  }
+
+  /**
+   * @param index index of the files in <code>roots</code>, or null to check the file system on every search
+   */
+  public FileLocator(List<File> roots, SourceFilesIndex index) {
     myRoots = roots;
+    myIndex = index;
   }
 
   /**
@@ -40,6 +49,7 @@ public abstract class FileLocator {
 
   protected List<File> locateFile(String packageName, String fileName) {
     final String path = getPath(packageName, fileName);
+    if (myIndex != null) return new ArrayList<File>(myIndex.getFilesByPath(path));
     final List<File> result = new ArrayList<File>();
     for (File f : myRoots) {
       final File candidate = new File(f, path);
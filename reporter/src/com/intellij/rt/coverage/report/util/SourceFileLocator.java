@@ -26,15 +26,29 @@ import java.util.*;
  * Searches for source files for all classes in ProjectData.
  * It analyses both sources located at corresponding package directory
  * and sources located in other directories.
+ * The source roots are indexed once, so the search does not access the file system.
  */
 public class SourceFileLocator extends FileLocator {
   private final Map<String, List<File>> mySourceFiles = new HashMap<String, List<File>>();
 
   public SourceFileLocator(List<File> roots, ProjectData projectData) {
-    super(roots);
+    this(roots, projectData, null);
+  }
+
+  /**
+   * @param indexFile file to persist the index of the source roots between runs, or null to index the roots every time
+   */
+  public SourceFileLocator(List<File> roots, ProjectData projectData, File indexFile) {
+    super(roots, createIndex(roots, indexFile));
     locateProjectSourceFiles(projectData);
   }
 
+  private static SourceFilesIndex createIndex(List<File> roots, File indexFile) {
+    final int threadsCount = Runtime.getRuntime().availableProcessors();
+    if (indexFile == null) return SourceFilesIndex.build(roots, threadsCount);
+    return SourceFilesIndex.loadOrBuild(roots, indexFile, threadsCount);
+  }
+
   @Override
   public List<File> locate(String fqName) {
     final List<File> result = mySourceFiles.get(fqName);
@@ -67,34 +81,12 @@ public class SourceFileLocator extends FileLocator {
   }
 
   private void searchForLostSources(Map<String, List<String>> lostSources) {
-    if (lostSources.isEmpty()) return;
-    for (File root : myRoots) {
-      final List<File> stack = new ArrayList<File>();
-      stack.add(root);
-      while (!stack.isEmpty()) {
-        final File file = stack.remove(stack.size() - 1);
-        if (file.isFile()) {
-          checkSourceForClass(lostSources, file);
-        } else if (file.isDirectory()) {
-          final File[] children = file.listFiles();
-          if (children != null) {
-            stack.addAll(Arrays.asList(children));
-          }
-        }
-      }
-    }
-  }
-
-  private void checkSourceForClass(Map<String, List<String>> lostSources, File file) {
-    final List<String> classes = lostSources.get(file.getName());
-    if (classes == null) return;
-    for (String className : classes) {
-      List<File> classSources = mySourceFiles.get(className);
-      if (classSources == null) {
-        classSources = new ArrayList<File>();
-        mySourceFiles.put(className, classSources);
+    for (Map.Entry<String, List<String>> entry : lostSources.entrySet()) {
+      final List<File> files = myIndex.getFilesByName(entry.getKey());
+      if (files.isEmpty()) continue;
+      for (String className : entry.getValue()) {
+        mySourceFiles.put(className, new ArrayList<File>(files));
       }
-      classSources.add(file);
     }
   }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.report.util;
+
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Index of all files under the source roots.
+ * Files are indexed by their path relative to a root and by their name,
+ * in the order of roots and of a depth-first walk of each root.
+ * <p>
+ * The index can be saved to a file and reused while none of the indexed directories is modified.
+ */
+public class SourceFilesIndex {
+  private static final int FORMAT_VERSION = 1;
+
+  private final Map<String, List<File>> myFilesByPath = new HashMap<String, List<File>>();
+  private final Map<String, List<File>> myFilesByName = new HashMap<String, List<File>>();
+  private final List<File> myRoots;
+  private final List<RootIndex> myRootIndices;
+
+  private SourceFilesIndex(List<File> roots, List<RootIndex> rootIndices) {
+    myRoots = roots;
+    myRootIndices = rootIndices;
+    for (int i = 0; i < roots.size(); i++) {
+      final File root = roots.get(i);
+      for (String path : rootIndices.get(i).myFiles) {
+        final File file = path.length() == 0 ? root : new File(root, path);
+        add(myFilesByPath, path, file);
+        add(myFilesByName, file.getName(), file);
+      }
+    }
+  }
+
+  /**
+   * @param path file path relative to a source root, with {@link File#separatorChar} separators
+   * @return files with this path in all roots in the order of roots
+   */
+  public List<File> getFilesByPath(String path) {
+    final List<File> result = myFilesByPath.get(path);
+    if (result != null) return result;
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return files with this name in any directory
+   */
+  public List<File> getFilesByName(String name) {
+    final List<File> result = myFilesByName.get(name);
+    if (result != null) return result;
+    return Collections.emptyList();
+  }
+
+  /**
+   * Walks the roots concurrently, every subdirectory of a root is walked by a separate task.
+   */
+  public static SourceFilesIndex build(List<File> roots, int threadsCount) {
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadsCount), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "Source files indexer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      final List<RootIndex> rootIndices = new ArrayList<RootIndex>();
+      final List<List<Future<RootIndex>>> tasks = new ArrayList<List<Future<RootIndex>>>();
+      for (File root : roots) {
+        final RootIndex rootIndex = new RootIndex();
+        tasks.add(submitRootWalk(executor, root, rootIndex));
+        rootIndices.add(rootIndex);
+      }
+      for (int i = 0; i < roots.size(); i++) {
+        final RootIndex rootIndex = rootIndices.get(i);
+        for (Future<RootIndex> task : tasks.get(i)) {
+          final RootIndex part = task.get();
+          rootIndex.myFiles.addAll(part.myFiles);
+          rootIndex.myDirectories.addAll(part.myDirectories);
+          rootIndex.myTimestamps.addAll(part.myTimestamps);
+        }
+      }
+      return new SourceFilesIndex(roots, rootIndices);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Loads the index from <code>indexFile</code> if it is up-to-date, otherwise builds the index and saves it.
+   */
+  public static SourceFilesIndex loadOrBuild(List<File> roots, File indexFile, int threadsCount) {
+    SourceFilesIndex index = null;
+    if (indexFile.isFile()) {
+      try {
+        index = load(roots, indexFile);
+      } catch (IOException ignored) {
+      }
+    }
+    if (index == null) {
+      index = build(roots, threadsCount);
+      try {
+        index.save(indexFile);
+      } catch (IOException ignored) {
+        indexFile.delete();
+      }
+    }
+    return index;
+  }
+
+  public void save(File indexFile) throws IOException {
+    final File parent = indexFile.getParentFile();
+    if (parent != null) parent.mkdirs();
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(myRoots.size());
+      for (int i = 0; i < myRoots.size(); i++) {
+        final RootIndex rootIndex = myRootIndices.get(i);
+        out.writeUTF(myRoots.get(i).getAbsolutePath());
+        out.writeInt(rootIndex.myDirectories.size());
+        for (int j = 0; j < rootIndex.myDirectories.size(); j++) {
+          out.writeUTF(rootIndex.myDirectories.get(j));
+          out.writeLong(rootIndex.myTimestamps.get(j));
+        }
+        out.writeInt(rootIndex.myFiles.size());
+        for (String path : rootIndex.myFiles) {
+          out.writeUTF(path);
+        }
+      }
+    } finally {
+      CoverageIOUtil.close(out);
+    }
+  }
+
+  /**
+   * @return saved index or null if the roots differ or any of the indexed directories has been modified
+   */
+  private static SourceFilesIndex load(List<File> roots, File indexFile) throws IOException {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      if (in.readInt() != FORMAT_VERSION) return null;
+      if (in.readInt() != roots.size()) return null;
+      final List<RootIndex> rootIndices = new ArrayList<RootIndex>();
+      for (File root : roots) {
+        if (!root.getAbsolutePath().equals(in.readUTF())) return null;
+        final RootIndex rootIndex = new RootIndex();
+        final int directoriesCount = in.readInt();
+        if (root.isDirectory() != directoriesCount > 0) return null;
+        for (int i = 0; i < directoriesCount; i++) {
+          final String directory = in.readUTF();
+          final long timestamp = in.readLong();
+          final File file = directory.length() == 0 ? root : new File(root, directory);
+          if (file.lastModified() != timestamp || !file.isDirectory()) return null;
+          rootIndex.myDirectories.add(directory);
+          rootIndex.myTimestamps.add(timestamp);
+        }
+        final int filesCount = in.readInt();
+        for (int i = 0; i < filesCount; i++) {
+          rootIndex.myFiles.add(in.readUTF());
+        }
+        rootIndices.add(rootIndex);
+      }
+      return new SourceFilesIndex(roots, rootIndices);
+    } finally {
+      CoverageIOUtil.close(in);
+    }
+  }
+
+  /**
+   * Walks the same way as a depth-first walk with a stack: children are visited in the reverse order.
+   * The root itself is indexed into <code>rootIndex</code>, and every child of the root is walked in a separate task,
+   * so that the results can be joined in the walk order.
+   */
+  private static List<Future<RootIndex>> submitRootWalk(ExecutorService executor, File root, RootIndex rootIndex) {
+    final List<Future<RootIndex>> result = new ArrayList<Future<RootIndex>>();
+    if (root.isFile()) {
+      rootIndex.myFiles.add("");
+      return result;
+    }
+    if (!root.isDirectory()) return result;
+    rootIndex.myDirectories.add("");
+    rootIndex.myTimestamps.add(root.lastModified());
+    final String prefix = getPrefix(root);
+    final File[] children = root.listFiles();
+    if (children == null) return result;
+    for (int i = children.length - 1; i >= 0; i--) {
+      final File child = children[i];
+      result.add(executor.submit(new Callable<RootIndex>() {
+        public RootIndex call() {
+          final RootIndex part = new RootIndex();
+          walk(child, prefix, part);
+          return part;
+        }
+      }));
+    }
+    return result;
+  }
+
+  private static void walk(File root, String prefix, RootIndex index) {
+    final List<File> stack = new ArrayList<File>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      final File file = stack.remove(stack.size() - 1);
+      if (file.isFile()) {
+        index.myFiles.add(file.getPath().substring(prefix.length()));
+      } else if (file.isDirectory()) {
+        index.myDirectories.add(file.getPath().substring(prefix.length()));
+        index.myTimestamps.add(file.lastModified());
+        final File[] children = file.listFiles();
+        if (children != null) {
+          stack.addAll(Arrays.asList(children));
+        }
+      }
+    }
+  }
+
+  private static String getPrefix(File root) {
+    final String path = root.getPath();
+    return path.endsWith(File.separator) ? path : path + File.separator;
+  }
+
+  private static void add(Map<String, List<File>> map, String key, File file) {
+    List<File> files = map.get(key);
+    if (files == null) {
+      files = new ArrayList<File>(1);
+      map.put(key, files);
+    }
+    files.add(file);
+  }
+
+  private static class RootIndex {
+    private final List<String> myFiles = new ArrayList<String>();
+    private final List<String> myDirectories = new ArrayList<String>();
+    private final List<Long> myTimestamps = new ArrayList<Long>();
+  }
+}
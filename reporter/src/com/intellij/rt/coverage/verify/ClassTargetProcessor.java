@@ -16,8 +16,8 @@
 
 package com.intellij.rt.coverage.verify;
 
-import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.CoverageSummary;
 
 /**
  * Calculates coverage summary for each class.
@@ -25,10 +25,19 @@ import com.intellij.rt.coverage.data.ProjectData;
 public class ClassTargetProcessor implements TargetProcessor {
 
   @Override
-  public void process(ProjectData projectData, Consumer consumer) {
-    for (ClassData classData : projectData.getClassesCollection()) {
-      final Verifier.CollectedCoverage coverage = ProjectTargetProcessor.collectClassCoverage(projectData, classData);
-      consumer.consume(classData.getName(), coverage);
+  public void process(CoverageSummary summary, Consumer consumer) {
+    for (CoverageSummary.ClassSummary classSummary : summary.getClasses()) {
+      final Verifier.CollectedCoverage coverage = ProjectTargetProcessor.collectCoverage(summary, classSummary.getCounter());
+      consumer.consume(classSummary.getName(), coverage);
     }
   }
+
+  /**
+   * @deprecated use {@link #process(CoverageSummary, Consumer)}
+   */
+  @Deprecated
+  @Override
+  public void process(ProjectData projectData, Consumer consumer) {
+    process(CoverageSummary.create(projectData), consumer);
+  }
 }
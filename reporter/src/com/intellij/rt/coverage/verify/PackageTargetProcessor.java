@@ -16,12 +16,12 @@
 
 package com.intellij.rt.coverage.verify;
 
-import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.ProjectData;
-import com.intellij.rt.coverage.report.XMLCoverageReport;
+import com.intellij.rt.coverage.report.CoverageSummary;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Calculates coverage summary for each package.
@@ -29,17 +29,38 @@ import java.util.Map;
 public class PackageTargetProcessor implements TargetProcessor {
 
   @Override
-  public void process(ProjectData projectData, Consumer consumer) {
-    final Map<String, List<ClassData>> classesToPackages = XMLCoverageReport.mapClassesToPackages(projectData, false);
-
-    for (Map.Entry<String, List<ClassData>> packageEntry : classesToPackages.entrySet()) {
-      final Verifier.CollectedCoverage packageCoverage = new Verifier.CollectedCoverage();
-      for (ClassData classData : packageEntry.getValue()) {
-        final Verifier.CollectedCoverage coverage = ProjectTargetProcessor.collectClassCoverage(projectData, classData);
-        packageCoverage.add(coverage);
+  public void process(CoverageSummary summary, Consumer consumer) {
+    // classes of the default package are separate packages of the summary, so they are grouped again
+    final Map<String, CoverageSummary.ClassSummary> classes = new TreeMap<String, CoverageSummary.ClassSummary>();
+    for (CoverageSummary.PackageSummary packageSummary : summary.getPackages()) {
+      for (CoverageSummary.ClassSummary classSummary : packageSummary.getClasses()) {
+        classes.put(classSummary.getName(), classSummary);
       }
-      final String packageName = packageEntry.getKey();
-      consumer.consume(packageName, packageCoverage);
     }
+    final Map<String, Verifier.CollectedCoverage> packages = new HashMap<String, Verifier.CollectedCoverage>();
+    for (CoverageSummary.ClassSummary classSummary : classes.values()) {
+      final String className = classSummary.getName();
+      final int indexOfName = className.lastIndexOf('.');
+      final String packageName = indexOfName < 0 ? "" : className.substring(0, indexOfName);
+      Verifier.CollectedCoverage packageCoverage = packages.get(packageName);
+      if (packageCoverage == null) {
+        packageCoverage = new Verifier.CollectedCoverage();
+        packages.put(packageName, packageCoverage);
+      }
+      packageCoverage.add(ProjectTargetProcessor.collectCoverage(summary, classSummary.getCounter()));
+    }
+
+    for (Map.Entry<String, Verifier.CollectedCoverage> packageEntry : packages.entrySet()) {
+      consumer.consume(packageEntry.getKey(), packageEntry.getValue());
+    }
+  }
+
+  /**
+   * @deprecated use {@link #process(CoverageSummary, Consumer)}
+   */
+  @Deprecated
+  @Override
+  public void process(ProjectData projectData, Consumer consumer) {
+    process(CoverageSummary.create(projectData), consumer);
   }
 }
@@ -16,64 +16,58 @@
 
 package com.intellij.rt.coverage.verify;
 
-import com.intellij.rt.coverage.data.BranchData;
 import com.intellij.rt.coverage.data.ClassData;
-import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
-import com.intellij.rt.coverage.data.instructions.ClassInstructions;
-import com.intellij.rt.coverage.data.instructions.LineInstructions;
+import com.intellij.rt.coverage.report.CoverageSummary;
 
 /**
  * Calculates coverage summary for the whole project.
  */
 public class ProjectTargetProcessor implements TargetProcessor {
 
+  @Override
+  public void process(CoverageSummary summary, Consumer consumer) {
+    consumer.consume("all", collectCoverage(summary, summary.getCounter()));
+  }
+
+  /**
+   * @deprecated use {@link #process(CoverageSummary, Consumer)}
+   */
+  @Deprecated
   @Override
   public void process(ProjectData projectData, Consumer consumer) {
-    final Verifier.CollectedCoverage coverage = new Verifier.CollectedCoverage();
-    for (ClassData classData : projectData.getClassesCollection()) {
-      coverage.add(collectClassCoverage(projectData, classData));
-    }
-    consumer.consume("all", coverage);
+    process(CoverageSummary.create(projectData), consumer);
   }
 
+  /**
+   * Converts summary counters into verification counters.
+   * Instructions are counted only if instructions coverage is enabled, and only for the lines with instructions data.
+   */
+  public static Verifier.CollectedCoverage collectCoverage(CoverageSummary summary, CoverageSummary.Counter counter) {
+    return collectCoverage(summary.isInstructionsCoverageEnabled(), counter);
+  }
 
   /**
    * Sum up coverage statistics for a single class.
+   *
+   * @deprecated use {@link #collectCoverage(CoverageSummary, CoverageSummary.Counter)} with the class summary
    */
+  @Deprecated
   public static Verifier.CollectedCoverage collectClassCoverage(ProjectData projectData, ClassData classData) {
-    final ClassInstructions classInstructions = projectData.isInstructionsCoverageEnabled()
-        ? projectData.getInstructions().get(classData.getName())
-        : null;
-    final LineInstructions[] instructions = classInstructions == null ? null : classInstructions.getlines();
+    final CoverageSummary.ClassSummary classSummary = CoverageSummary.createClass(projectData, classData);
+    return collectCoverage(projectData.isInstructionsCoverageEnabled(), classSummary.getCounter());
+  }
 
+  private static Verifier.CollectedCoverage collectCoverage(boolean instructionsCoverage, CoverageSummary.Counter counter) {
     final Verifier.CollectedCoverage coverage = new Verifier.CollectedCoverage();
-    final Object[] lines = classData.getLines();
-    if (lines == null) return coverage;
-    for (LineData lineData : (LineData[]) lines) {
-      if (lineData == null) continue;
-      if (lineData.getHits() > 0) {
-        coverage.lineCounter.covered++;
-      } else {
-        coverage.lineCounter.missed++;
-      }
-
-      final BranchData branchData = lineData.getBranchData();
-      if (branchData != null) {
-        coverage.branchCounter.covered += branchData.getCoveredBranches();
-        coverage.branchCounter.missed += branchData.getTotalBranches() - branchData.getCoveredBranches();
-      }
-
-      final LineInstructions lineInstructions = instructions == null || lineData.getLineNumber() >= instructions.length
-          ? null
-          : instructions[lineData.getLineNumber()];
-      if (lineInstructions != null) {
-        final BranchData instructionsData = lineInstructions.getInstructionsData(lineData);
-        coverage.instructionCounter.covered += instructionsData.getCoveredBranches();
-        coverage.instructionCounter.missed += instructionsData.getTotalBranches() - instructionsData.getCoveredBranches();
-      }
+    coverage.lineCounter.covered = counter.getCoveredLines();
+    coverage.lineCounter.missed = counter.getTotalLines() - counter.getCoveredLines();
+    coverage.branchCounter.covered = counter.getCoveredBranches();
+    coverage.branchCounter.missed = counter.getTotalBranches() - counter.getCoveredBranches();
+    if (instructionsCoverage) {
+      coverage.instructionCounter.covered = counter.getCoveredInstructions();
+      coverage.instructionCounter.missed = counter.getTotalInstructions() - counter.getCoveredInstructions();
     }
-
     return coverage;
   }
 }
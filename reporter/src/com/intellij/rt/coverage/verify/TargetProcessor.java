@@ -17,11 +17,18 @@
 package com.intellij.rt.coverage.verify;
 
 import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.CoverageSummary;
 
 /**
  * This class is calculating coverage summary with the target granularity.
  */
 public interface TargetProcessor {
+  void process(CoverageSummary summary, Consumer consumer);
+
+  /**
+   * @deprecated use {@link #process(CoverageSummary, Consumer)} with {@link CoverageSummary#create(ProjectData)}
+   */
+  @Deprecated
   void process(ProjectData projectData, Consumer consumer);
 
   /**
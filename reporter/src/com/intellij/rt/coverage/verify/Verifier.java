@@ -16,15 +16,13 @@
 
 package com.intellij.rt.coverage.verify;
 
-import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.CoverageSummary;
 import com.intellij.rt.coverage.util.ProjectDataLoader;
 import com.intellij.rt.coverage.verify.api.*;
 
+import java.io.File;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Sums up coverage statistics and checks if user defined coverage restrictions are passing
@@ -38,54 +36,105 @@ public class Verifier {
 
   /**
    * Check all rules and save a report on failed rules.
+   * Each report file is loaded once, and every target is traversed once for all the rules of the report.
    *
    * @return violations
    */
   public List<RuleViolation> processRules() {
-    final List<RuleViolation> violations = new ArrayList<RuleViolation>();
+    final Map<File, List<RuleChecker>> reports = new LinkedHashMap<File, List<RuleChecker>>();
+    final List<RuleChecker> checkers = new ArrayList<RuleChecker>();
     for (Rule rule : myRules) {
-      final RuleViolation violation = processRule(rule);
+      List<RuleChecker> reportCheckers = reports.get(rule.reportFile);
+      if (reportCheckers == null) {
+        reportCheckers = new ArrayList<RuleChecker>();
+        reports.put(rule.reportFile, reportCheckers);
+      }
+      final RuleChecker checker = new RuleChecker(rule);
+      reportCheckers.add(checker);
+      checkers.add(checker);
+    }
+
+    for (Map.Entry<File, List<RuleChecker>> entry : reports.entrySet()) {
+      processReport(entry.getKey(), entry.getValue());
+    }
+
+    final List<RuleViolation> violations = new ArrayList<RuleViolation>();
+    for (RuleChecker checker : checkers) {
+      final RuleViolation violation = checker.getViolation();
       if (violation == null) continue;
       violations.add(violation);
     }
     return violations;
   }
 
-  private static RuleViolation processRule(final Rule rule) {
-    final ProjectData projectData = ProjectDataLoader.load(rule.reportFile);
-    final Map<Integer, BoundViolation> violations = new HashMap<Integer, BoundViolation>();
-    final TargetProcessor processor = rule.target.createTargetProcessor();
-    processor.process(projectData, new TargetProcessor.Consumer() {
-
-      private BoundViolation getOrCreateViolation(int boundId) {
-        BoundViolation violation = violations.get(boundId);
-        if (violation == null) {
-          violation = new BoundViolation(boundId);
-          violations.put(boundId, violation);
-        }
-        return violation;
+  private static void processReport(File reportFile, List<RuleChecker> checkers) {
+    final CoverageSummary summary = CoverageSummary.create(ProjectDataLoader.load(reportFile));
+
+    final Map<Target, List<RuleChecker>> targets = new EnumMap<Target, List<RuleChecker>>(Target.class);
+    for (RuleChecker checker : checkers) {
+      List<RuleChecker> targetCheckers = targets.get(checker.myRule.target);
+      if (targetCheckers == null) {
+        targetCheckers = new ArrayList<RuleChecker>();
+        targets.put(checker.myRule.target, targetCheckers);
       }
+      targetCheckers.add(checker);
+    }
 
-      @Override
-      public void consume(String name, CollectedCoverage coverage) {
-        for (Bound bound : rule.bounds) {
-          final BigDecimal value = bound.valueType.getValue(bound.counter.getCounter(coverage));
-          if (value == null) continue;
-          if (bound.min != null && value.compareTo(bound.min) < 0) {
-            final BoundViolation violation = getOrCreateViolation(bound.id);
-            violation.minViolations.add(new Violation(name, value));
+    for (Map.Entry<Target, List<RuleChecker>> entry : targets.entrySet()) {
+      final List<RuleChecker> targetCheckers = entry.getValue();
+      final TargetProcessor processor = entry.getKey().createTargetProcessor();
+      processor.process(summary, new TargetProcessor.Consumer() {
+        @Override
+        public void consume(String name, CollectedCoverage coverage) {
+          for (RuleChecker checker : targetCheckers) {
+            checker.consume(name, coverage);
           }
+        }
+      });
+    }
+  }
 
-          if (bound.max != null && value.compareTo(bound.max) > 0) {
-            final BoundViolation violation = getOrCreateViolation(bound.id);
-            violation.maxViolations.add(new Violation(name, value));
-          }
+  /**
+   * Collects bound violations of a single rule.
+   */
+  private static class RuleChecker implements TargetProcessor.Consumer {
+    private final Rule myRule;
+    private final Map<Integer, BoundViolation> myViolations = new HashMap<Integer, BoundViolation>();
+
+    private RuleChecker(Rule rule) {
+      myRule = rule;
+    }
+
+    private BoundViolation getOrCreateViolation(int boundId) {
+      BoundViolation violation = myViolations.get(boundId);
+      if (violation == null) {
+        violation = new BoundViolation(boundId);
+        myViolations.put(boundId, violation);
+      }
+      return violation;
+    }
+
+    @Override
+    public void consume(String name, CollectedCoverage coverage) {
+      for (Bound bound : myRule.bounds) {
+        final BigDecimal value = bound.valueType.getValue(bound.counter.getCounter(coverage));
+        if (value == null) continue;
+        if (bound.min != null && value.compareTo(bound.min) < 0) {
+          final BoundViolation violation = getOrCreateViolation(bound.id);
+          violation.minViolations.add(new Violation(name, value));
+        }
+
+        if (bound.max != null && value.compareTo(bound.max) > 0) {
+          final BoundViolation violation = getOrCreateViolation(bound.id);
+          violation.maxViolations.add(new Violation(name, value));
         }
       }
-    });
+    }
 
-    if (violations.isEmpty()) return null;
-    return new RuleViolation(rule.id, new ArrayList<BoundViolation>(violations.values()));
+    RuleViolation getViolation() {
+      if (myViolations.isEmpty()) return null;
+      return new RuleViolation(myRule.id, new ArrayList<BoundViolation>(myViolations.values()));
+    }
   }
 
   /**
@@ -23,6 +23,10 @@ import org.jetbrains.coverage.org.objectweb.asm.*
 import org.junit.Assert
 import org.junit.Test
 import java.io.File
+import java.util.regex.Pattern
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
 import kotlin.io.path.createTempDirectory
 
 class InstrumentatorTest {
@@ -57,6 +61,92 @@ class InstrumentatorTest {
         TestUtils.checkLogFile(File("."))
     }
 
+    @Test
+    fun incrementalTest() {
+        val root = createTempDirectory("incremental").toFile()
+        File(TestUtils.JAVA_OUTPUT).copyRecursively(root)
+        val resource = File(root, "resource.txt").apply { writeText("before") }
+        val outputRoot = createTempDirectory("incremental_output").toFile()
+        val roots = listOf(root)
+        val outputRoots = listOf(outputRoot)
+
+        TestUtils.clearLogFile(File("."))
+        OfflineInstrumentationApi.instrument(roots, outputRoots, Filters.EMPTY, true, true)
+        checkOfflineInstrumentation(roots, outputRoots, Filters.EMPTY, incremental = true)
+
+        val outputOf = { file: File -> File(outputRoot, file.toRelativeString(root)) }
+        val classes = root.walk().filter { it.name.endsWith(ClassNameUtil.CLASS_FILE_SUFFIX) }.toList()
+        val unchanged = classes.first { outputOf(it).readBytes().isInstrumented() }
+        val removed = classes.first { it != unchanged }
+        removed.delete()
+        resource.writeText("after")
+        outputOf(unchanged).writeText("not instrumented again")
+
+        OfflineInstrumentationApi.instrument(roots, outputRoots, Filters.EMPTY, true, true)
+        TestUtils.checkLogFile(File("."))
+        checkOfflineInstrumentation(roots, outputRoots, Filters.EMPTY, incremental = true)
+        Assert.assertEquals("not instrumented again", outputOf(unchanged).readText())
+        Assert.assertEquals("after", outputOf(resource).readText())
+
+        // the manifest is ignored when the options change
+        OfflineInstrumentationApi.instrument(roots, outputRoots, Filters.EMPTY, false, true)
+        Assert.assertTrue(outputOf(unchanged).readBytes().isInstrumented())
+
+        // and when the filters change
+        outputOf(unchanged).writeText("not instrumented again")
+        val filters = Filters(
+            emptyList(), listOf(Pattern.compile("not\\.existing\\..*")),
+            emptyList(), emptyList(), emptyList(), emptyList()
+        )
+        OfflineInstrumentationApi.instrument(roots, outputRoots, filters, false, true)
+        Assert.assertTrue(outputOf(unchanged).readBytes().isInstrumented())
+    }
+
+    @Test
+    fun signedJarTest() {
+        val root = File(TestUtils.JAVA_OUTPUT)
+        val jar = createTempDirectory("jar").toFile().resolve("signed.jar")
+        val signatureFiles = listOf("META-INF/SIGNER.SF", "META-INF/SIGNER.RSA", "META-INF/signer.dsa", "META-INF/SIG-SIGNER")
+        ZipOutputStream(jar.outputStream()).use { output ->
+            for (name in signatureFiles + "META-INF/signer.txt") {
+                output.putNextEntry(ZipEntry(name))
+                output.write(name.toByteArray())
+                output.closeEntry()
+            }
+            root.walk().filter { it.isFile }.forEach { file ->
+                output.putNextEntry(ZipEntry(file.toRelativeString(root).replace(File.separatorChar, '/')))
+                output.write(file.readBytes())
+                output.closeEntry()
+            }
+        }
+        val outputJar = createTempDirectory("jar_output").toFile().resolve("signed.jar")
+
+        TestUtils.clearLogFile(File("."))
+        Instrumentator(listOf(jar), listOf(outputJar), Filters.EMPTY).instrument(true)
+        TestUtils.checkLogFile(File("."))
+
+        ZipFile(outputJar).use { zip ->
+            val names = zip.entries().asSequence().map { it.name }.toSet()
+            Assert.assertTrue("META-INF/signer.txt" in names)
+            for (name in signatureFiles) {
+                Assert.assertFalse(name in names)
+            }
+            val hasInstrumentation = names
+                .filter { it.endsWith(ClassNameUtil.CLASS_FILE_SUFFIX) && !it.startsWith("com/intellij/rt/") }
+                .any { name -> zip.getInputStream(zip.getEntry(name)).use { it.readBytes() }.isInstrumented() }
+            Assert.assertTrue(hasInstrumentation)
+        }
+    }
+
+    @Test
+    fun signatureFilesTest() {
+        Assert.assertTrue(Instrumentator.isSignatureFile("META-INF/A.SF"))
+        Assert.assertTrue(Instrumentator.isSignatureFile("meta-inf/a.ec"))
+        Assert.assertFalse(Instrumentator.isSignatureFile("META-INF/MANIFEST.MF"))
+        Assert.assertFalse(Instrumentator.isSignatureFile("META-INF/services/A.SF"))
+        Assert.assertFalse(Instrumentator.isSignatureFile("a/A.RSA"))
+    }
+
     companion object {
         fun runInstrumentator(roots: List<File>, outputRoots: List<File>, filters: Filters) {
             val inst = Instrumentator(roots, outputRoots, filters)
@@ -76,10 +166,16 @@ class InstrumentatorTest {
 
 private fun collectFiles(root: File) = root.walk().map { it.toRelativeString(root) }.toHashSet()
 
-private fun checkOfflineInstrumentation(roots: List<File>, outputRoots: List<File>, filters: Filters) {
+private fun checkOfflineInstrumentation(
+    roots: List<File>, outputRoots: List<File>, filters: Filters,
+    incremental: Boolean = false
+) {
     for ((root, outputRoot) in roots.zip(outputRoots)) {
         val original = collectFiles(root)
         val transformed = collectFiles(outputRoot)
+        if (incremental) {
+            Assert.assertTrue(transformed.remove(InstrumentationManifest.FILE_NAME))
+        }
         Assert.assertEquals(original, transformed)
 
         val actuallyTransformed = transformed
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.instrument
+
+import org.jetbrains.coverage.org.objectweb.asm.*
+import org.junit.Assert
+import org.junit.Test
+
+class OfflineCoverageTransformerTest {
+    @Test
+    fun placeholderIsReplacedWithLength() {
+        val original = createClass()
+        val analyser = ClassLengthAnalyser(object : ClassVisitor(Opcodes.API_VERSION) {}, 0)
+        ClassReader(original).accept(analyser, 0)
+
+        val instrumented = Instrumentator.instrument(original, true)
+
+        val constants = mutableListOf<Any>()
+        val lengths = mutableListOf<Any?>()
+        ClassReader(instrumented).accept(object : ClassVisitor(Opcodes.API_VERSION) {
+            override fun visitMethod(
+                access: Int, name: String?, descriptor: String?,
+                signature: String?, exceptions: Array<out String>?
+            ): MethodVisitor = object : MethodVisitor(Opcodes.API_VERSION) {
+                private var last: Any? = null
+
+                override fun visitLdcInsn(value: Any) {
+                    last = value
+                    if (value is Int) constants.add(value)
+                }
+
+                override fun visitIntInsn(opcode: Int, operand: Int) {
+                    last = operand
+                }
+
+                override fun visitInsn(opcode: Int) {
+                    if (opcode in Opcodes.ICONST_M1..Opcodes.ICONST_5) last = opcode - Opcodes.ICONST_0
+                }
+
+                override fun visitMethodInsn(
+                    opcode: Int, owner: String?, name: String, descriptor: String?, isInterface: Boolean
+                ) {
+                    if (name.startsWith("getOrCreateHits")) lengths.add(last)
+                }
+            }
+        }, 0)
+
+        Assert.assertEquals(listOf<Any?>(analyser.hits), lengths)
+        // the constants of the original class are not changed, although they are the first placeholder candidates
+        Assert.assertTrue(constants.containsAll(listOf(Int.MAX_VALUE, Int.MAX_VALUE - 1)))
+        Assert.assertFalse(constants.contains(Int.MAX_VALUE - 2))
+    }
+}
+
+/**
+ * A class, which constant pool contains the first two placeholder candidates.
+ */
+private fun createClass(): ByteArray {
+    val cw = ClassWriter(ClassWriter.COMPUTE_MAXS)
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "test/Constants", null, "java/lang/Object", null)
+    val mv = cw.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "values", "(I)I", null, null)
+    mv.visitCode()
+    val line1 = Label()
+    val line2 = Label()
+    mv.visitLabel(line1)
+    mv.visitLineNumber(1, line1)
+    mv.visitVarInsn(Opcodes.ILOAD, 0)
+    mv.visitJumpInsn(Opcodes.IFLE, line2)
+    mv.visitLdcInsn(Int.MAX_VALUE)
+    mv.visitInsn(Opcodes.IRETURN)
+    mv.visitLabel(line2)
+    mv.visitLineNumber(2, line2)
+    mv.visitLdcInsn(Int.MAX_VALUE - 1)
+    mv.visitInsn(Opcodes.IRETURN)
+    mv.visitMaxs(0, 0)
+    mv.visitEnd()
+    cw.visitEnd()
+    return cw.toByteArray()
+}
@@ -18,8 +18,12 @@ package com.intellij.rt.coverage.offline
 import com.intellij.rt.coverage.data.LineData
 import com.intellij.rt.coverage.data.ProjectData
 import com.intellij.rt.coverage.instrument.RawReportLoader
+import com.intellij.rt.coverage.util.CoverageIOUtil
 import org.junit.Assert
 import org.junit.Test
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
 import java.nio.file.Files
 
 class RawHitsReportTest {
@@ -46,6 +50,106 @@ class RawHitsReportTest {
             Assert.assertEquals(classData.getLineData(i).hits.toLong(), loadedClassData.getLineData(i).hits.toLong())
         }
     }
+
+    @Test
+    fun testCompactVersionRoundTrip() {
+        val rawProjectData = RawProjectData()
+        val dense = rawProjectData.getOrCreateClass("a.b.Dense", 5, true).hits as IntArray
+        intArrayOf(1, 0, 300, 4, 5).copyInto(dense)
+        val sparse = rawProjectData.getOrCreateClass("a.b.Dense\$Sparse", 1000, true).hits as IntArray
+        sparse[0] = 7
+        sparse[999] = Int.MAX_VALUE
+        val mask = rawProjectData.getOrCreateClass("a.c.Mask", 19, false).hits as BooleanArray
+        mask[0] = true
+        mask[8] = true
+        mask[18] = true
+        rawProjectData.getOrCreateClass("a.c.Empty", 0, true)
+
+        for (version in listOf(RawHitsReport.COMPACT_VERSION, RawHitsReport.LEGACY_VERSION)) {
+            val file = dump(rawProjectData, version)
+            Assert.assertTrue(RawHitsReport.isRawHitsFile(file))
+            val loaded = RawHitsReport.load(file)
+            Assert.assertEquals(3, loaded.classes.size)
+            Assert.assertArrayEquals(dense, loaded.getOrCreateClass("a.b.Dense", 5, true).hits as IntArray)
+            Assert.assertArrayEquals(sparse, loaded.getOrCreateClass("a.b.Dense\$Sparse", 1000, true).hits as IntArray)
+            val expectedMask = IntArray(19).also { it[0] = 1; it[8] = 1; it[18] = 1 }
+            Assert.assertArrayEquals(expectedMask, loaded.getOrCreateClass("a.c.Mask", 19, true).hits as IntArray)
+        }
+    }
+
+    @Test
+    fun testDefaultVersionIsReadByOldLoader() {
+        val rawProjectData = RawProjectData()
+        val hits = rawProjectData.getOrCreateClass("a.Hits", 3, true).hits as IntArray
+        intArrayOf(0, 5, 1000).copyInto(hits)
+        val mask = rawProjectData.getOrCreateClass("a.Mask", 2, false).hits as BooleanArray
+        mask[1] = true
+
+        val file = Files.createTempFile("coverage", "ric").toFile()
+        DataOutputStream(file.outputStream()).use { RawHitsReport.dump(it, rawProjectData) }
+
+        val loaded = loadWithOldLoader(file)
+        Assert.assertEquals(setOf("a.Hits", "a.Mask"), loaded.keys)
+        Assert.assertArrayEquals(hits, loaded["a.Hits"])
+        Assert.assertArrayEquals(intArrayOf(0, 1), loaded["a.Mask"])
+    }
+
+    @Test
+    fun testCompactVersionWithProperty() {
+        val rawProjectData = RawProjectData()
+        val hits = rawProjectData.getOrCreateClass("a.Hits", 3, true).hits as IntArray
+        intArrayOf(0, 5, 1000).copyInto(hits)
+
+        val file = Files.createTempFile("coverage", "ric").toFile()
+        System.setProperty(RawHitsReport.VERSION_PROPERTY, RawHitsReport.COMPACT_VERSION)
+        try {
+            DataOutputStream(file.outputStream()).use { RawHitsReport.dump(it, rawProjectData) }
+        } finally {
+            System.clearProperty(RawHitsReport.VERSION_PROPERTY)
+        }
+
+        DataInputStream(file.inputStream()).use {
+            CoverageIOUtil.readINT(it)
+            Assert.assertEquals(RawHitsReport.COMPACT_VERSION, CoverageIOUtil.readUTFFast(it))
+        }
+        Assert.assertArrayEquals(hits, RawHitsReport.load(file).getOrCreateClass("a.Hits", 3, true).hits as IntArray)
+    }
+
+    @Test
+    fun testCompactVersionIsSmaller() {
+        val rawProjectData = RawProjectData()
+        for (i in 0 until 100) {
+            val mask = rawProjectData.getOrCreateClass("com.example.Class$i", 100, false).hits as BooleanArray
+            mask[i] = true
+        }
+        val legacy = dump(rawProjectData, RawHitsReport.LEGACY_VERSION).length()
+        val compact = dump(rawProjectData, RawHitsReport.COMPACT_VERSION).length()
+        Assert.assertTrue("$compact >= $legacy", 4 * compact < legacy)
+    }
+}
+
+private fun dump(rawProjectData: RawProjectData, version: String): File {
+    val file = Files.createTempFile("coverage", "ric").toFile()
+    DataOutputStream(file.outputStream()).use { RawHitsReport.dump(it, rawProjectData, version) }
+    return file
+}
+
+/**
+ * The loader of the versions before [RawHitsReport.COMPACT_VERSION], which skips the version line.
+ */
+private fun loadWithOldLoader(file: File): Map<String, IntArray> {
+    val result = LinkedHashMap<String, IntArray>()
+    DataInputStream(file.inputStream()).use { input ->
+        CoverageIOUtil.readINT(input)
+        CoverageIOUtil.readUTFFast(input)
+        while (true) {
+            val className = CoverageIOUtil.readUTFFast(input)
+            if (className == "") break
+            result[className] = IntArray(CoverageIOUtil.readINT(input)) { CoverageIOUtil.readINT(input) }
+        }
+        Assert.assertEquals(-1, input.read())
+    }
+    return result
 }
 
 private fun createProject(): ProjectData {
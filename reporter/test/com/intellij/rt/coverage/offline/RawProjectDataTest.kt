@@ -0,0 +1,58 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.offline
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class RawProjectDataTest {
+    @Test
+    fun testConcurrentRegistrationReturnsSameData() {
+        val threads = 8
+        val classes = 1000
+        val projectData = RawProjectData()
+        val barrier = CyclicBarrier(threads)
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val results = (0 until threads).map {
+                executor.submit<List<Any>> {
+                    barrier.await()
+                    (0 until classes).map { projectData.getOrCreateClass("Class$it", 3, true).hits }
+                }
+            }.map { it.get(1, TimeUnit.MINUTES) }
+
+            for (result in results) {
+                for (i in 0 until classes) {
+                    Assert.assertSame(results[0][i], result[i])
+                }
+            }
+            Assert.assertEquals(classes, projectData.classes.size)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test(expected = RuntimeException::class)
+    fun testDifferentLength() {
+        val projectData = RawProjectData()
+        projectData.getOrCreateClass("A", 2, true)
+        projectData.getOrCreateClass("A", 3, true)
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.report
+
+import com.intellij.rt.coverage.data.ProjectData
+import org.junit.Assert
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+
+class DirectorySourceCodeProviderTest {
+    @Test
+    fun testPrefetchingReturnsSameText() {
+        val root = Files.createTempDirectory("sources").toFile()
+        try {
+            val projectData = ProjectData()
+            // more classes than the prefetcher caches
+            for (i in 0 until 500) {
+                val packageName = "p${i / 10}"
+                createFile(root, "$packageName/A$i.java", "package $packageName;\nclass A$i {}\n")
+                projectData.getOrCreateClassData("$packageName.A$i").source = "A$i.java"
+            }
+            // files with the same name in several directories are distinguished by the package directive
+            for (i in 0 until 10) {
+                createFile(root, "k$i/test.kt", "package e$i\nfun test$i() {}\n")
+                createFile(root, "m$i/test.kt", "package other\n")
+                projectData.getOrCreateClassData("e$i.TestKt").source = "test.kt"
+            }
+            projectData.getOrCreateClassData("e.Missing").source = "Missing.java"
+
+            val classNames = projectData.classes.keys.toList()
+            val expected = DirectorySourceCodeProvider(projectData, listOf(root)).use { provider ->
+                classNames.associateWith { provider.getSourceCode(it)?.toString() }
+            }
+            Assert.assertNull(expected["e.Missing"])
+            Assert.assertEquals("package e7\nfun test7() {}\n", expected["e7.TestKt"])
+
+            val orders = listOf(classNames.sorted(), classNames.sortedDescending(), classNames.shuffled(Random(42)))
+            for (order in orders) {
+                DirectorySourceCodeProvider(projectData, listOf(root), 4).use { provider ->
+                    for (className in order) {
+                        Assert.assertEquals(className, expected[className], provider.getSourceCode(className)?.toString())
+                    }
+                }
+            }
+        } finally {
+            root.deleteRecursively()
+        }
+    }
+
+    private fun createFile(root: File, path: String, text: String) {
+        val file = File(root, path)
+        file.parentFile.mkdirs()
+        file.writeText(text)
+    }
+}
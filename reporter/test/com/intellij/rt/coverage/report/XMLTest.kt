@@ -183,6 +183,55 @@ class XMLTest {
         verifyXMLWithExpected(file, "xml/sameSource.xml")
     }
 
+    @Test
+    fun parallelWriteTest() {
+        val project = ProjectData()
+        for (i in 0 until 100) {
+            val classData = project.getOrCreateClassData("package${i % 20}.Class$i")
+            val lineData = LineData(1, "foo()V")
+            lineData.hits = i % 2
+            classData.setLines(arrayOf(null, lineData, LineData(2, "boo()V")))
+            classData.source = "Class$i.kt"
+        }
+
+        val sequential = createXMLFile()
+        val parallel = createXMLFile()
+        XMLCoverageReport(1).write(FileOutputStream(sequential), project, null)
+        XMLCoverageReport(4).write(FileOutputStream(parallel), project, null)
+        Assert.assertArrayEquals(sequential.readBytes(), parallel.readBytes())
+    }
+
+    @Test
+    fun columnarDataTest() {
+        val project = ProjectData()
+        project.setInstructionsCoverage(true)
+        for (i in 0 until 100) {
+            val classData = project.getOrCreateClassData("package${i % 20}.Class$i")
+            val lineData = LineData(1, "foo()V")
+            lineData.hits = i % 3
+            lineData.addJump(0).trueHits = i % 2
+            lineData.addSwitch(0, intArrayOf(1, 2)).setKeysAndHits(intArrayOf(1, 2), intArrayOf(i % 2, 1))
+            lineData.fillArrays()
+            classData.setLines(arrayOf(null, lineData, LineData(2, "boo()V")))
+            classData.source = "Class$i.kt"
+            val lineInstructions = LineInstructions()
+            lineInstructions.instructions = i % 5
+            project.instructions[classData.name] = ClassInstructions(arrayOf(null, lineInstructions))
+        }
+        project.getOrCreateClassData("package0.Empty")
+
+        val columnar = ColumnarProjectData.create(project)
+        val expected = createXMLFile()
+        val actual = createXMLFile()
+        XMLCoverageReport().write(FileOutputStream(expected), project, null)
+        XMLCoverageReport().write(FileOutputStream(actual), CoverageSummary.create(columnar), null)
+        Assert.assertArrayEquals(expected.readBytes(), actual.readBytes())
+
+        val restored = columnar.toProjectData()
+        Assert.assertEquals(project.classesNumber, restored.classesNumber)
+        Assert.assertEquals(1, restored.getClassData("package1.Class1").getLineData(1).hits)
+    }
+
     @Test
     fun testXMLRead() {
         val inputStream = TestUtils::class.java.classLoader.getResourceAsStream("xml/simple.xml")
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.report.util
+
+import com.intellij.rt.coverage.data.ProjectData
+import org.junit.Assert
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class SourceFileLocatorTest {
+    @Test
+    fun testLocateInAllRoots() {
+        val base = Files.createTempDirectory("sources").toFile()
+        try {
+            val root1 = File(base, "root1")
+            val root2 = File(base, "root2")
+            val inPackage1 = createFile(root1, "a/b/A.java")
+            val inPackage2 = createFile(root2, "a/b/A.java")
+            val outOfPackage1 = createFile(root1, "c/test.kt")
+            val outOfPackage2 = createFile(root2, "d/test.kt")
+
+            val projectData = ProjectData()
+            projectData.getOrCreateClassData("a.b.A").source = "A.java"
+            projectData.getOrCreateClassData("e.TestKt").source = "test.kt"
+            projectData.getOrCreateClassData("e.Missing").source = "Missing.kt"
+
+            val indexFile = File(base, "index")
+            val locators = listOf(
+                SourceFileLocator(listOf(root1, root2), projectData),
+                SourceFileLocator(listOf(root1, root2), projectData, indexFile),
+                // loaded from the saved index
+                SourceFileLocator(listOf(root1, root2), projectData, indexFile),
+            )
+            for (locator in locators) {
+                Assert.assertEquals(listOf(inPackage1, inPackage2), locator.locate("a.b.A"))
+                Assert.assertEquals(setOf(outOfPackage1, outOfPackage2), locator.locate("e.TestKt").toSet())
+                Assert.assertTrue(locator.locate("e.Missing").isEmpty())
+            }
+            Assert.assertTrue(indexFile.isFile)
+        } finally {
+            base.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testSavedIndexIsUpdated() {
+        val base = Files.createTempDirectory("sources").toFile()
+        try {
+            val root = File(base, "root")
+            createFile(root, "a/A.java")
+            val projectData = ProjectData()
+            projectData.getOrCreateClassData("a.A").source = "A.java"
+            projectData.getOrCreateClassData("b.B").source = "B.java"
+            val indexFile = File(base, "index")
+
+            Assert.assertTrue(SourceFileLocator(listOf(root), projectData, indexFile).locate("b.B").isEmpty())
+
+            val newFile = createFile(root, "b/B.java")
+            // a new directory changes the modification time of the root
+            root.setLastModified(root.lastModified() + 2000)
+            Assert.assertEquals(listOf(newFile), SourceFileLocator(listOf(root), projectData, indexFile).locate("b.B"))
+        } finally {
+            base.deleteRecursively()
+        }
+    }
+
+    private fun createFile(root: File, path: String): File {
+        val file = File(root, path)
+        file.parentFile.mkdirs()
+        file.writeText("")
+        return file
+    }
+}
@@ -170,6 +170,34 @@ class VerifierTest {
         runVerifier(rules, listOf(ruleViolation))
     }
 
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun sharedReportTest() {
+        val report = file
+        val bound1_1 = Bound(1, Counter.LINE, ValueType.COVERED, BigDecimal.valueOf(10), BigDecimal.valueOf(15))
+        val bound2_1 = Bound(1, Counter.LINE, ValueType.COVERED, BigDecimal.valueOf(10), BigDecimal.valueOf(15))
+        val bound3_1 = Bound(1, Counter.LINE, ValueType.COVERED, BigDecimal.valueOf(10), BigDecimal.valueOf(15))
+        val rules = listOf(
+            Rule(ruleId++, report, Target.PACKAGE, listOf(bound1_1)),
+            Rule(ruleId++, report, Target.ALL, listOf(bound2_1)),
+            Rule(ruleId++, report, Target.PACKAGE, listOf(bound3_1)),
+        )
+
+        val expectedRules = listOf(1, 3).map { id ->
+            val boundViolation = BoundViolation(1)
+            boundViolation.minViolations.add(Violation("", BigDecimal.ONE))
+            boundViolation.minViolations.add(Violation("testData.inline", BigDecimal("3")))
+            boundViolation.minViolations.add(Violation("testData.defaultArgs", BigDecimal.ZERO))
+            boundViolation.minViolations.add(Violation("testData.outOfPackageStructure", BigDecimal.ZERO))
+            boundViolation.minViolations.add(Violation("testData.simple", BigDecimal("5")))
+            boundViolation.minViolations.add(Violation("testData.crossinline", BigDecimal.ZERO))
+            boundViolation.minViolations.add(Violation("testData.noReport.branches", BigDecimal.ZERO))
+            boundViolation.minViolations.add(Violation("testData.branches", BigDecimal("4")))
+            RuleViolation(id, listOf(boundViolation))
+        }
+        runVerifier(rules, expectedRules)
+    }
+
     @get:Throws(IOException::class)
     private val file: File
         get() = File.createTempFile("report", "ic")
@@ -194,10 +222,10 @@ class VerifierTest {
             includes.add(Pattern.compile("testData\\.simple\\..*"))
             includes.add(Pattern.compile("testData\\.outOfPackageStructure\\..*"))
             includes.add(Pattern.compile("[^.]*"))
-            for (rule in rules) {
+            for (reportFile in rules.map { it.reportFile }.distinct()) {
                 val request = Request(
                     createFilters(includes),
-                    rule.reportFile, null
+                    reportFile, null
                 )
                 requests.add(request)
             }
@@ -15,7 +15,9 @@ rootProject.name = "intellij-coverage"
 include(":instrumentation")
 include(":instrumentation:java7-utils")
 include(":test-discovery")
+include(":test-discovery-launcher-common")
 include(":junit4-test-discovery-launcher")
+include(":junit5-test-discovery-launcher")
 include(":tests")
 include(":util")
 include(":reporter")
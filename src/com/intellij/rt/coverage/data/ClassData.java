@@ -42,6 +42,12 @@ public class ClassData implements CoverageData {
    * Storage for line and branch hits.
    */
   private volatile Object myHitsMask;
+  /**
+   * Mapping of the hits array to lines, jumps and switches, it is built on the first {@link #applyHits()}
+   * and reset after the lines are changed. Both happen under the monitor of this object,
+   * so a mapping built while the lines are changed is always reset.
+   */
+  private volatile HitsMapping myHitsMapping;
   /**
    * Storage for test tracking data.
    */
@@ -63,14 +69,36 @@ public class ClassData implements CoverageData {
     return myClassName;
   }
 
+  /**
+   * @deprecated use {@link #save(DataOutputStream, DictionaryLookup, DictionaryLookup)}
+   */
+  @Deprecated
   public void save(final DataOutputStream os, DictionaryLookup dictionaryLookup) throws IOException {
+    save(os, dictionaryLookup, null);
+  }
+
+  /**
+   * @param dictionaryLookup index of class names in the report
+   * @param signaturesLookup index of method signatures in the report, a signature missing in the dictionary
+   *                         is written inline after -1. If it is null, signatures are written in the format
+   *                         before report version 2 with class names collapsed to their indices.
+   */
+  public void save(final DataOutputStream os, DictionaryLookup dictionaryLookup, DictionaryLookup signaturesLookup) throws IOException {
     CoverageIOUtil.writeINT(os, dictionaryLookup.getDictionaryIndex(myClassName));
-    final Map<String, List<LineData>> sigLines = prepareSignaturesMap(dictionaryLookup, true);
-    final Set<String> sigs = sigLines.keySet();
-    CoverageIOUtil.writeINT(os, sigs.size());
-    for (String sig1 : sigs) {
-      CoverageIOUtil.writeUTF(os, sig1);
-      final List<LineData> lines = sigLines.get(sig1);
+    final Map<String, List<LineData>> sigLines = signaturesLookup == null
+        ? mapLinesToCollapsedMethods(dictionaryLookup)
+        : mapLinesToMethods();
+    CoverageIOUtil.writeINT(os, sigLines.size());
+    for (Map.Entry<String, List<LineData>> entry : sigLines.entrySet()) {
+      final String signature = entry.getKey();
+      if (signaturesLookup == null) {
+        CoverageIOUtil.writeUTF(os, signature);
+      } else {
+        final int index = signaturesLookup.getDictionaryIndex(signature);
+        CoverageIOUtil.writeINT(os, index);
+        if (index < 0) CoverageIOUtil.writeUTF(os, signature);
+      }
+      final List<LineData> lines = entry.getValue();
       CoverageIOUtil.writeINT(os, lines.size());
       for (LineData line : lines) {
         line.save(os);
@@ -78,13 +106,18 @@ public class ClassData implements CoverageData {
     }
   }
 
-  private Map<String, List<LineData>> prepareSignaturesMap(DictionaryLookup dictionaryLookup, boolean collapseSignatures) {
+  private Map<String, List<LineData>> mapLinesToCollapsedMethods(final DictionaryLookup dictionaryLookup) {
     final Map<String, List<LineData>> sigLines = new HashMap<String, List<LineData>>();
     if (myLinesArray == null) return sigLines;
+    final CoverageIOUtil.Consumer collapse = new CoverageIOUtil.Consumer() {
+      protected String consume(String type) {
+        final int dictionaryIndex = dictionaryLookup.getDictionaryIndex(type);
+        return dictionaryIndex >= 0 ? String.valueOf(dictionaryIndex) : type;
+      }
+    };
     for (final LineData lineData : myLinesArray) {
       if (lineData == null) continue;
-      final String methodSignature = lineData.getMethodSignature();
-      final String sig = collapseSignatures ? CoverageIOUtil.collapse(methodSignature, dictionaryLookup) : methodSignature;
+      final String sig = CoverageIOUtil.processWithDictionary(lineData.getMethodSignature(), collapse);
       List<LineData> lines = sigLines.get(sig);
       if (lines == null) {
         lines = new ArrayList<LineData>();
@@ -96,12 +129,25 @@ public class ClassData implements CoverageData {
   }
 
   public Map<String, List<LineData>> mapLinesToMethods() {
-    return prepareSignaturesMap(null, false);
+    final Map<String, List<LineData>> sigLines = new HashMap<String, List<LineData>>();
+    if (myLinesArray == null) return sigLines;
+    for (final LineData lineData : myLinesArray) {
+      if (lineData == null) continue;
+      final String methodSignature = lineData.getMethodSignature();
+      List<LineData> lines = sigLines.get(methodSignature);
+      if (lines == null) {
+        lines = new ArrayList<LineData>();
+        sigLines.put(methodSignature, lines);
+      }
+      lines.add(lineData);
+    }
+    return sigLines;
   }
 
   public void merge(final CoverageData data) {
     ClassData classData = (ClassData) data;
     mergeLines(classData.myLinesArray);
+    resetHitsMapping();
     for (String o : getMethodSigs()) {
       myStatus.put(o, null);
     }
@@ -200,11 +246,13 @@ public class ClassData implements CoverageData {
         mergeLines(incompleteData);
       }
     }
+    resetHitsMapping();
     setFullyAnalysed(true);
   }
 
   public void resetLines(LineData[] lines) {
     myLinesArray = lines;
+    resetHitsMapping();
   }
 
   public void setSource(String source) {
@@ -281,56 +329,33 @@ public class ClassData implements CoverageData {
     return MAX_HITS;
   }
 
-  public void applyHits() {
-    int[] hits = CommonArrayUtil.getIntArray(myHitsMask);
-    if (hits == null) return;
+  private synchronized void resetHitsMapping() {
+    myHitsMapping = null;
+  }
 
-    for (int i = 0; i < hits.length; ++i) {
-      if (hits[i] < 0 || hits[i] > MAX_HITS) {
-        hits[i] = MAX_HITS;
+  private HitsMapping getHitsMapping() {
+    HitsMapping mapping = myHitsMapping;
+    if (mapping != null) return mapping;
+    synchronized (this) {
+      mapping = myHitsMapping;
+      if (mapping == null) {
+        mapping = HitsMapping.create(myLinesArray);
+        myHitsMapping = mapping;
       }
+      return mapping;
     }
-    try {
-      for (LineData lineData : myLinesArray) {
-        if (lineData == null) continue;
-        int lineId = lineData.getId();
-        if (lineId != -1) {
-          lineData.setHits(lineData.getHits() + hits[lineId]);
-        }
+  }
 
-        JumpData[] jumps = lineData.getJumps();
-        if (jumps != null) {
-          for (JumpData jumpData : jumps) {
-            if (jumpData == null) continue;
-            int trueId = jumpData.getId(true);
-            if (trueId != -1) {
-              jumpData.setTrueHits(jumpData.getTrueHits() + hits[trueId]);
-            }
-            int falseId = jumpData.getId(false);
-            if (falseId != -1) {
-              jumpData.setFalseHits(jumpData.getFalseHits() + hits[falseId]);
-            }
-          }
-        }
+  public void applyHits() {
+    int[] hits = CommonArrayUtil.getIntArray(myHitsMask);
+    if (hits == null) return;
 
-        SwitchData[] switches = lineData.getSwitches();
-        if (switches != null) {
-          for (SwitchData switchData : switches) {
-            if (switchData == null) continue;
-            int defaultId = switchData.getId(-1);
-            if (defaultId != -1) {
-              switchData.setDefaultHits(switchData.getDefaultHits() + hits[defaultId]);
-            }
-            int[] switchHits = switchData.getHits();
-            for (int i = 0; i < switchHits.length; i++) {
-              int caseId = switchData.getId(i);
-              if (caseId == -1) continue;
-              switchHits[i] += hits[caseId];
-            }
-            switchData.setKeysAndHits(switchData.getKeys(), switchHits);
-          }
-        }
+    try {
+      final HitsMapping mapping = getHitsMapping();
+      if (mapping.getMaxId() >= hits.length) {
+        throw new ArrayIndexOutOfBoundsException("Counter id " + mapping.getMaxId() + " is out of hits array of size " + hits.length);
       }
+      mapping.apply(hits);
       if (myHitsMask instanceof int[]) {
         Arrays.fill((int[]) myHitsMask, 0);
       } else if (myHitsMask instanceof boolean[]) {
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+/**
+ * Mapping from an index of the class hits array to the counters that collect these hits.
+ * The counters of an id are stored in the range <code>[myStarts[id], myStarts[id + 1])</code>
+ * of the parallel arrays {@link #myKinds}, {@link #myTargets} and {@link #myIndices}.
+ */
+class HitsMapping {
+  private static final byte LINE = 0;
+  private static final byte JUMP = 1;
+  private static final byte SWITCH_DEFAULT = 2;
+  private static final byte SWITCH_CASE = 3;
+
+  private final int[] myStarts;
+  private final byte[] myKinds;
+  private final Object[] myTargets;
+  private final int[] myIndices;
+
+  private HitsMapping(int[] starts, byte[] kinds, Object[] targets, int[] indices) {
+    myStarts = starts;
+    myKinds = kinds;
+    myTargets = targets;
+    myIndices = indices;
+  }
+
+  static HitsMapping create(LineData[] lines) {
+    final Builder builder = new Builder();
+    if (lines != null) {
+      for (LineData lineData : lines) {
+        if (lineData == null) continue;
+        builder.add(lineData.getId(), LINE, lineData, 0);
+        final JumpsAndSwitches jumpsAndSwitches = lineData.getJumpsAndSwitches();
+        if (jumpsAndSwitches == null) continue;
+        final JumpsAndSwitches jumps = jumpsAndSwitches.getFilledJumps();
+        final int jumpsCount = jumps.getFilledJumpsCount();
+        for (int i = 0; i < jumpsCount; i++) {
+          final int offset = i * JumpsAndSwitches.JUMP_SIZE;
+          builder.add(jumps.myJumps[offset + JumpsAndSwitches.TRUE_ID], JUMP, jumps, offset + JumpsAndSwitches.TRUE_HITS);
+          builder.add(jumps.myJumps[offset + JumpsAndSwitches.FALSE_ID], JUMP, jumps, offset + JumpsAndSwitches.FALSE_HITS);
+        }
+        final SwitchData[] switches = jumpsAndSwitches.getSwitches();
+        if (switches == null) continue;
+        for (SwitchData switchData : switches) {
+          if (switchData == null) continue;
+          builder.add(switchData.getId(-1), SWITCH_DEFAULT, switchData, 0);
+          final int casesCount = switchData.getHits().length;
+          for (int i = 0; i < casesCount; i++) {
+            builder.add(switchData.getId(i), SWITCH_CASE, switchData, i);
+          }
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the maximal id of a counter, or -1 if there are no counters with id
+   */
+  int getMaxId() {
+    return myStarts.length - 2;
+  }
+
+  /**
+   * Adds non-zero hits to the counters, the hits are trimmed with {@link ClassData#trimHits(int)}.
+   */
+  void apply(int[] hits) {
+    final int size = Math.min(hits.length, myStarts.length - 1);
+    for (int id = 0; id < size; id++) {
+      int hit = hits[id];
+      if (hit == 0) continue;
+      hit = ClassData.trimHits(hit);
+      for (int i = myStarts[id], end = myStarts[id + 1]; i < end; i++) {
+        final Object target = myTargets[i];
+        final int index = myIndices[i];
+        switch (myKinds[i]) {
+          case LINE:
+            final LineData lineData = (LineData) target;
+            lineData.setHits(lineData.getHits() + hit);
+            break;
+          case JUMP:
+            final int[] jumps = ((JumpsAndSwitches) target).myJumps;
+            jumps[index] = ClassData.trimHits(jumps[index] + hit);
+            break;
+          case SWITCH_DEFAULT:
+            final SwitchData defaultData = (SwitchData) target;
+            defaultData.setDefaultHits(defaultData.getDefaultHits() + hit);
+            break;
+          case SWITCH_CASE:
+            final int[] caseHits = ((SwitchData) target).getHits();
+            caseHits[index] = ClassData.trimHits(caseHits[index] + hit);
+            break;
+        }
+      }
+    }
+  }
+
+  private static class Builder {
+    private int mySize;
+    private int myMaxId = -1;
+    private int[] myIds = new int[16];
+    private byte[] myKinds = new byte[16];
+    private Object[] myTargets = new Object[16];
+    private int[] myIndices = new int[16];
+
+    void add(int id, byte kind, Object target, int index) {
+      if (id < 0) return;
+      if (mySize == myIds.length) {
+        final int capacity = 2 * mySize;
+        final int[] ids = new int[capacity];
+        final byte[] kinds = new byte[capacity];
+        final Object[] targets = new Object[capacity];
+        final int[] indices = new int[capacity];
+        System.arraycopy(myIds, 0, ids, 0, mySize);
+        System.arraycopy(myKinds, 0, kinds, 0, mySize);
+        System.arraycopy(myTargets, 0, targets, 0, mySize);
+        System.arraycopy(myIndices, 0, indices, 0, mySize);
+        myIds = ids;
+        myKinds = kinds;
+        myTargets = targets;
+        myIndices = indices;
+      }
+      myIds[mySize] = id;
+      myKinds[mySize] = kind;
+      myTargets[mySize] = target;
+      myIndices[mySize] = index;
+      mySize++;
+      myMaxId = Math.max(myMaxId, id);
+    }
+
+    HitsMapping build() {
+      // counting sort of the counters by id
+      final int[] starts = new int[myMaxId + 2];
+      for (int i = 0; i < mySize; i++) {
+        starts[myIds[i] + 1]++;
+      }
+      for (int id = 0; id <= myMaxId; id++) {
+        starts[id + 1] += starts[id];
+      }
+      final int[] positions = new int[myMaxId + 1];
+      System.arraycopy(starts, 0, positions, 0, myMaxId + 1);
+      final byte[] kinds = new byte[mySize];
+      final Object[] targets = new Object[mySize];
+      final int[] indices = new int[mySize];
+      for (int i = 0; i < mySize; i++) {
+        final int position = positions[myIds[i]]++;
+        kinds[position] = myKinds[i];
+        targets[position] = myTargets[i];
+        indices[position] = myIndices[i];
+      }
+      return new HitsMapping(starts, kinds, targets, indices);
+    }
+  }
+}
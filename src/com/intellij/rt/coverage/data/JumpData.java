@@ -21,62 +21,81 @@ import com.intellij.rt.coverage.util.CoverageIOUtil;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+/**
+ * A view of a jump stored in {@link JumpsAndSwitches}.
+ */
 public class JumpData implements CoverageData {
-  private int myTrueHits;
-  private int myFalseHits;
+  private final JumpsAndSwitches myOwner;
+  private final int myOffset;
+  /**
+   * A visible view looks up the storage of the jumps visible in {@link JumpsAndSwitches#getJumps()} on each access,
+   * otherwise the view refers to the jumps being collected.
+   */
+  private final boolean myVisible;
+
+  public JumpData() {
+    this(JumpsAndSwitches.createSingleJump(), 0);
+  }
 
-  private int myTrueId = -1;
-  private int myFalseId = -1;
+  JumpData(JumpsAndSwitches owner, int index) {
+    this(owner, index, false);
+  }
+
+  JumpData(JumpsAndSwitches owner, int index, boolean visible) {
+    myOwner = owner;
+    myOffset = index * JumpsAndSwitches.JUMP_SIZE;
+    myVisible = visible;
+  }
+
+  private int[] jumps() {
+    return myVisible ? myOwner.getFilledJumps().myJumps : myOwner.myJumps;
+  }
 
   public void touchTrueHit() {
-    myTrueHits++;
+    jumps()[myOffset + JumpsAndSwitches.TRUE_HITS]++;
   }
 
   public void touchFalseHit() {
-    myFalseHits++;
+    jumps()[myOffset + JumpsAndSwitches.FALSE_HITS]++;
   }
 
   public int getTrueHits() {
-    return myTrueHits;
+    return jumps()[myOffset + JumpsAndSwitches.TRUE_HITS];
   }
 
   public int getFalseHits() {
-    return myFalseHits;
+    return jumps()[myOffset + JumpsAndSwitches.FALSE_HITS];
   }
 
   public void save(final DataOutputStream os) throws IOException {
-    CoverageIOUtil.writeINT(os, myTrueHits);
-    CoverageIOUtil.writeINT(os, myFalseHits);
+    CoverageIOUtil.writeINT(os, getTrueHits());
+    CoverageIOUtil.writeINT(os, getFalseHits());
   }
 
   public void merge(final CoverageData data) {
     final JumpData jumpData = (JumpData) data;
-    setTrueHits(myTrueHits + jumpData.myTrueHits);
-    setFalseHits(myFalseHits + jumpData.myFalseHits);
-    if (jumpData.myFalseId != -1) myFalseId = jumpData.myFalseId;
-    if (jumpData.myTrueId != -1) myTrueId = jumpData.myTrueId;
+    setTrueHits(getTrueHits() + jumpData.getTrueHits());
+    setFalseHits(getFalseHits() + jumpData.getFalseHits());
+    if (jumpData.getId(false) != -1) setId(jumpData.getId(false), false);
+    if (jumpData.getId(true) != -1) setId(jumpData.getId(true), true);
   }
 
   public void setTrueHits(final int trueHits) {
-    myTrueHits = ClassData.trimHits(trueHits);
+    jumps()[myOffset + JumpsAndSwitches.TRUE_HITS] = ClassData.trimHits(trueHits);
   }
 
   public void setFalseHits(final int falseHits) {
-    myFalseHits = ClassData.trimHits(falseHits);
+    jumps()[myOffset + JumpsAndSwitches.FALSE_HITS] = ClassData.trimHits(falseHits);
   }
 
   public int getId(boolean type) {
-    return type ? myTrueId : myFalseId;
+    return jumps()[myOffset + (type ? JumpsAndSwitches.TRUE_ID : JumpsAndSwitches.FALSE_ID)];
   }
 
   /**
    * Branch ID is used to store coverage data in an array at runtime.
    */
   public void setId(int id, boolean type) {
-    if (type) {
-      myTrueId = id;
-    } else {
-      myFalseId = id;
-    }
+    jumps()[myOffset + (type ? JumpsAndSwitches.TRUE_ID : JumpsAndSwitches.FALSE_ID)] = id;
   }
 }
@@ -21,138 +21,239 @@ import com.intellij.rt.coverage.util.ErrorReporter;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
+ * Jumps of a line are packed into a single int array, {@link #JUMP_SIZE} values per jump,
+ * and {@link JumpData} objects are views of this array.
+ * <p>
+ * Jumps and switches are collected while a line is instrumented or loaded,
+ * and become visible in {@link #getJumps()} and {@link #getSwitches()} after {@link #fillArrays()}.
+ * When jumps or switches are collected again, the previously filled ones stay visible until the next {@link #fillArrays()}.
+ * <p>
+ * A {@link JumpData} view is bound to an index rather than to a jump: after {@link #removeJump(int)} it refers to the next jump.
+ * Views returned by {@link #getJumps()} and {@link #getJumpData(int)} look up the visible jumps on each access,
+ * so a view of the previously filled jumps refers to the new jump with the same index after {@link #fillArrays()}.
+ * Views returned by {@link #addJump(int)} refer to the jumps being collected.
+ *
  * @author Pavel.Sher
  */
 public class JumpsAndSwitches implements CoverageData {
-  private List<JumpData> myJumps;
-  private JumpData[] myJumpsArray;
+  static final int TRUE_HITS = 0;
+  static final int FALSE_HITS = 1;
+  static final int TRUE_ID = 2;
+  static final int FALSE_ID = 3;
+  static final int JUMP_SIZE = 4;
+
+  private static final byte NONE = 0;
+  private static final byte COLLECTING = 1;
+  private static final byte FILLED = 2;
 
-  private List<SwitchData> mySwitches;
-  private SwitchData[] mySwitchesArray;
+  int[] myJumps;
+  private int myJumpsCount;
+  private byte myJumpsState = NONE;
+  /**
+   * Jumps filled before the current collection, visible until the next {@link #fillArrays()}.
+   */
+  private JumpsAndSwitches myFilledJumps;
+  /**
+   * Views of the visible jumps, rebuilt when the number of visible jumps changes.
+   */
+  private JumpData[] myJumpViews;
+
+  private SwitchData[] mySwitches;
+  private int mySwitchesCount;
+  private byte mySwitchesState = NONE;
+  private SwitchData[] myFilledSwitches;
+
+  /**
+   * Storage of a single jump for a {@link JumpData} created outside of a line.
+   */
+  static JumpsAndSwitches createSingleJump() {
+    final JumpsAndSwitches jumpsAndSwitches = new JumpsAndSwitches();
+    jumpsAndSwitches.addJump(0);
+    return jumpsAndSwitches;
+  }
 
   public JumpData[] getJumps() {
-    return myJumpsArray;
+    if (myFilledJumps == null && myJumpsState != FILLED) return null;
+    final int count = getFilledJumpsCount();
+    JumpData[] jumps = myJumpViews;
+    if (jumps == null || jumps.length != count) {
+      jumps = new JumpData[count];
+      for (int i = 0; i < count; i++) {
+        jumps[i] = new JumpData(this, i, true);
+      }
+      myJumpViews = jumps;
+    }
+    return jumps;
   }
 
   public SwitchData[] getSwitches() {
-    return mySwitchesArray;
+    if (myFilledSwitches != null) return myFilledSwitches;
+    if (mySwitchesState != FILLED) return null;
+    return mySwitches;
   }
 
   public JumpData addJump(final int jump) {
-    if (myJumps == null) myJumps = new ArrayList<JumpData>();
-    if (myJumps.size() <= jump) {
-      for (int i = myJumps.size(); i <= jump; i++){
-        myJumps.add(new JumpData());
+    if (myJumpsState != COLLECTING) {
+      if (myJumpsState == FILLED) {
+        myFilledJumps = new JumpsAndSwitches();
+        myFilledJumps.myJumps = myJumps;
+        myFilledJumps.myJumpsCount = myJumpsCount;
+        myFilledJumps.myJumpsState = FILLED;
+        myJumps = null;
       }
+      myJumpsState = COLLECTING;
+      myJumpsCount = 0;
     }
-    return myJumps.get(jump);
+    if (myJumpsCount <= jump) {
+      ensureJumpsCapacity(jump + 1);
+      clearJumps(myJumpsCount, jump + 1);
+      myJumpsCount = jump + 1;
+    }
+    return new JumpData(this, jump);
   }
 
   public JumpData getJumpData(int jump) {
-    return myJumpsArray == null ? (myJumps == null ? null : myJumps.get(jump)) : myJumpsArray[jump];
+    if (myFilledJumps == null && myJumpsState != FILLED) {
+      if (myJumpsState == NONE) return null;
+      if (jump < 0 || jump >= myJumpsCount) throw new IndexOutOfBoundsException("Index: " + jump + ", Size: " + myJumpsCount);
+      return new JumpData(this, jump);
+    }
+    final JumpData[] jumps = getJumps();
+    if (jump < 0 || jump >= jumps.length) throw new IndexOutOfBoundsException("Index: " + jump + ", Size: " + jumps.length);
+    return jumps[jump];
   }
 
   public SwitchData addSwitch(final int switchNumber, final int[] keys) {
-    if (mySwitches == null) mySwitches = new ArrayList<SwitchData>();
-    final SwitchData switchData = new SwitchData(keys);
-    if (mySwitches.size() <= switchNumber) {
-      for(int i = mySwitches.size(); i < switchNumber; i++) {
-        mySwitches.add(new SwitchData(new int[0]));
-      }
-      if (mySwitches.size() == switchNumber) {
-        mySwitches.add(switchData);
+    if (mySwitchesState != COLLECTING) {
+      if (mySwitchesState == FILLED) myFilledSwitches = mySwitches;
+      mySwitchesState = COLLECTING;
+      mySwitches = null;
+      mySwitchesCount = 0;
+    }
+    if (mySwitchesCount <= switchNumber) {
+      ensureSwitchesCapacity(switchNumber + 1);
+      for (int i = mySwitchesCount; i < switchNumber; i++) {
+        mySwitches[i] = new SwitchData(new int[0]);
       }
+      mySwitches[switchNumber] = new SwitchData(keys);
+      mySwitchesCount = switchNumber + 1;
     }
-    return mySwitches.get(switchNumber);
+    return mySwitches[switchNumber];
   }
 
   public void removeSwitch(int switchNumber) {
-    if (0 <= switchNumber && switchNumber < mySwitches.size()) {
-      mySwitches.remove(switchNumber);
+    if (0 <= switchNumber && switchNumber < mySwitchesCount) {
+      System.arraycopy(mySwitches, switchNumber + 1, mySwitches, switchNumber, mySwitchesCount - switchNumber - 1);
+      mySwitches[--mySwitchesCount] = null;
+      if (mySwitchesState == FILLED) trimSwitches();
     } else {
       ErrorReporter.warn("Remove switch", new ArrayIndexOutOfBoundsException(switchNumber));
     }
   }
 
   public SwitchData getSwitchData(int switchNumber) {
-    return mySwitchesArray == null ? (mySwitches == null ? null : mySwitches.get(switchNumber)) : mySwitchesArray[switchNumber];
+    if (myFilledSwitches != null) return myFilledSwitches[switchNumber];
+    if (mySwitchesState == NONE) return null;
+    if (switchNumber < 0 || switchNumber >= mySwitchesCount) throw new IndexOutOfBoundsException("Index: " + switchNumber + ", Size: " + mySwitchesCount);
+    return mySwitches[switchNumber];
   }
 
   public void save(final DataOutputStream os) throws IOException {
-    CoverageIOUtil.writeINT(os, myJumpsArray != null ? myJumpsArray.length : 0);
-    if (myJumpsArray != null) {
-      for (JumpData aMyJumpsArray : myJumpsArray) {
-        aMyJumpsArray.save(os);
-      }
+    final JumpsAndSwitches jumps = myFilledJumps != null ? myFilledJumps : this;
+    final int jumpsCount = jumps.getFilledJumpsCount();
+    CoverageIOUtil.writeINT(os, jumpsCount);
+    for (int i = 0; i < jumpsCount; i++) {
+      CoverageIOUtil.writeINT(os, jumps.myJumps[i * JUMP_SIZE + TRUE_HITS]);
+      CoverageIOUtil.writeINT(os, jumps.myJumps[i * JUMP_SIZE + FALSE_HITS]);
     }
-    CoverageIOUtil.writeINT(os, mySwitchesArray != null ? mySwitchesArray.length : 0);
-    if (mySwitchesArray != null) {
-      for (SwitchData aMySwitchesArray : mySwitchesArray) {
-        aMySwitchesArray.save(os);
+    final SwitchData[] switches = getSwitches();
+    CoverageIOUtil.writeINT(os, switches != null ? switches.length : 0);
+    if (switches != null) {
+      for (SwitchData switchData : switches) {
+        switchData.save(os);
       }
     }
   }
 
   public void removeJump(final int jump) {
-    if (0 <= jump && jump < myJumps.size()) {
-      myJumps.remove(jump);
+    if (0 <= jump && jump < myJumpsCount) {
+      System.arraycopy(myJumps, (jump + 1) * JUMP_SIZE, myJumps, jump * JUMP_SIZE, (myJumpsCount - jump - 1) * JUMP_SIZE);
+      myJumpsCount--;
+      if (myJumpsState == FILLED) trimJumps();
     } else {
       ErrorReporter.warn("Remove jump", new ArrayIndexOutOfBoundsException(jump));
     }
   }
 
   public void fillArrays() {
-    if (myJumps != null) {
-      myJumpsArray = new JumpData[myJumps.size()];
-      for (int i = 0; i < myJumps.size(); i++) {
-        myJumpsArray[i] = myJumps.get(i);
-      }
-      myJumps = null;
+    if (myJumpsState == COLLECTING) {
+      myJumpsState = FILLED;
+      myFilledJumps = null;
+      trimJumps();
     }
-    if (mySwitches != null) {
-      mySwitchesArray = new SwitchData[mySwitches.size()];
-      for (int i = 0; i < mySwitches.size(); i++) {
-        mySwitchesArray[i] = mySwitches.get(i);
-      }
-      mySwitches = null;
+    if (mySwitchesState == COLLECTING) {
+      mySwitchesState = FILLED;
+      myFilledSwitches = null;
+      trimSwitches();
     }
   }
 
+  /**
+   * Merges the filled jumps and switches of the data into the filled ones of this object.
+   * Jumps and switches being collected are not affected, they replace the merged ones in {@link #fillArrays()}.
+   */
   public void merge(final CoverageData data) {
     JumpsAndSwitches jumpsData = (JumpsAndSwitches)data;
-    if (jumpsData.myJumpsArray != null) {
-      if (myJumpsArray == null) {
-        myJumpsArray = new JumpData[jumpsData.myJumpsArray.length];
-      }
-      else {
-        if (myJumpsArray.length < jumpsData.myJumpsArray.length) {
-          JumpData[] extJumpsArray = new JumpData[jumpsData.myJumpsArray.length];
-          System.arraycopy(myJumpsArray, 0, extJumpsArray, 0, myJumpsArray.length);
-          myJumpsArray = extJumpsArray;
-        }
+    final JumpsAndSwitches filledJumps = jumpsData.myFilledJumps != null ? jumpsData.myFilledJumps : jumpsData;
+    if (filledJumps.myJumpsState == FILLED) {
+      if (myJumpsState == COLLECTING) {
+        if (myFilledJumps == null) myFilledJumps = new JumpsAndSwitches();
+        myFilledJumps.mergeJumps(filledJumps);
+      } else {
+        mergeJumps(filledJumps);
       }
-      mergeJumps(myJumpsArray, jumpsData.myJumpsArray);
     }
-    if (jumpsData.mySwitchesArray != null) {
-      if (mySwitchesArray == null) {
-        mySwitchesArray = new SwitchData[jumpsData.mySwitchesArray.length];
+    final SwitchData[] switches = jumpsData.getSwitches();
+    if (switches != null) {
+      if (mySwitchesState == COLLECTING) {
+        myFilledSwitches = mergeSwitches(myFilledSwitches, switches);
+      } else {
+        mySwitchesState = FILLED;
+        mySwitches = mergeSwitches(mySwitches, switches);
+        mySwitchesCount = mySwitches.length;
       }
-      else {
-        if (mySwitchesArray.length < jumpsData.mySwitchesArray.length) {
-          SwitchData[] extJumpsArray = new SwitchData[jumpsData.mySwitchesArray.length];
-          System.arraycopy(mySwitchesArray, 0, extJumpsArray, 0, mySwitchesArray.length);
-          mySwitchesArray = extJumpsArray;
-        }
-      }
-      mergeSwitches(mySwitchesArray, jumpsData.mySwitchesArray);
     }
   }
 
-  private static void mergeSwitches(SwitchData[] myArray, SwitchData[] array) {
+  private void mergeJumps(JumpsAndSwitches jumpsData) {
+    if (myJumpsState != FILLED) {
+      myJumpsState = FILLED;
+      myJumpsCount = 0;
+    }
+    if (myJumpsCount < jumpsData.myJumpsCount) {
+      ensureJumpsCapacity(jumpsData.myJumpsCount);
+      clearJumps(myJumpsCount, jumpsData.myJumpsCount);
+      myJumpsCount = jumpsData.myJumpsCount;
+      trimJumps();
+    }
+    for (int i = 0; i < jumpsData.myJumpsCount; i++) {
+      new JumpData(this, i).merge(new JumpData(jumpsData, i));
+    }
+  }
+
+  /**
+   * @return the merged array, which is a new one if the switches do not fit
+   */
+  private static SwitchData[] mergeSwitches(SwitchData[] myArray, SwitchData[] array) {
+    if (myArray == null) {
+      myArray = new SwitchData[array.length];
+    } else if (myArray.length < array.length) {
+      final SwitchData[] extArray = new SwitchData[array.length];
+      System.arraycopy(myArray, 0, extArray, 0, myArray.length);
+      myArray = extArray;
+    }
     for (int i = 0; i < array.length; i++) {
       SwitchData switchData = myArray[i];
       if (switchData == null) {
@@ -162,29 +263,107 @@ public class JumpsAndSwitches implements CoverageData {
       }
       switchData.merge(array[i]);
     }
+    return myArray;
   }
 
-  private static void mergeJumps(JumpData[] myArray, JumpData[] array) {
-    for (int i = 0; i < array.length; i++) {
-      JumpData switchData = myArray[i];
-      if (switchData == null) {
-        if (array[i] == null) continue;
-        switchData = new JumpData();
-        myArray[i] = switchData;
-      }
-      switchData.merge(array[i]);
+  /**
+   * @return true if any of the jumps visible in {@link #getJumps()} has an uncovered branch
+   */
+  boolean hasPartiallyCoveredJump() {
+    if (myFilledJumps != null) return myFilledJumps.hasPartiallyCoveredJump();
+    if (myJumpsState != FILLED) return false;
+    for (int i = 0; i < myJumpsCount; i++) {
+      final int offset = i * JUMP_SIZE;
+      if (myJumps[offset + TRUE_HITS] == 0 || myJumps[offset + FALSE_HITS] == 0) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return number of jumps visible in {@link #getJumps()} with covered true or false branch,
+   * i.e. the value is in [0, 2 * jumps number]
+   */
+  int getCoveredJumpBranches() {
+    if (myFilledJumps != null) return myFilledJumps.getCoveredJumpBranches();
+    if (myJumpsState != FILLED) return 0;
+    int covered = 0;
+    for (int i = 0; i < myJumpsCount; i++) {
+      final int offset = i * JUMP_SIZE;
+      if (myJumps[offset + TRUE_HITS] > 0) covered++;
+      if (myJumps[offset + FALSE_HITS] > 0) covered++;
     }
+    return covered;
+  }
+
+  int getFilledJumpsCount() {
+    if (myFilledJumps != null) return myFilledJumps.getFilledJumpsCount();
+    return myJumpsState == FILLED ? myJumpsCount : 0;
+  }
+
+  /**
+   * @return storage of the jumps visible in {@link #getJumps()}, the first {@link #getFilledJumpsCount()} jumps of its array
+   */
+  JumpsAndSwitches getFilledJumps() {
+    return myFilledJumps != null ? myFilledJumps : this;
   }
 
   public int jumpsCount() {
-    if (myJumps != null) return myJumps.size();
-    if (myJumpsArray != null) return myJumpsArray.length;
-    return 0;
+    return myJumpsCount;
   }
 
   public int switchesCount() {
-    if (mySwitches != null) return mySwitches.size();
-    if (mySwitchesArray != null) return mySwitchesArray.length;
-    return 0;
+    return mySwitchesCount;
+  }
+
+  private void ensureJumpsCapacity(int count) {
+    final int size = count * JUMP_SIZE;
+    if (myJumps == null) {
+      myJumps = new int[size];
+    } else if (myJumps.length < size) {
+      final int[] jumps = new int[Math.max(size, 2 * myJumps.length)];
+      System.arraycopy(myJumps, 0, jumps, 0, myJumpsCount * JUMP_SIZE);
+      myJumps = jumps;
+    }
+  }
+
+  /**
+   * Resets the hits and ids of the jumps in [from, to), the slots may keep a removed or previously collected jump.
+   */
+  private void clearJumps(int from, int to) {
+    for (int i = from; i < to; i++) {
+      myJumps[i * JUMP_SIZE + TRUE_HITS] = 0;
+      myJumps[i * JUMP_SIZE + FALSE_HITS] = 0;
+      myJumps[i * JUMP_SIZE + TRUE_ID] = -1;
+      myJumps[i * JUMP_SIZE + FALSE_ID] = -1;
+    }
+  }
+
+  private void trimJumps() {
+    final int size = myJumpsCount * JUMP_SIZE;
+    if (myJumps == null || myJumps.length == size) return;
+    final int[] jumps = new int[size];
+    System.arraycopy(myJumps, 0, jumps, 0, size);
+    myJumps = jumps;
+  }
+
+  private void ensureSwitchesCapacity(int count) {
+    if (mySwitches == null) {
+      mySwitches = new SwitchData[count];
+    } else if (mySwitches.length < count) {
+      final SwitchData[] switches = new SwitchData[Math.max(count, 2 * mySwitches.length)];
+      System.arraycopy(mySwitches, 0, switches, 0, mySwitchesCount);
+      mySwitches = switches;
+    }
+  }
+
+  private void trimSwitches() {
+    if (mySwitches == null) {
+      mySwitches = new SwitchData[0];
+      return;
+    }
+    if (mySwitches.length == mySwitchesCount) return;
+    final SwitchData[] switches = new SwitchData[mySwitchesCount];
+    System.arraycopy(mySwitches, 0, switches, 0, mySwitchesCount);
+    mySwitches = switches;
   }
 }
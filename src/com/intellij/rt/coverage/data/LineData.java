@@ -66,14 +66,9 @@ public class LineData implements CoverageData {
     }
 
     if (myJumpsAndSwitches != null) {
-      JumpData[] jumps = getOrCreateJumpsAndSwitches().getJumps();
-      if (jumps != null) {
-        for (final JumpData jumpData : jumps) {
-          if ((jumpData.getFalseHits() > 0 ? 1 : 0) + (jumpData.getTrueHits() > 0 ? 1 : 0) < 2) {
-            myStatus = LineCoverage.PARTIAL;
-            return myStatus;
-          }
-        }
+      if (myJumpsAndSwitches.hasPartiallyCoveredJump()) {
+        myStatus = LineCoverage.PARTIAL;
+        return myStatus;
       }
 
       SwitchData[] switches = getOrCreateJumpsAndSwitches().getSwitches();
@@ -206,14 +201,8 @@ public class LineData implements CoverageData {
     int total = 0;
     int covered = 0;
 
-    JumpData[] jumps = myJumpsAndSwitches.getJumps();
-    if (jumps != null) {
-      for (JumpData jump : jumps) {
-        total += 2;
-        if (jump.getFalseHits() > 0) covered++;
-        if (jump.getTrueHits() > 0) covered++;
-      }
-    }
+    total += 2 * myJumpsAndSwitches.getFilledJumpsCount();
+    covered += myJumpsAndSwitches.getCoveredJumpBranches();
 
     SwitchData[] switches = myJumpsAndSwitches.getSwitches();
     if (switches != null) {
@@ -248,6 +237,10 @@ public class LineData implements CoverageData {
     return myUniqueTestName != null && myUniqueTestName.length() > 0;
   }
 
+  JumpsAndSwitches getJumpsAndSwitches() {
+    return myJumpsAndSwitches;
+  }
+
   public void removeJump(final int jump) {
     if (myJumpsAndSwitches == null) return;
     getOrCreateJumpsAndSwitches().removeJump(jump);
@@ -18,7 +18,9 @@ package com.intellij.rt.coverage.util;
 
 /**
 * @author Pavel.Sher
+* @deprecated {@link StringsPool} compares strings by content and does not use this hash anymore.
 */
+@Deprecated
 public class StringHash {
   private static final long initialHash = 0xe12398c6d9ae3b8aL;  // initial values
   private static final long[] mixMaster = {
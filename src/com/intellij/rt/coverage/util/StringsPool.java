@@ -17,28 +17,95 @@
 package com.intellij.rt.coverage.util;
 
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
+ * Pool of strings, which is an open addressing table compared by the string content,
+ * so a string is never replaced with a different one with the same hash.
+ * Lookups of pooled strings are lock-free and do not allocate, new strings are added under a lock.
+ *
  * @author Pavel.Sher
  */
 public class StringsPool {
-  private final Map<Long, String> myReusableStrings = new ConcurrentHashMap<Long, String>(1000);
+  private static final int INITIAL_CAPACITY = 1024;
   private final static String EMPTY = "";
 
+  private volatile Table myTable = new Table(INITIAL_CAPACITY);
+  /**
+   * Number of pooled strings, guarded by this pool.
+   */
+  private int mySize;
+
   public String getFromPool(String value) {
     if (value == null) return null;
     if (value.isEmpty()) return EMPTY;
 
-    final long hash = StringHash.calc(value);
-    String reused = myReusableStrings.get(hash);
+    final int hash = value.hashCode();
+    final String reused = myTable.find(value, hash);
     if (reused != null) return reused;
+    return add(value, hash);
+  }
+
+  private synchronized String add(String value, int hash) {
+    Table table = myTable;
+    String reused = table.find(value, hash);
+    if (reused != null) return reused;
+    if (2 * (mySize + 1) > table.myStrings.length) {
+      table = table.grow();
+      myTable = table;
+    }
     // new String() is required because value often is passed as substring which has a reference to original char array
     // see {@link String.substring(int, int} method implementation.
     //noinspection StringOperationCanBeSimplified
     reused = new String(value);
-    myReusableStrings.put(hash, reused);
+    table.insert(reused, hash);
+    mySize++;
     return reused;
   }
+
+  /**
+   * A table is filled at most by half, so a search always ends at an empty slot.
+   * Slots are only filled and never cleared; a table replaced with a larger one is not modified anymore.
+   * A concurrent reader may miss a string that is being added, then it is searched again under the lock.
+   */
+  private static class Table {
+    private final String[] myStrings;
+    private final int[] myHashes;
+
+    private Table(int capacity) {
+      myStrings = new String[capacity];
+      myHashes = new int[capacity];
+    }
+
+    private String find(String value, int hash) {
+      final int mask = myStrings.length - 1;
+      for (int i = index(hash, mask); ; i = (i + 1) & mask) {
+        final String s = myStrings[i];
+        if (s == null) return null;
+        if (myHashes[i] == hash && value.equals(s)) return s;
+      }
+    }
+
+    private void insert(String value, int hash) {
+      final int mask = myStrings.length - 1;
+      int i = index(hash, mask);
+      while (myStrings[i] != null) {
+        i = (i + 1) & mask;
+      }
+      myHashes[i] = hash;
+      myStrings[i] = value;
+    }
+
+    private Table grow() {
+      final Table table = new Table(2 * myStrings.length);
+      for (int i = 0; i < myStrings.length; i++) {
+        if (myStrings[i] != null) {
+          table.insert(myStrings[i], myHashes[i]);
+        }
+      }
+      return table;
+    }
+
+    private static int index(int hash, int mask) {
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+  }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.testDiscovery.launcher;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Notifies <code>TestDiscoveryProjectData</code> of the test discovery agent about the executed tests.
+ * The launchers are not linked with the agent, so the agent methods are resolved reflectively once.
+ * If the agent is not available, the calls are ignored.
+ */
+public class TestDiscoveryCallbacks {
+  private static final String PROJECT_DATA_CLASS = "com.intellij.rt.coverage.data.TestDiscoveryProjectData";
+
+  private final Object myData;
+  private final Method myTestStarted;
+  private final Method myTestEnded;
+  private final Method myFinished;
+
+  public TestDiscoveryCallbacks() {
+    this(getProjectData());
+  }
+
+  /**
+   * @param data project data of the agent, the calls are ignored if it is null
+   */
+  TestDiscoveryCallbacks(Object data) {
+    Method testStarted = null;
+    Method testEnded = null;
+    Method finished = null;
+    if (data != null) {
+      try {
+        final Class<?> dataClass = data.getClass();
+        testStarted = dataClass.getMethod("testDiscoveryStarted", String.class, String.class);
+        testEnded = dataClass.getMethod("testDiscoveryEnded", String.class, String.class);
+        finished = dataClass.getMethod("testDiscoveryFinished");
+      } catch (Throwable t) {
+        t.printStackTrace();
+        data = null;
+      }
+    }
+    myData = data;
+    myTestStarted = testStarted;
+    myTestEnded = testEnded;
+    myFinished = finished;
+  }
+
+  public void testStarted(String className, String methodName) {
+    invoke(myTestStarted, className, methodName);
+  }
+
+  public void testEnded(String className, String methodName) {
+    invoke(myTestEnded, className, methodName);
+  }
+
+  public void finished() {
+    invoke(myFinished);
+  }
+
+  private void invoke(Method method, Object... args) {
+    if (myData == null) return;
+    try {
+      method.invoke(myData, args);
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+    } catch (Throwable t) {
+      t.printStackTrace();
+    }
+  }
+
+  private static Object getProjectData() {
+    try {
+      return loadProjectDataClass().getMethod("getProjectData").invoke(null);
+    } catch (Throwable t) {
+      t.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * The agent classes are usually visible from the launcher class loader,
+   * otherwise the context class loader is tried.
+   */
+  private static Class<?> loadProjectDataClass() throws ClassNotFoundException {
+    try {
+      return Class.forName(PROJECT_DATA_CLASS);
+    } catch (ClassNotFoundException e) {
+      final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      if (contextClassLoader == null) throw e;
+      return Class.forName(PROJECT_DATA_CLASS, true, contextClassLoader);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data in independently compressed blocks.
+ * Block format:
+ * <ul>
+ * <li>Compressed data length - int</li>
+ * <li>Uncompressed data length - int</li>
+ * <li>CRC32 of the uncompressed data - int</li>
+ * <li>Data compressed with raw deflate - byte-array</li>
+ * </ul>
+ * A block is finished only at the end of a message, so a truncated stream is readable up to the last complete block.
+ * <p>
+ * A block is written when it is full, on {@link #flush()} and on {@link #close()}.
+ * To limit the data lost when the process is killed, a partial block is also written and flushed
+ * at the end of a message if the previous block was written more than the flush interval ago.
+ *
+ * @see TestDiscoveryProtocolDataListener#COMPRESSED_BLOCKS_VERSION
+ */
+class CompressedBlockOutputStream extends OutputStream {
+  private final DataOutputStream myOutput;
+  private final int myBlockSize;
+  private final long myFlushIntervalMs;
+  private long myLastBlockTime;
+  private final Deflater myDeflater = new Deflater(Deflater.BEST_SPEED, true);
+  private final CRC32 myCrc = new CRC32();
+  private byte[] myBlock;
+  private int mySize;
+  private byte[] myCompressed = new byte[1024];
+
+  CompressedBlockOutputStream(DataOutputStream output, int blockSize, long flushIntervalMs) {
+    myOutput = output;
+    myBlockSize = blockSize;
+    myFlushIntervalMs = flushIntervalMs;
+    myBlock = new byte[blockSize];
+    myLastBlockTime = System.currentTimeMillis();
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    myBlock[mySize++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(b, off, myBlock, mySize, len);
+    mySize += len;
+  }
+
+  /**
+   * Marks the end of a message, the block is written if it is full or the flush interval has passed.
+   */
+  void endMessage() throws IOException {
+    if (mySize >= myBlockSize) {
+      writeBlock();
+    } else if (mySize > 0 && System.currentTimeMillis() - myLastBlockTime >= myFlushIntervalMs) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the partial block, so it must be called at the end of a message only.
+   */
+  @Override
+  public void flush() throws IOException {
+    writeBlock();
+    myOutput.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeBlock();
+    } finally {
+      myDeflater.end();
+      myOutput.close();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    if (mySize == 0) return;
+    myCrc.reset();
+    myCrc.update(myBlock, 0, mySize);
+    myDeflater.reset();
+    myDeflater.setInput(myBlock, 0, mySize);
+    myDeflater.finish();
+    int compressedSize = 0;
+    while (!myDeflater.finished()) {
+      if (compressedSize == myCompressed.length) {
+        final byte[] compressed = new byte[myCompressed.length * 2];
+        System.arraycopy(myCompressed, 0, compressed, 0, compressedSize);
+        myCompressed = compressed;
+      }
+      compressedSize += myDeflater.deflate(myCompressed, compressedSize, myCompressed.length - compressedSize);
+    }
+    myOutput.writeInt(compressedSize);
+    myOutput.writeInt(mySize);
+    myOutput.writeInt((int) myCrc.getValue());
+    myOutput.write(myCompressed, 0, compressedSize);
+    mySize = 0;
+    myLastBlockTime = System.currentTimeMillis();
+  }
+
+  private void ensureCapacity(int length) {
+    if (mySize + length <= myBlock.length) return;
+    final byte[] block = new byte[Math.max(myBlock.length * 2, mySize + length)];
+    System.arraycopy(myBlock, 0, block, 0, mySize);
+    myBlock = block;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent cache of a bounded size, which keeps the recently used entries.
+ * New entries go to the current generation. When it is full, it becomes the old generation
+ * and the previous old generation is dropped. Entries found in the old generation are moved to the current one.
+ */
+class GenerationalCache<K, V> {
+  private final int myGenerationSize;
+  private volatile Generation<K, V> myCurrent = new Generation<K, V>();
+  private volatile Generation<K, V> myOld = new Generation<K, V>();
+
+  /**
+   * @param size maximal number of entries
+   */
+  GenerationalCache(int size) {
+    myGenerationSize = Math.max(1, size / 2);
+  }
+
+  V get(K key) {
+    final V value = myCurrent.myMap.get(key);
+    if (value != null) return value;
+    final V old = myOld.myMap.get(key);
+    if (old != null) {
+      put(key, old);
+    }
+    return old;
+  }
+
+  void put(K key, V value) {
+    final Generation<K, V> current = myCurrent;
+    if (current.myMap.putIfAbsent(key, value) == null && current.mySize.incrementAndGet() == myGenerationSize) {
+      // only one thread reaches the size, so the generations are swapped once
+      myOld = current;
+      myCurrent = new Generation<K, V>();
+    }
+  }
+
+  private static class Generation<K, V> {
+    private final ConcurrentMap<K, V> myMap = new ConcurrentHashMap<K, V>();
+    private final AtomicInteger mySize = new AtomicInteger();
+  }
+}
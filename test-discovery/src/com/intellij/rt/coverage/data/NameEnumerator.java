@@ -20,18 +20,34 @@ import org.jetbrains.coverage.gnu.trove.TObjectIntHashMap;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns ids to names, the ids of known names are found without locking.
+ * <p>
+ * A new name gets its id under a lock, so every name gets exactly one id and ids have no gaps.
+ * The id is reported with {@link #updateDataIncrement(String, int)} before the name is published
+ * with this id, so any returned id is guaranteed to be already reported.
+ */
 public class NameEnumerator {
-  private final TObjectIntHashMap<String> myNames = new TObjectIntHashMap<String>();
+  private final ConcurrentMap<String, Integer> myNames = new ConcurrentHashMap<String, Integer>();
+  private final Object myNameLock = new Object();
+  /**
+   * Guarded by {@link #myNameLock}.
+   */
   private int myNextNameId = 1; // because TObjectIntHashMap uses 0 as null
-  private final Object myNameLock = "NameLock";
 
   int enumerate(String name) {
+    final Integer enumerated = myNames.get(name);
+    if (enumerated != null) return enumerated;
     synchronized (myNameLock) {
-      int enumerated = myNames.get(name);
-      if (enumerated != 0) return enumerated;
-
-      int newId = myNextNameId++;
+      final Integer published = myNames.get(name);
+      if (published != null) return published;
+      final int newId = myNextNameId++;
       updateDataIncrement(name, newId);
       myNames.put(name, newId);
       return newId;
@@ -39,28 +55,30 @@ public class NameEnumerator {
   }
 
   TObjectIntHashMap<String> getNamesMap() {
-    return myNames;
+    final TObjectIntHashMap<String> result = new TObjectIntHashMap<String>();
+    for (Map.Entry<String, Integer> entry : myNames.entrySet()) {
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
   }
 
   protected void updateDataIncrement(String name, int id) {
   }
 
   static class Incremental extends NameEnumerator {
-    private List<NameAndId> myDataIncrement = new ArrayList<NameAndId>();
-    private final Object myDataIncrementLock = "DataIncrementLock";
+    private final Queue<NameAndId> myDataIncrement = new ConcurrentLinkedQueue<NameAndId>();
 
     protected void updateDataIncrement(String name, int id) {
-      synchronized (myDataIncrementLock) {
-        myDataIncrement.add(new NameAndId(name, id));
-      }
+      myDataIncrement.add(new NameAndId(name, id));
     }
 
     List<NameAndId> getAndClearDataIncrement() {
-      synchronized (myDataIncrementLock) {
-        List<NameAndId> dataIncrement = myDataIncrement;
-        myDataIncrement = new ArrayList<NameAndId>();
-        return dataIncrement;
+      List<NameAndId> dataIncrement = new ArrayList<NameAndId>();
+      NameAndId nameAndId;
+      while ((nameAndId = myDataIncrement.poll()) != null) {
+        dataIncrement.add(nameAndId);
       }
+      return dataIncrement;
     }
 
     static final class NameAndId {
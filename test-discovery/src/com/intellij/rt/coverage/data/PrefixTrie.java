@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+/**
+ * Set of prefixes, which finds the prefixes of a string in a single pass over the string.
+ */
+class PrefixTrie {
+  private final String[] myPrefixes;
+  private final Node myRoot = new Node();
+
+  PrefixTrie(String[] prefixes) {
+    myPrefixes = prefixes;
+    for (int i = 0; i < prefixes.length; i++) {
+      add(prefixes[i], i);
+    }
+  }
+
+  /**
+   * @return the prefix of <code>s</code> that goes first in the prefixes array or <code>null</code> if there is no such prefix
+   */
+  String findFirstPrefix(String s) {
+    final int index = find(s, false);
+    return index < 0 ? null : myPrefixes[index];
+  }
+
+  boolean hasPrefix(String s) {
+    return find(s, true) >= 0;
+  }
+
+  private int find(String s, boolean any) {
+    Node node = myRoot;
+    int result = node.myIndex;
+    for (int i = 0; i < s.length(); i++) {
+      if (any && result >= 0) break;
+      node = node.get(s.charAt(i));
+      if (node == null) break;
+      if (node.myIndex >= 0 && (result < 0 || node.myIndex < result)) {
+        result = node.myIndex;
+      }
+    }
+    return result;
+  }
+
+  private void add(String prefix, int index) {
+    Node node = myRoot;
+    for (int i = 0; i < prefix.length(); i++) {
+      node = node.getOrCreate(prefix.charAt(i));
+    }
+    if (node.myIndex < 0) {
+      node.myIndex = index;
+    }
+  }
+
+  /**
+   * Roots usually share long prefixes, so nodes have few children and they are searched linearly.
+   */
+  private static class Node {
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private char[] myChars = NO_CHARS;
+    private Node[] myChildren = NO_NODES;
+    private int myIndex = -1;
+
+    Node get(char c) {
+      for (int i = 0; i < myChars.length; i++) {
+        if (myChars[i] == c) return myChildren[i];
+      }
+      return null;
+    }
+
+    Node getOrCreate(char c) {
+      Node child = get(c);
+      if (child != null) return child;
+      child = new Node();
+      final int length = myChars.length;
+      final char[] chars = new char[length + 1];
+      final Node[] children = new Node[length + 1];
+      System.arraycopy(myChars, 0, chars, 0, length);
+      System.arraycopy(myChildren, 0, children, 0, length);
+      chars[length] = c;
+      children[length] = child;
+      myChars = chars;
+      myChildren = children;
+      return child;
+    }
+  }
+}
@@ -30,25 +30,37 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
   public static final String BUFFER_SIZE = "org.jetbrains.instrumentation.trace.file.buffer.size";
   @SuppressWarnings("WeakerAccess")
   public static final String FILE_VERSION = "org.jetbrains.instrumentation.trace.file.version";
+  /**
+   * Uncompressed size of a block in the compressed format, see {@link TestDiscoveryProtocolDataListener#COMPRESSED_BLOCKS_VERSION}.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final String BLOCK_SIZE = "org.jetbrains.instrumentation.trace.file.block.size";
+  /**
+   * Milliseconds after which a partial block is written at the end of a message in the compressed format,
+   * this limits the data lost when the process is killed before {@link #testsFinished()}.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final String FLUSH_INTERVAL = "org.jetbrains.instrumentation.trace.file.flush.interval";
 
   public static final byte HEADER_START = 0x49; // "I"
   public static final byte[] HEADER_TAIL = new byte[]{0x4a, 0x54, 0x43}; // "JTC"
 
   private static final int DEFAULT_VERSION = 0x3;
+  private static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+  private static final long DEFAULT_FLUSH_INTERVAL = 1000;
 
   private final DataOutputStream myStream;
+  /**
+   * Not null in the compressed format.
+   */
+  private final CompressedBlockOutputStream myBlocks;
   private final NameEnumerator.Incremental myNameEnumerator;
 
 
   public SingleTrFileDiscoveryProtocolDataListener() throws Exception {
-    super(Byte.parseByte(System.getProperty(FILE_VERSION, String.valueOf(DEFAULT_VERSION))));
-    final File myTraceFile = getCanonicalFile(new File(System.getProperty(TRACE_FILE, "td.ijtc")));
-    int bufferSize = Integer.parseInt(System.getProperty(BUFFER_SIZE, "32768"));
-    //noinspection ResultOfMethodCallIgnored
-    myTraceFile.getParentFile().mkdirs();
-    myStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myTraceFile), bufferSize));
-    myNameEnumerator = new NameEnumerator.Incremental();
-    start(this.myStream);
+    this(openTraceFile(), Byte.parseByte(System.getProperty(FILE_VERSION, String.valueOf(DEFAULT_VERSION))),
+        Integer.parseInt(System.getProperty(BLOCK_SIZE, String.valueOf(DEFAULT_BLOCK_SIZE))),
+        Long.parseLong(System.getProperty(FLUSH_INTERVAL, String.valueOf(DEFAULT_FLUSH_INTERVAL))));
 
     Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
       public void run() {
@@ -59,10 +71,33 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
 
   // For tests
   SingleTrFileDiscoveryProtocolDataListener(DataOutputStream stream, int version) throws Exception {
+    this(stream, version, DEFAULT_BLOCK_SIZE);
+  }
+
+  SingleTrFileDiscoveryProtocolDataListener(DataOutputStream stream, int version, int blockSize) throws Exception {
+    this(stream, version, blockSize, DEFAULT_FLUSH_INTERVAL);
+  }
+
+  SingleTrFileDiscoveryProtocolDataListener(DataOutputStream stream, int version, int blockSize, long flushIntervalMs) throws Exception {
     super((byte) version);
-    myStream = stream;
     myNameEnumerator = new NameEnumerator.Incremental();
-    start(myStream);
+    // header is not compressed
+    start(stream);
+    if (myVersion >= COMPRESSED_BLOCKS_VERSION) {
+      myBlocks = new CompressedBlockOutputStream(stream, blockSize, flushIntervalMs);
+      myStream = new DataOutputStream(myBlocks);
+    } else {
+      myBlocks = null;
+      myStream = stream;
+    }
+  }
+
+  private static DataOutputStream openTraceFile() throws IOException {
+    final File traceFile = getCanonicalFile(new File(System.getProperty(TRACE_FILE, "td.ijtc")));
+    int bufferSize = Integer.parseInt(System.getProperty(BUFFER_SIZE, "32768"));
+    //noinspection ResultOfMethodCallIgnored
+    traceFile.getParentFile().mkdirs();
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), bufferSize));
   }
 
   private static Long ourSendTime = 0L;
@@ -71,6 +106,7 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
     long s = System.nanoTime();
     try {
       writeTestFinished(myStream, className, methodName, classToVisitedMethods, classToMethodNames, openedFiles);
+      endMessage();
     } finally {
       Long diff = ourSendTime += System.nanoTime() - s;
     }
@@ -94,10 +130,18 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
 
   public synchronized void addMetadata(Map<String, String> metadata) throws IOException {
     writeMetadata(myStream, metadata);
+    endMessage();
   }
 
   public void addClassMetadata(List<ClassMetadata> metadata) throws IOException {
     writeClassMetadata(myStream, metadata);
+    endMessage();
+  }
+
+  private void endMessage() throws IOException {
+    if (myBlocks != null) {
+      myBlocks.endMessage();
+    }
   }
 
   protected synchronized void start(DataOutput output) throws IOException {
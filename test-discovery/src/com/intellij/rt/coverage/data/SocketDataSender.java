@@ -0,0 +1,203 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends data to the socket in a background thread.
+ * Records are serialized by the caller into pooled buffers, which are written to the channel in batches
+ * with gathering writes. When the queue of unsent records is full, the caller waits for the sender.
+ * Records are dropped when the sender has failed or stopped, when the caller is interrupted while waiting,
+ * and after {@link #close()}.
+ * <p>
+ * {@link #getStream()} and {@link #send()} must be synchronized by the caller.
+ */
+class SocketDataSender implements Runnable {
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+  private static final int MAX_BATCH_SIZE = 64;
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+  private static final long PUT_TIMEOUT_MS = 100;
+
+  private final SocketChannel myChannel;
+  private final BlockingQueue<ByteBuffer> myQueue;
+  private final Queue<ByteBuffer> myPool = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final BufferOutputStream myOutput = new BufferOutputStream();
+  private final DataOutputStream myStream = new DataOutputStream(myOutput);
+  private final Thread myThread;
+  private volatile IOException myError;
+  private volatile boolean myClosed;
+
+  /**
+   * @param queueSize maximal number of records waiting to be sent
+   */
+  SocketDataSender(SocketChannel channel, int queueSize) {
+    myChannel = channel;
+    myQueue = new ArrayBlockingQueue<ByteBuffer>(queueSize);
+    myOutput.myBuffer = allocate();
+    myThread = new Thread(this, "Test discovery data sender");
+    myThread.setDaemon(true);
+    myThread.start();
+  }
+
+  /**
+   * @return stream for the current record
+   */
+  DataOutputStream getStream() {
+    return myStream;
+  }
+
+  /**
+   * Schedules the current record for sending and starts a new one.
+   */
+  void send() {
+    final ByteBuffer buffer = myOutput.myBuffer;
+    if (buffer.position() == 0) return;
+    if (myClosed || myError != null) {
+      // the receiver is not available, the data is dropped
+      buffer.clear();
+      return;
+    }
+    buffer.flip();
+    if (put(buffer)) {
+      myOutput.myBuffer = allocate();
+    } else {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Sends the current record and waits until all the data is sent.
+   * The data written after closing is dropped.
+   */
+  void close() throws IOException {
+    if (myClosed) return;
+    send();
+    myClosed = true;
+    try {
+      if (put(END)) {
+        myThread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      myChannel.close();
+    }
+    if (myError != null) throw myError;
+  }
+
+  public void run() {
+    final List<ByteBuffer> batch = new ArrayList<ByteBuffer>(MAX_BATCH_SIZE);
+    while (true) {
+      try {
+        batch.add(myQueue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      myQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+      // nothing is sent after the end marker
+      final boolean end = batch.get(batch.size() - 1) == END;
+      if (end) batch.remove(batch.size() - 1);
+      write(batch);
+      for (ByteBuffer buffer : batch) {
+        release(buffer);
+      }
+      batch.clear();
+      if (end) return;
+    }
+  }
+
+  private void write(List<ByteBuffer> batch) {
+    if (myError != null || batch.isEmpty()) return;
+    final ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+    final ByteBuffer last = buffers[buffers.length - 1];
+    try {
+      while (last.hasRemaining()) {
+        myChannel.write(buffers);
+      }
+    } catch (IOException e) {
+      myError = e;
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Waits for a free place in the queue while the sender is alive.
+   *
+   * @return false if the buffer is not queued and should be dropped
+   */
+  private boolean put(ByteBuffer buffer) {
+    if (myQueue.offer(buffer)) return true;
+    try {
+      while (myThread.isAlive()) {
+        if (myQueue.offer(buffer, PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  private ByteBuffer allocate() {
+    final ByteBuffer buffer = myPool.poll();
+    return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  private void release(ByteBuffer buffer) {
+    if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) return;
+    buffer.clear();
+    myPool.offer(buffer);
+  }
+
+  private class BufferOutputStream extends OutputStream {
+    private ByteBuffer myBuffer;
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(1);
+      myBuffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(len);
+      myBuffer.put(b, off, len);
+    }
+
+    private void ensureCapacity(int length) {
+      if (myBuffer.remaining() >= length) return;
+      final int capacity = Math.max(myBuffer.capacity() * 2, myBuffer.position() + length);
+      final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+      myBuffer.flip();
+      buffer.put(myBuffer);
+      release(myBuffer);
+      myBuffer = buffer;
+    }
+  }
+}
@@ -16,18 +16,20 @@
 
 package com.intellij.rt.coverage.data;
 
-import org.jetbrains.coverage.gnu.trove.TIntArrayList;
-
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
+/**
+ * Sends test discovery data to the socket.
+ * Data is serialized in the test thread and sent in the background by {@link SocketDataSender},
+ * so that a slow receiver does not stall the tests until {@link #QUEUE_SIZE_PROP} records are waiting to be sent.
+ * <p>
+ * Socket data is not written in compressed blocks, so the highest supported version is {@link #MAX_VERSION}.
+ * A higher requested version is reported to stderr and replaced with {@link #MAX_VERSION}.
+ */
 @SuppressWarnings("unused")
 public class SocketTestDiscoveryProtocolDataListener extends TestDiscoveryProtocolDataListener {
   private static final int SOCKET_BUFFER_SIZE = 128 * 1024;
@@ -37,69 +39,81 @@ public class SocketTestDiscoveryProtocolDataListener extends TestDiscoveryProtoc
   public static final String PORT_PROP = "test.discovery.data.port";
   @SuppressWarnings("WeakerAccess")
   public static final String DATA_VERSION = "test.discovery.data.version";
+  /**
+   * Maximal number of records waiting to be sent, the test thread waits when the queue is full.
+   */
+  @SuppressWarnings("WeakerAccess")
+  public static final String QUEUE_SIZE_PROP = "test.discovery.data.queue.size";
 
   private static final byte DEFAULT_VERSION = 1;
+  /**
+   * Compressed blocks and the formats that depend on them are supported in trace files only.
+   */
+  static final byte MAX_VERSION = COMPRESSED_BLOCKS_VERSION - 1;
+  private static final int DEFAULT_QUEUE_SIZE = 256;
 
-  private final Socket mySocket;
-  private final BlockingQueue<ByteBuffer> myData = new ArrayBlockingQueue<ByteBuffer>(10);
   private final NameEnumerator.Incremental incrementalNameEnumerator = new NameEnumerator.Incremental();
-  private final DataOutputStream dos;
-  private final OutputStream os;
+  private final SocketDataSender mySender;
 
   public SocketTestDiscoveryProtocolDataListener() throws IOException {
-    super(Byte.parseByte(System.getProperty(DATA_VERSION, String.valueOf(DEFAULT_VERSION))));
-    String host = System.getProperty(HOST_PROP, "127.0.0.1");
-    int port = Integer.parseInt(System.getProperty(PORT_PROP));
-    mySocket = new Socket(host, port);
-    mySocket.setSendBufferSize(SOCKET_BUFFER_SIZE);
-    mySocket.setTcpNoDelay(true);
-    os = mySocket.getOutputStream();
-    dos = new DataOutputStream(os);
-    start(dos);
+    this(System.getProperty(HOST_PROP, "127.0.0.1"),
+        Integer.parseInt(System.getProperty(PORT_PROP)),
+        Byte.parseByte(System.getProperty(DATA_VERSION, String.valueOf(DEFAULT_VERSION))),
+        Integer.parseInt(System.getProperty(QUEUE_SIZE_PROP, String.valueOf(DEFAULT_QUEUE_SIZE))));
   }
 
-  public void testFinished(String className, String methodName, Map<Integer, boolean[]> classToVisitedMethods, Map<Integer, int[]> classToMethodNames, List<int[]> openedFiles) {
+  // For tests
+  SocketTestDiscoveryProtocolDataListener(String host, int port, byte version, int queueSize) throws IOException {
+    super(checkVersion(version));
+    final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+    channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+    channel.socket().setTcpNoDelay(true);
+    mySender = new SocketDataSender(channel, queueSize);
+    start(mySender.getStream());
+    mySender.send();
+  }
+
+  private static byte checkVersion(byte version) {
+    if (version <= MAX_VERSION) return version;
+    System.err.println("Test discovery data version " + version + " is not supported for the socket, version "
+        + MAX_VERSION + " is used instead");
+    return MAX_VERSION;
+  }
+
+  public synchronized void testFinished(String className, String methodName, Map<Integer, boolean[]> classToVisitedMethods, Map<Integer, int[]> classToMethodNames, List<int[]> openedFiles) {
     try {
-      writeTestFinished(dos, className, methodName, classToVisitedMethods, classToMethodNames, openedFiles);
+      writeTestFinished(mySender.getStream(), className, methodName, classToVisitedMethods, classToMethodNames, openedFiles);
+      mySender.send();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
-  public void testsFinished() {
+  public synchronized void testsFinished() {
     try {
-      finish(dos);
+      finish(mySender.getStream());
     } catch (IOException e) {
       e.printStackTrace();
     } finally {
       try {
-        dos.close();
-        os.close();
-        mySocket.close();
+        mySender.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
   }
 
-  public void addMetadata(Map<String, String> metadata) throws IOException {
-    writeMetadata(dos, metadata);
+  public synchronized void addMetadata(Map<String, String> metadata) throws IOException {
+    writeMetadata(mySender.getStream(), metadata);
+    mySender.send();
   }
 
-  public void addClassMetadata(List<ClassMetadata> metadata) throws IOException {
-    writeClassMetadata(dos, metadata);
+  public synchronized void addClassMetadata(List<ClassMetadata> metadata) throws IOException {
+    writeClassMetadata(mySender.getStream(), metadata);
+    mySender.send();
   }
 
   public NameEnumerator.Incremental getNameEnumerator() {
     return incrementalNameEnumerator;
   }
-
-  private static class VisitedMethods {
-    private final int classId;
-    private final TIntArrayList methodIds = new TIntArrayList(1);
-
-    private VisitedMethods(int classId) {
-      this.classId = classId;
-    }
-  }
 }
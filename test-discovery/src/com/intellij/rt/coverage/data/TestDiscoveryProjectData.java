@@ -22,6 +22,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
 import static com.intellij.rt.coverage.util.CoverageIOUtil.GIGA;
@@ -71,6 +72,17 @@ public class TestDiscoveryProjectData {
 
   private final ConcurrentMap<Integer, boolean[]> myClassToVisitedMethods = new ConcurrentHashMap<Integer, boolean[]>();
   private final ConcurrentMap<Integer, int[]> myClassToMethodNames = new ConcurrentHashMap<Integer, int[]>();
+  /**
+   * Maps registered visited methods arrays to their class ids, guarded by this instance.
+   * Used to resolve the classes of touched arrays when a test ends.
+   */
+  private final Map<boolean[], Integer> myVisitedMethodsToClass = new IdentityHashMap<boolean[], Integer>();
+  /**
+   * Visited methods arrays of the classes which methods have been visited since the last cleanup.
+   * An array is added without a lock on each first visit of its method, so it may be added several times.
+   * Only these classes are cleaned up and reported after a test.
+   */
+  private final Queue<boolean[]> myTouchedClasses = new ConcurrentLinkedQueue<boolean[]>();
   final ConcurrentMap<Integer, ClassMetadata> classesToMetadata = new ConcurrentHashMap<Integer, ClassMetadata>();
   private final TestDiscoveryDataListener myDataListener;
 
@@ -84,6 +96,11 @@ public class TestDiscoveryProjectData {
     }
   }
 
+  // called from instrumented code on the first visit of a method since the last cleanup
+  public static void touch(boolean[] methodFlags) {
+    ourProjectData.touchClass(methodFlags);
+  }
+
   private static Long ourTraceTime = 0L;
   private static Long ourCleanupTime = 0L;
 
@@ -101,16 +118,23 @@ public class TestDiscoveryProjectData {
       //override previous data so different loaded classes would work with different arrays 
       //the last loaded class wins but at least no ArrayIndexOutOfBound would be possible due to different class versions
       myClassToVisitedMethods.put(classId, methodFlags);
+      myVisitedMethodsToClass.remove(previousMethodFlags);
     }
+    myVisitedMethodsToClass.put(methodFlags, classId);
 
     myClassToMethodNames.put(classId, NameEnumerator.enumerate(methodNames, myNameEnumerator));
     return methodFlags;
   }
 
+  private void touchClass(boolean[] methodFlags) {
+    myTouchedClasses.add(methodFlags);
+  }
+
   public synchronized void testDiscoveryEnded(final String className, final String methodName) {
     try {
-      myDataListener.testFinished(className, methodName, myClassToVisitedMethods, myClassToMethodNames, enumerateFiles(myOpenFilesPerTest));
-      for (Map.Entry<Integer, boolean[]> e : myClassToVisitedMethods.entrySet()) {
+      final Map<Integer, boolean[]> touchedClasses = getTouchedClasses();
+      myDataListener.testFinished(className, methodName, touchedClasses, myClassToMethodNames, enumerateFiles(myOpenFilesPerTest.getPaths()));
+      for (Map.Entry<Integer, boolean[]> e : touchedClasses.entrySet()) {
         for (boolean isUsed : e.getValue()) {
           if (isUsed) {
             ClassMetadata cm = classesToMetadata.remove(e.getKey());
@@ -126,6 +150,19 @@ public class TestDiscoveryProjectData {
     }
   }
 
+  private Map<Integer, boolean[]> getTouchedClasses() {
+    final Map<Integer, boolean[]> result = new LinkedHashMap<Integer, boolean[]>();
+    for (boolean[] methodFlags : myTouchedClasses) {
+      final Integer classId = myVisitedMethodsToClass.get(methodFlags);
+      if (classId == null || result.containsKey(classId)) continue;
+      final boolean[] used = myClassToVisitedMethods.get(classId);
+      if (used != null) {
+        result.put(classId, used);
+      }
+    }
+    return result;
+  }
+
   private List<int[]> enumerateFiles(Collection<String> openedFiles) {
     List<int[]> files = new ArrayList<int[]>(openedFiles.size());
     for (String file : openedFiles) {
@@ -153,14 +190,17 @@ public class TestDiscoveryProjectData {
   }
 
   private void cleanup() {
-    for (Object e : myClassToVisitedMethods.entrySet()) {
-      boolean[] used = (boolean[]) ((Map.Entry) e).getValue();
+    // arrays touched concurrently with the cleanup stay in the queue until the next one
+    final Set<boolean[]> cleaned = Collections.newSetFromMap(new IdentityHashMap<boolean[], Boolean>());
+    boolean[] used;
+    while ((used = myTouchedClasses.poll()) != null) {
+      if (!cleaned.add(used)) continue;
       for (int i = 0, len = used.length; i < len; ++i) {
         if (used[i]) used[i] = false;
       }
     }
 
-    myOpenFilesPerTest.clear();
+    myOpenFilesPerTest = new OpenedFiles();
   }
 
   private volatile boolean myFinished;
@@ -196,8 +236,14 @@ public class TestDiscoveryProjectData {
     return myClassToVisitedMethods;
   }
 
-  private static final Map<Object, File> myOpenFilesMap = new WeakHashMap<Object, File>();
-  private static final Collection<String> myOpenFilesPerTest = new LinkedHashSet<String>();
+  /**
+   * Files opened and not closed yet, used to report leaked files.
+   */
+  private static final WeakIdentityMap<Object, File> myOpenFilesMap = new WeakIdentityMap<Object, File>();
+  /**
+   * Files opened during the current test, replaced on cleanup.
+   */
+  private static volatile OpenedFiles myOpenFilesPerTest = new OpenedFiles();
 
   public static final String AFFECTED_ROOTS = "test.discovery.affected.roots";
   @SuppressWarnings("WeakerAccess")
@@ -205,8 +251,14 @@ public class TestDiscoveryProjectData {
   @SuppressWarnings("WeakerAccess")
   public static final String TRACK_FILES = "test.discovery.track.files";
 
-  private static final String[] myAffectedRoots = split(AFFECTED_ROOTS);
-  private static final String[] myExcludedRoots = split(EXCLUDED_ROOTS);
+  private static final PrefixTrie myAffectedRoots = new PrefixTrie(split(AFFECTED_ROOTS));
+  private static final PrefixTrie myExcludedRoots = new PrefixTrie(split(EXCLUDED_ROOTS));
+
+  /**
+   * Canonical paths by absolute paths. Files are usually opened many times,
+   * so the file system is queried once per recently used path.
+   */
+  private static final GenerationalCache<String, String> ourCanonicalPaths = new GenerationalCache<String, String>(10000);
 
   private static String[] split(String key) {
     String affected = System.getProperty(key);
@@ -214,38 +266,29 @@ public class TestDiscoveryProjectData {
   }
 
   private static String stripRoot(String path) {
-    for (String prefix : myAffectedRoots) {
-      if (path.startsWith(prefix)) {
-        return path.substring(prefix.length());
-      }
-    }
-    return null;
+    final String prefix = myAffectedRoots.findFirstPrefix(path);
+    return prefix == null ? null : path.substring(prefix.length());
   }
 
   private static boolean excluded(String path) {
-    for (String prefix : myExcludedRoots) {
-      if (path.startsWith(prefix)) return true;
-    }
-    return false;
+    return myExcludedRoots.hasPrefix(path);
   }
 
   private static String toSystemIndependentName(String fileName) {
     return fileName.replace('\\', '/');
   }
 
-  public static synchronized void openPath(Object path) {
+  public static void openPath(Object path) {
+    final Method toFile = PathToFile.METHOD;
+    if (toFile == null) return;
     try {
-      Class<?> pathClass = Class.forName("java.nio.file.Path");
-      File file = (File) pathClass.getDeclaredMethod("toFile").invoke(path);
-      openFile(path, file);
+      openFile(path, (File) toFile.invoke(path));
     } catch (IllegalAccessException ignored) {
     } catch (InvocationTargetException ignored) {
-    } catch (NoSuchMethodException ignored) {
-    } catch (ClassNotFoundException ignored) {
     }
   }
 
-  public static synchronized void openFile(Object o, File file) {
+  public static void openFile(Object o, File file) {
     if (file == null) return;
 
     String absolutePath = getPath(file);
@@ -259,23 +302,65 @@ public class TestDiscoveryProjectData {
   }
 
   private static String getPath(File file) {
+    final String absolutePath = file.getAbsolutePath();
+    String path = ourCanonicalPaths.get(absolutePath);
+    if (path != null) return path;
     try {
-      return file.getCanonicalPath();
+      path = file.getCanonicalPath();
     } catch (IOException e) {
-      return file.getAbsolutePath();
+      return absolutePath;
     }
+    ourCanonicalPaths.put(absolutePath, path);
+    return path;
   }
 
-  public static synchronized void closeFile(Object o) {
+  public static void closeFile(Object o) {
     myOpenFilesMap.remove(o);
   }
 
+  /**
+   * Resolves <code>java.nio.file.Path#toFile</code> once, it is <code>null</code> before Java 7.
+   */
+  private static class PathToFile {
+    private static final Method METHOD = findMethod();
+
+    private static Method findMethod() {
+      try {
+        return Class.forName("java.nio.file.Path").getDeclaredMethod("toFile");
+      } catch (ClassNotFoundException e) {
+        return null;
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Paths in the order of opening, without duplicates. Paths may be added concurrently.
+   */
+  private static class OpenedFiles {
+    private final ConcurrentMap<String, Boolean> myPathsSet = new ConcurrentHashMap<String, Boolean>();
+    private final Queue<String> myPaths = new ConcurrentLinkedQueue<String>();
+
+    void add(String path) {
+      if (myPathsSet.containsKey(path)) return;
+      if (myPathsSet.putIfAbsent(path, Boolean.TRUE) == null) {
+        myPaths.add(path);
+      }
+    }
+
+    List<String> getPaths() {
+      return new ArrayList<String>(myPaths);
+    }
+  }
+
   private static synchronized void logTestInfo() {
     System.out.println("Trace time: " + 1. * ourTraceTime / GIGA);
     System.out.println("Cleanup time: " + 1. * ourCleanupTime / GIGA);
 
-    System.out.println("Leaked files: " + myOpenFilesMap.size());
-    for (File value : new ArrayList<File>(myOpenFilesMap.values())) {
+    final List<File> leakedFiles = myOpenFilesMap.values();
+    System.out.println("Leaked files: " + leakedFiles.size());
+    for (File value : leakedFiles) {
       System.out.println(value.getPath());
     }
   }
@@ -19,10 +19,12 @@ package com.intellij.rt.coverage.data;
 import com.intellij.rt.coverage.util.CoverageIOUtil;
 import org.jetbrains.coverage.gnu.trove.TIntIntHashMap;
 import org.jetbrains.coverage.gnu.trove.TIntIntIterator;
+import org.jetbrains.coverage.gnu.trove.TIntObjectHashMap;
 
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +41,18 @@ public abstract class TestDiscoveryProtocolDataListener implements TestDiscovery
   public static final int METADATA_MARKER = 0x05;
   public static final int CLASS_METADATA_MARKER = 0x06;
 
+  /**
+   * Since this version all the data after the start marker is written in compressed blocks
+   * with checksums, see {@link CompressedBlockOutputStream}.
+   */
+  public static final int COMPRESSED_BLOCKS_VERSION = 4;
+
+  /**
+   * Since this version the class ids of a test and the method ids of a class are written in ascending order
+   * as differences with the previous id, which are usually written in a single byte.
+   */
+  public static final int SORTED_IDS_VERSION = 5;
+
   protected final byte myVersion;
 
   public TestDiscoveryProtocolDataListener(byte version) {
@@ -82,7 +96,7 @@ public abstract class TestDiscoveryProtocolDataListener implements TestDiscovery
 
   protected void finish(DataOutput output) throws IOException {
     output.writeByte(FINISH_MARKER);
-    // TODO: Write CRC or at least total length?
+    // compressed blocks are checked since COMPRESSED_BLOCKS_VERSION, uncompressed data has no checksum
   }
 
   public abstract NameEnumerator.Incremental getNameEnumerator();
@@ -105,6 +119,10 @@ public abstract class TestDiscoveryProtocolDataListener implements TestDiscovery
   protected void writeVisitedMethod(Map<Integer, boolean[]> classToVisitedMethods,
                                     Map<Integer, int[]> classToMethodNames,
                                     DataOutput os) throws IOException {
+    if (myVersion >= SORTED_IDS_VERSION) {
+      writeSortedVisitedMethods(classToVisitedMethods, classToMethodNames, os);
+      return;
+    }
     TIntIntHashMap classToUsedMethods = new TIntIntHashMap();
     for (Map.Entry<Integer, boolean[]> o : classToVisitedMethods.entrySet()) {
       boolean[] used = o.getValue();
@@ -143,6 +161,68 @@ public abstract class TestDiscoveryProtocolDataListener implements TestDiscovery
     }
   }
 
+  /**
+   * Writes visited methods with ids in ascending order, so that small differences between ids are written instead of ids.
+   * Format:
+   * <ul>
+   * <li>Class.Count (N) - number</li>
+   * <li>Class[1] - number, difference with 0</li>
+   * <li>Class[1].Methods.Count (M) - number</li>
+   * <li>Class[1].Method[1] - number, difference with 0</li>
+   * <li>Class[1].Method[2] - number, difference with Class[1].Method[1]</li>
+   * <li>...</li>
+   * <li>Class[1].Method[M] - number, difference with Class[1].Method[M-1]</li>
+   * <li>Class[2] - number, difference with Class[1]</li>
+   * <li>...</li>
+   * </ul>
+   */
+  private static void writeSortedVisitedMethods(Map<Integer, boolean[]> classToVisitedMethods,
+                                                Map<Integer, int[]> classToMethodNames,
+                                                DataOutput os) throws IOException {
+    final TIntObjectHashMap<int[]> classToUsedMethods = new TIntObjectHashMap<int[]>();
+    for (Map.Entry<Integer, boolean[]> o : classToVisitedMethods.entrySet()) {
+      final int[] methods = collectVisitedMethods(o.getValue(), classToMethodNames.get(o.getKey()));
+      if (methods.length > 0) {
+        classToUsedMethods.put(o.getKey(), methods);
+      }
+    }
+    final int[] classes = classToUsedMethods.keys();
+    Arrays.sort(classes);
+
+    CoverageIOUtil.writeINT(os, classes.length);
+    int previousClass = 0;
+    for (int classId : classes) {
+      CoverageIOUtil.writeINT(os, classId - previousClass);
+      previousClass = classId;
+      final int[] methods = classToUsedMethods.get(classId);
+      CoverageIOUtil.writeINT(os, methods.length);
+      int previousMethod = 0;
+      for (int method : methods) {
+        CoverageIOUtil.writeINT(os, method - previousMethod);
+        previousMethod = method;
+      }
+    }
+  }
+
+  /**
+   * @return sorted ids of the visited methods
+   */
+  private static int[] collectVisitedMethods(boolean[] used, int[] methodNames) {
+    // used can still be updated by other threads, so visited methods are collected once
+    int[] methods = new int[used.length];
+    int count = 0;
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) methods[count++] = methodNames[i];
+    }
+    if (count < methods.length) {
+      final int[] result = new int[count];
+      System.arraycopy(methods, 0, result, 0, count);
+      methods = result;
+    }
+    Arrays.sort(methods);
+    return methods;
+  }
+
   /**
    * Writes file metadata map as list of key-value pairs.
    * Format:
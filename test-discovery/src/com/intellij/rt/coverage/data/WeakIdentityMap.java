@@ -0,0 +1,91 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map with weakly referenced keys, which are compared by identity.
+ * Entries of collected keys are removed on the next access.
+ */
+class WeakIdentityMap<K, V> {
+  private final ConcurrentMap<WeakKey<K>, V> myMap = new ConcurrentHashMap<WeakKey<K>, V>();
+  private final ReferenceQueue<K> myQueue = new ReferenceQueue<K>();
+
+  void put(K key, V value) {
+    expungeStaleEntries();
+    myMap.put(new WeakKey<K>(key, myQueue), value);
+  }
+
+  V get(K key) {
+    return myMap.get(new WeakKey<K>(key, null));
+  }
+
+  V remove(K key) {
+    expungeStaleEntries();
+    return myMap.remove(new WeakKey<K>(key, null));
+  }
+
+  int size() {
+    expungeStaleEntries();
+    return myMap.size();
+  }
+
+  List<V> values() {
+    expungeStaleEntries();
+    return new ArrayList<V>(myMap.values());
+  }
+
+  @SuppressWarnings("SuspiciousMethodCalls")
+  private void expungeStaleEntries() {
+    Object key;
+    while ((key = myQueue.poll()) != null) {
+      myMap.remove(key);
+    }
+  }
+
+  /**
+   * Keeps the identity hash code of the referent, so that a cleared key can still be removed.
+   */
+  private static class WeakKey<K> extends WeakReference<K> {
+    private final int myHash;
+
+    WeakKey(K key, ReferenceQueue<K> queue) {
+      super(key, queue);
+      myHash = System.identityHashCode(key);
+    }
+
+    @Override
+    public int hashCode() {
+      return myHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof WeakKey)) return false;
+      final Object key = get();
+      return key != null && key == ((WeakKey<?>) o).get();
+    }
+  }
+}
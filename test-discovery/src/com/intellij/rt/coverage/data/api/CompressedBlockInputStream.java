@@ -0,0 +1,167 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data.api;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads blocks written by <code>CompressedBlockOutputStream</code>.
+ * The stream ends at the first truncated or corrupted block.
+ */
+class CompressedBlockInputStream extends InputStream {
+  private final DataInputStream myInput;
+  private final TestDiscoveryProtocolReader myReader;
+  private final Inflater myInflater = new Inflater(true);
+  private final CRC32 myCrc = new CRC32();
+  private byte[] myBlock = new byte[0];
+  private int mySize;
+  private int myPosition;
+  private boolean myEnded;
+
+  CompressedBlockInputStream(DataInputStream input, TestDiscoveryProtocolReader reader) {
+    myInput = input;
+    myReader = reader;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (myPosition == mySize) {
+      if (!nextBlock()) return -1;
+    }
+    return myBlock[myPosition++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    while (myPosition == mySize) {
+      if (!nextBlock()) return -1;
+    }
+    final int count = Math.min(len, mySize - myPosition);
+    System.arraycopy(myBlock, myPosition, b, off, count);
+    myPosition += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return mySize - myPosition;
+  }
+
+  @Override
+  public void close() throws IOException {
+    myInflater.end();
+    myInput.close();
+  }
+
+  private boolean nextBlock() throws IOException {
+    myPosition = 0;
+    mySize = 0;
+    final Block block = readBlock();
+    if (block == null) return false;
+    try {
+      myBlock = block.decompress(myInflater, myCrc, myBlock);
+    } catch (IOException e) {
+      end(e.getMessage());
+      return false;
+    }
+    mySize = block.mySize;
+    return true;
+  }
+
+  /**
+   * @return the next compressed block or <code>null</code> if the stream is ended
+   */
+  Block readBlock() throws IOException {
+    if (myEnded) return null;
+    final Block block = new Block();
+    try {
+      final int first = myInput.read();
+      if (first == -1) {
+        end(null);
+        return null;
+      }
+      block.myCompressedSize = (first << 24) | (myInput.readUnsignedByte() << 16) | myInput.readUnsignedShort();
+      block.mySize = myInput.readInt();
+      block.myCrc = myInput.readInt();
+      if (block.myCompressedSize < 0 || block.mySize < 0) {
+        end("Corrupted block header");
+        return null;
+      }
+      block.myCompressed = new byte[block.myCompressedSize];
+      myInput.readFully(block.myCompressed);
+    } catch (EOFException e) {
+      end("Truncated block");
+      return null;
+    }
+    return block;
+  }
+
+  void end(String error) {
+    myEnded = true;
+    if (error != null) {
+      myReader.error(error + ", the rest of the data is skipped");
+    }
+  }
+
+  static class Block {
+    private byte[] myCompressed;
+    private int myCompressedSize;
+    private int mySize;
+    private int myCrc;
+
+    int getSize() {
+      return mySize;
+    }
+
+    /**
+     * @param buffer array to decompress into if it is large enough
+     * @return array containing the decompressed data at the beginning
+     * @throws IOException if the block is corrupted
+     */
+    byte[] decompress(Inflater inflater, CRC32 crc, byte[] buffer) throws IOException {
+      final byte[] result = buffer != null && buffer.length >= mySize ? buffer : new byte[mySize];
+      inflater.reset();
+      inflater.setInput(myCompressed, 0, myCompressedSize);
+      int inflated = 0;
+      try {
+        while (inflated < mySize && !inflater.finished()) {
+          final int count = inflater.inflate(result, inflated, mySize - inflated);
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+          inflated += count;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupted block: " + e.getMessage());
+      }
+      if (inflated != mySize) {
+        throw new IOException("Corrupted block: " + inflated + " bytes inflated instead of " + mySize);
+      }
+      crc.reset();
+      crc.update(result, 0, mySize);
+      if ((int) crc.getValue() != myCrc) {
+        throw new IOException("Block checksum mismatch");
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data.api;
+
+import com.intellij.rt.coverage.data.TestDiscoveryProtocolDataListener;
+import org.jetbrains.coverage.gnu.trove.TIntArrayList;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * Reads compressed blocks in batches. The blocks of a batch are decompressed and read in parallel,
+ * while the test data of the previous batch is passed to the reader. Each message is read once and
+ * the reader calls are recorded, an unknown message type is reported as a corrupted block.
+ * <p>
+ * Dictionary parts, metadata and class metadata of a batch are passed to the reader in the file order
+ * from the calling thread, while no test data reader is active. After that the test data of the batch
+ * is passed to the test data readers concurrently.
+ */
+class ParallelBlockReader {
+  private static final int BATCH_SIZE = 64;
+  private static final int TESTS_PER_TASK = 16;
+
+  private final CompressedBlockInputStream myBlocks;
+  private final TestDiscoveryProtocolReader myReader;
+  private final int myVersion;
+  private final ExecutorService myExecutor;
+
+  ParallelBlockReader(CompressedBlockInputStream blocks, TestDiscoveryProtocolReader reader, int version, ExecutorService executor) {
+    myBlocks = blocks;
+    myReader = reader;
+    myVersion = version;
+    myExecutor = executor;
+  }
+
+  void read() throws IOException {
+    try {
+      List<Future<DecodedBlock>> next = decodeNextBatch();
+      while (!next.isEmpty()) {
+        final List<DecodedBlock> batch = waitAll(next);
+        final List<TestMessage> tests = new ArrayList<TestMessage>();
+        boolean finished = false;
+        String error = null;
+        for (DecodedBlock block : batch) {
+          if (block.myError != null) {
+            error = block.myError;
+            break;
+          }
+          finished = block.process(myReader, tests);
+          if (finished) break;
+        }
+        // decode the next batch while the tests are processed
+        next = finished || error != null ? new ArrayList<Future<DecodedBlock>>() : decodeNextBatch();
+        processTests(tests);
+        if (finished) {
+          myReader.testDiscoveryDataProcessingFinished();
+          myReader.debug("finish marker");
+          return;
+        }
+        if (error != null) {
+          myBlocks.end(error);
+        }
+      }
+      myReader.debug("stream ended before finish marker received");
+    } finally {
+      myBlocks.close();
+    }
+  }
+
+  private List<Future<DecodedBlock>> decodeNextBatch() throws IOException {
+    final List<Future<DecodedBlock>> result = new ArrayList<Future<DecodedBlock>>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      final CompressedBlockInputStream.Block block = myBlocks.readBlock();
+      if (block == null) break;
+      result.add(myExecutor.submit(new DecodedBlock(block, myVersion)));
+    }
+    return result;
+  }
+
+  private void processTests(final List<TestMessage> tests) throws IOException {
+    final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (int start = 0; start < tests.size(); start += TESTS_PER_TASK) {
+      final int from = start;
+      final int to = Math.min(tests.size(), start + TESTS_PER_TASK);
+      futures.add(myExecutor.submit(new Callable<Object>() {
+        public Object call() {
+          for (int i = from; i < to; i++) {
+            final TestMessage test = tests.get(i);
+            test.myBlock.myRecorder.replayTest(myReader, test.myStart);
+          }
+          return null;
+        }
+      }));
+    }
+    waitAll(futures);
+  }
+
+  private static <T> List<T> waitAll(List<Future<T>> futures) throws IOException {
+    final List<T> result = new ArrayList<T>(futures.size());
+    for (Future<T> future : futures) {
+      try {
+        result.add(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause instanceof IOException) throw (IOException) cause;
+        throw new IOException(cause);
+      }
+    }
+    return result;
+  }
+
+  private static class TestMessage {
+    private final DecodedBlock myBlock;
+    private final int myStart;
+
+    private TestMessage(DecodedBlock block, int start) {
+      myBlock = block;
+      myStart = start;
+    }
+  }
+
+  /**
+   * Decompresses a block and reads its messages once, recording the reader calls to replay them later.
+   */
+  private static class DecodedBlock implements Callable<DecodedBlock> {
+    private final CompressedBlockInputStream.Block myBlock;
+    private final int myVersion;
+    private final MessageRecorder myRecorder = new MessageRecorder();
+    private String myError;
+
+    private DecodedBlock(CompressedBlockInputStream.Block block, int version) {
+      myBlock = block;
+      myVersion = version;
+    }
+
+    public DecodedBlock call() {
+      final Inflater inflater = new Inflater(true);
+      try {
+        final byte[] data = myBlock.decompress(inflater, new CRC32(), null);
+        final DataInputStream input = new DataInputStream(new MessageInputStream(data, 0, myBlock.getSize()));
+        while (input.available() > 0) {
+          final byte msgType = input.readByte();
+          if (!myRecorder.record(msgType, input, myVersion)) {
+            if (msgType == TestDiscoveryProtocolDataListener.FINISH_MARKER) break;
+            myError = String.format("Unknown input: %2X", msgType);
+            break;
+          }
+        }
+      } catch (EOFException e) {
+        myError = "Corrupted block: truncated message";
+      } catch (IOException e) {
+        myError = e.getMessage();
+      } finally {
+        inflater.end();
+      }
+      return this;
+    }
+
+    /**
+     * Passes all the messages except the test data to the reader, test data is collected into <code>tests</code>.
+     *
+     * @return true if the finish marker is read
+     */
+    boolean process(TestDiscoveryProtocolReader reader, List<TestMessage> tests) {
+      return myRecorder.replay(reader, this, tests);
+    }
+  }
+
+  /**
+   * Records the reader calls of the messages of a block as operation codes with their arguments,
+   * strings and arrays are kept aside and referenced by index.
+   */
+  private static class MessageRecorder implements TestDiscoveryProtocolReader,
+      TestDiscoveryProtocolReader.MetadataReader,
+      TestDiscoveryProtocolReader.ClassMetadataReader,
+      TestDiscoveryProtocolReader.NameEnumeratorReader,
+      TestDiscoveryProtocolReader.TestDataReader {
+    private static final int FINISH = 0;
+    private static final int TEST = 1;
+    private static final int CLASS_STARTED = 2;
+    private static final int USED_METHOD = 3;
+    private static final int CLASS_FINISHED = 4;
+    private static final int AFFECTED_FILE = 5;
+    private static final int TEST_PROCESSED = 6;
+    private static final int DICTIONARY = 7;
+    private static final int NAME = 8;
+    private static final int METADATA = 9;
+    private static final int METADATA_ENTRY = 10;
+    private static final int CLASS_METADATA = 11;
+    private static final int METADATA_CLASS_STARTED = 12;
+    private static final int METADATA_FILE = 13;
+    private static final int METADATA_METHOD = 14;
+    private static final int METADATA_CLASS_FINISHED = 15;
+    private static final int METADATA_FINISHED = 16;
+
+    private final TIntArrayList myOps = new TIntArrayList();
+    private final List<Object> myObjects = new ArrayList<Object>();
+    /**
+     * Index of the first operation of each message.
+     */
+    private final TIntArrayList myMessages = new TIntArrayList();
+
+    /**
+     * @return false if the message is the finish marker or is unknown
+     */
+    boolean record(byte msgType, DataInputStream input, int version) throws IOException {
+      myMessages.add(myOps.size());
+      switch (msgType) {
+        case TestDiscoveryProtocolDataListener.TEST_FINISHED_MARKER:
+          TestDiscoveryProtocolUtil.readTestData(input, this, version);
+          return true;
+        case TestDiscoveryProtocolDataListener.NAMES_DICTIONARY_PART_MARKER:
+          TestDiscoveryProtocolUtil.readDictionary(input, this);
+          return true;
+        case TestDiscoveryProtocolDataListener.METADATA_MARKER:
+          TestDiscoveryProtocolUtil.readMetadata(input, this);
+          return true;
+        case TestDiscoveryProtocolDataListener.CLASS_METADATA_MARKER:
+          TestDiscoveryProtocolUtil.readClassMetadata(input, this);
+          return true;
+        case TestDiscoveryProtocolDataListener.FINISH_MARKER:
+          myOps.add(FINISH);
+          return false;
+        default:
+          myMessages.remove(myMessages.size() - 1);
+          return false;
+      }
+    }
+
+    boolean replay(TestDiscoveryProtocolReader reader, DecodedBlock block, List<TestMessage> tests) {
+      for (int i = 0; i < myMessages.size(); i++) {
+        final int start = myMessages.get(i);
+        final int end = i + 1 < myMessages.size() ? myMessages.get(i + 1) : myOps.size();
+        switch (myOps.get(start)) {
+          case FINISH:
+            return true;
+          case TEST:
+            reader.debug("test data received");
+            tests.add(new TestMessage(block, start));
+            break;
+          case DICTIONARY:
+            reader.debug("partial dictionary received");
+            replayDictionary(reader.createNameEnumeratorReader(), start + 1, end);
+            break;
+          case METADATA:
+            reader.debug("metadata received");
+            replayMetadata(reader.createMetadataReader(), start + 1, end);
+            break;
+          case CLASS_METADATA:
+            reader.debug("class metadata received");
+            replayClassMetadata(reader.createClassMetadataReader(), start + 1, end);
+            break;
+        }
+      }
+      return false;
+    }
+
+    void replayTest(TestDiscoveryProtocolReader reader, int start) {
+      final TestDataReader testDataReader = reader.createTestDataReader(myOps.get(start + 1), myOps.get(start + 2));
+      int i = start + 3;
+      while (true) {
+        switch (myOps.get(i++)) {
+          case CLASS_STARTED:
+            testDataReader.classProcessingStarted(myOps.get(i++));
+            break;
+          case USED_METHOD:
+            testDataReader.processUsedMethod(myOps.get(i++));
+            break;
+          case CLASS_FINISHED:
+            testDataReader.classProcessingFinished(myOps.get(i++));
+            break;
+          case AFFECTED_FILE:
+            testDataReader.processAffectedFile((int[]) myObjects.get(myOps.get(i++)));
+            break;
+          case TEST_PROCESSED:
+            testDataReader.testDataProcessed();
+            return;
+          default:
+            throw new IllegalStateException("Unexpected operation " + myOps.get(i - 1));
+        }
+      }
+    }
+
+    private void replayDictionary(NameEnumeratorReader nameReader, int start, int end) {
+      for (int i = start; i < end; i += 3) {
+        nameReader.enumerate((String) myObjects.get(myOps.get(i + 2)), myOps.get(i + 1));
+      }
+    }
+
+    private void replayMetadata(MetadataReader metadataReader, int start, int end) {
+      for (int i = start; i < end; i += 3) {
+        metadataReader.processMetadataEntry((String) myObjects.get(myOps.get(i + 1)), (String) myObjects.get(myOps.get(i + 2)));
+      }
+    }
+
+    private void replayClassMetadata(ClassMetadataReader metadataReader, int start, int end) {
+      int i = start;
+      while (i < end) {
+        final int op = myOps.get(i++);
+        if (op == METADATA_FINISHED) {
+          if (metadataReader != null) metadataReader.finished();
+          continue;
+        }
+        final int id = myOps.get(i++);
+        if (metadataReader == null) {
+          if (op == METADATA_METHOD) i++;
+          continue;
+        }
+        switch (op) {
+          case METADATA_CLASS_STARTED:
+            metadataReader.classStarted(id);
+            break;
+          case METADATA_FILE:
+            metadataReader.file(id);
+            break;
+          case METADATA_METHOD:
+            metadataReader.method(id, (byte[]) myObjects.get(myOps.get(i++)));
+            break;
+          case METADATA_CLASS_FINISHED:
+            metadataReader.classFinished(id);
+            break;
+          default:
+            throw new IllegalStateException("Unexpected operation " + op);
+        }
+      }
+    }
+
+    private int addObject(Object object) {
+      myObjects.add(object);
+      return myObjects.size() - 1;
+    }
+
+    public void testDiscoveryDataProcessingStarted(int version) {
+    }
+
+    public void testDiscoveryDataProcessingFinished() {
+    }
+
+    public MetadataReader createMetadataReader() {
+      myOps.add(METADATA);
+      return this;
+    }
+
+    public ClassMetadataReader createClassMetadataReader() {
+      myOps.add(CLASS_METADATA);
+      return this;
+    }
+
+    public NameEnumeratorReader createNameEnumeratorReader() {
+      myOps.add(DICTIONARY);
+      return this;
+    }
+
+    public TestDataReader createTestDataReader(int classId, int methodId) {
+      myOps.add(TEST);
+      myOps.add(classId);
+      myOps.add(methodId);
+      return this;
+    }
+
+    public void debug(String message) {
+    }
+
+    public void error(String message) {
+    }
+
+    public void error(Exception error) {
+    }
+
+    public void processMetadataEntry(String key, String value) {
+      myOps.add(METADATA_ENTRY);
+      myOps.add(addObject(key));
+      myOps.add(addObject(value));
+    }
+
+    public void classStarted(int classId) {
+      myOps.add(METADATA_CLASS_STARTED);
+      myOps.add(classId);
+    }
+
+    public void file(int fileId) {
+      myOps.add(METADATA_FILE);
+      myOps.add(fileId);
+    }
+
+    public void method(int methodId, byte[] hash) {
+      myOps.add(METADATA_METHOD);
+      myOps.add(methodId);
+      myOps.add(addObject(hash));
+    }
+
+    public void classFinished(int classId) {
+      myOps.add(METADATA_CLASS_FINISHED);
+      myOps.add(classId);
+    }
+
+    public void finished() {
+      myOps.add(METADATA_FINISHED);
+    }
+
+    public void enumerate(String name, int id) {
+      myOps.add(NAME);
+      myOps.add(id);
+      myOps.add(addObject(name));
+    }
+
+    public void classProcessingStarted(int classId) {
+      myOps.add(CLASS_STARTED);
+      myOps.add(classId);
+    }
+
+    public void processUsedMethod(int methodId) {
+      myOps.add(USED_METHOD);
+      myOps.add(methodId);
+    }
+
+    public void classProcessingFinished(int classId) {
+      myOps.add(CLASS_FINISHED);
+      myOps.add(classId);
+    }
+
+    public void testDataProcessed() {
+      myOps.add(TEST_PROCESSED);
+    }
+
+    public void processAffectedFile(int[] chunks) {
+      myOps.add(AFFECTED_FILE);
+      myOps.add(addObject(chunks));
+    }
+  }
+
+  /**
+   * Unlike {@link ByteArrayInputStream}, it is not synchronized, as messages are read byte by byte.
+   */
+  private static class MessageInputStream extends InputStream {
+    private final byte[] myData;
+    private final int mySize;
+    private int myPosition;
+
+    private MessageInputStream(byte[] data, int position, int size) {
+      myData = data;
+      myPosition = position;
+      mySize = size;
+    }
+
+    @Override
+    public int read() {
+      return myPosition < mySize ? myData[myPosition++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      if (myPosition >= mySize) return -1;
+      final int count = Math.min(len, mySize - myPosition);
+      System.arraycopy(myData, myPosition, b, off, count);
+      myPosition += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return mySize - myPosition;
+    }
+  }
+}
@@ -30,8 +30,14 @@ public abstract class SimpleDecodingTestDiscoveryProtocolReader implements
     TestDiscoveryProtocolReader.MetadataReader {
   private final TIntObjectHashMap<String> enumerator = new TIntObjectHashMap<String>();
 
+  /**
+   * Called concurrently when the data is read with {@link TestDiscoveryProtocolUtil#readInParallel}.
+   */
   protected abstract void processData(String testClassName, String testMethodName, String className, String methodName);
 
+  /**
+   * Called concurrently when the data is read with {@link TestDiscoveryProtocolUtil#readInParallel}.
+   */
   protected void processAffectedFile(String testClassName, String testMethodName, String filePath) {
 
   }
@@ -108,7 +114,10 @@ public abstract class SimpleDecodingTestDiscoveryProtocolReader implements
     enumerator.put(id, name);
   }
 
-  public TestDataReader createTestDataReader(final int testClassId, final int testMethodId) {
+  public TestDataReader createTestDataReader(int testClassId, int testMethodId) {
+    // the test names are sent before the test data
+    final String testClassName = enumerator.get(testClassId);
+    final String testMethodName = enumerator.get(testMethodId);
     return new TestDataReader() {
       private String currentClassName;
 
@@ -117,7 +126,7 @@ public abstract class SimpleDecodingTestDiscoveryProtocolReader implements
       }
 
       public void processUsedMethod(int methodId) {
-        processData(enumerator.get(testClassId), enumerator.get(testMethodId), currentClassName, enumerator.get(methodId));
+        processData(testClassName, testMethodName, currentClassName, enumerator.get(methodId));
       }
 
       public void classProcessingFinished(int classId) {
@@ -130,7 +139,7 @@ public abstract class SimpleDecodingTestDiscoveryProtocolReader implements
 
       public void processAffectedFile(int[] chunks) {
         SimpleDecodingTestDiscoveryProtocolReader.this
-            .processAffectedFile(enumerator.get(testClassId), enumerator.get(testMethodId), decodeFile(chunks));
+            .processAffectedFile(testClassName, testMethodName, decodeFile(chunks));
       }
     };
   }
@@ -22,6 +22,7 @@ import com.intellij.rt.coverage.util.CoverageIOUtil;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class TestDiscoveryProtocolUtil {
@@ -31,8 +32,43 @@ public class TestDiscoveryProtocolUtil {
     readSequentially(new BufferedInputStream(new FileInputStream(file), bufferSize), reader);
   }
 
+  /**
+   * Reads the file like {@link #readFile(File, TestDiscoveryProtocolReader)},
+   * see {@link #readInParallel(InputStream, TestDiscoveryProtocolReader, ExecutorService)}.
+   */
+  public static void readFileInParallel(File file,
+                                        TestDiscoveryProtocolReader reader,
+                                        ExecutorService executor) throws IOException {
+    int bufferSize = Integer.parseInt(System.getProperty(SingleTrFileDiscoveryProtocolDataListener.BUFFER_SIZE, "32768"));
+    readInParallel(new BufferedInputStream(new FileInputStream(file), bufferSize), reader, executor);
+  }
+
   public static void readSequentially(InputStream testDiscoveryDataStream,
                                       TestDiscoveryProtocolReader reader) throws IOException {
+    read(testDiscoveryDataStream, reader, null);
+  }
+
+  /**
+   * Reads the data decompressing and decoding blocks of the
+   * {@link TestDiscoveryProtocolDataListener#COMPRESSED_BLOCKS_VERSION compressed format} in the <code>executor</code>.
+   * <p>
+   * Test data readers are called concurrently from the executor threads, so
+   * {@link TestDiscoveryProtocolReader#createTestDataReader(int, int)} and the created readers must be thread-safe.
+   * All the other callbacks are called from the calling thread while no test data reader is active,
+   * dictionary parts are passed before the test data that uses them.
+   * The test data may be passed after the metadata that follows it in the file.
+   * <p>
+   * Data of the older versions is read sequentially.
+   */
+  public static void readInParallel(InputStream testDiscoveryDataStream,
+                                    TestDiscoveryProtocolReader reader,
+                                    ExecutorService executor) throws IOException {
+    read(testDiscoveryDataStream, reader, executor);
+  }
+
+  private static void read(InputStream testDiscoveryDataStream,
+                           TestDiscoveryProtocolReader reader,
+                           ExecutorService executor) throws IOException {
     DataInputStream input = new DataInputStream(testDiscoveryDataStream);
 
     boolean start = true;
@@ -51,6 +87,14 @@ public class TestDiscoveryProtocolUtil {
           version = (int) v;
           reader.testDiscoveryDataProcessingStarted(version);
           reader.debug("start marker, format version: " + version);
+          if (version >= TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION) {
+            final CompressedBlockInputStream blocks = new CompressedBlockInputStream(input, reader);
+            if (executor != null) {
+              new ParallelBlockReader(blocks, reader, version, executor).read();
+              return;
+            }
+            input = new DataInputStream(blocks);
+          }
           break;
         case TestDiscoveryProtocolDataListener.FINISH_MARKER:
           reader.testDiscoveryDataProcessingFinished();
@@ -89,7 +133,7 @@ public class TestDiscoveryProtocolUtil {
     }
   }
 
-  private static void readMetadata(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
+  static void readMetadata(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
     TestDiscoveryProtocolReader.MetadataReader metadataReader = reader.createMetadataReader();
     int count = CoverageIOUtil.readINT(input);
     if (count == 0) return;
@@ -100,7 +144,7 @@ public class TestDiscoveryProtocolUtil {
     }
   }
 
-  private static void readClassMetadata(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
+  static void readClassMetadata(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
     TestDiscoveryProtocolReader.ClassMetadataReader metadataReader = reader.createClassMetadataReader();
     int classesCount = CoverageIOUtil.readINT(input);
     if (classesCount == 0) return;
@@ -126,7 +170,7 @@ public class TestDiscoveryProtocolUtil {
     if (metadataReader != null) metadataReader.finished();
   }
 
-  private static void readDictionary(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
+  static void readDictionary(DataInputStream input, TestDiscoveryProtocolReader reader) throws IOException {
     TestDiscoveryProtocolReader.NameEnumeratorReader nameEnumeratorReader = reader.createNameEnumeratorReader();
     int count = CoverageIOUtil.readINT(input);
     while (count-- > 0) {
@@ -136,20 +180,23 @@ public class TestDiscoveryProtocolUtil {
     }
   }
 
-  private static void readTestData(DataInputStream input, TestDiscoveryProtocolReader reader, int protocolVersion) throws IOException {
+  static void readTestData(DataInputStream input, TestDiscoveryProtocolReader reader, int protocolVersion) throws IOException {
     // read test name
     int testClassName = CoverageIOUtil.readINT(input);
     int testMethodName = CoverageIOUtil.readINT(input);
     TestDiscoveryProtocolReader.TestDataReader testDataReader = reader.createTestDataReader(testClassName, testMethodName);
 
-    // read used methods
+    // read used methods, ids are written as differences with the previous id since SORTED_IDS_VERSION
+    final boolean sortedIds = protocolVersion >= TestDiscoveryProtocolDataListener.SORTED_IDS_VERSION;
     int classCount = CoverageIOUtil.readINT(input);
+    int classId = 0;
     while (classCount-- > 0) {
-      int classId = CoverageIOUtil.readINT(input);
+      classId = sortedIds ? classId + CoverageIOUtil.readINT(input) : CoverageIOUtil.readINT(input);
       int methodCount = CoverageIOUtil.readINT(input);
       testDataReader.classProcessingStarted(classId);
+      int methodId = 0;
       while (methodCount-- > 0) {
-        int methodId = CoverageIOUtil.readINT(input);
+        methodId = sortedIds ? methodId + CoverageIOUtil.readINT(input) : CoverageIOUtil.readINT(input);
         testDataReader.processUsedMethod(methodId);
       }
       testDataReader.classProcessingFinished(classId);
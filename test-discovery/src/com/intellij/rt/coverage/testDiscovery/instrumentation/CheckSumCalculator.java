@@ -31,15 +31,48 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class CheckSumCalculator extends ClassVisitor {
+  /**
+   * Checksum algorithm: {@link #LEGACY_ALGORITHM} (default), <code>murmur3</code> for the fast 128-bit MurmurHash3
+   * or a name of {@link MessageDigest} algorithm.
+   * Checksums calculated by any algorithm other than legacy are not compatible with the legacy ones.
+   */
+  public static final String CHECKSUM_ALGORITHM = "test.discovery.checksum.algorithm";
+  /**
+   * MD5 of the textual class representation.
+   */
+  public static final String LEGACY_ALGORITHM = "legacy";
+  private static final String ourAlgorithm = System.getProperty(CHECKSUM_ALGORITHM, LEGACY_ALGORITHM);
+
   private final Map<String, byte[]> checksums = new HashMap<String, byte[]>();
   private final MessageDigest messageDigest;
   private final String className;
+  private final InstrumentedMethodsFilter methodsFilter;
+  private final ClassVisitor next;
 
   public CheckSumCalculator(int api, String className) {
-    super(api, new TraceClassVisitor(null, new ChecksumPrinter(api), null));
+    this(api, null, className, ourAlgorithm);
+  }
+
+  public CheckSumCalculator(int api, String className, String algorithm) {
+    this(api, null, className, algorithm);
+  }
+
+  public CheckSumCalculator(int api, ClassVisitor next, String className) {
+    this(api, next, className, ourAlgorithm);
+  }
+
+  /**
+   * @param next visitor the class is passed to after the checksum calculation, may be <code>null</code>
+   */
+  public CheckSumCalculator(int api, ClassVisitor next, String className, String algorithm) {
+    super(api, LEGACY_ALGORITHM.equals(algorithm)
+        ? new TraceClassVisitor(next, new ChecksumPrinter(api), null)
+        : new HashingClassVisitor(api, next, ChecksumHash.create(algorithm)));
     this.className = className;
+    this.methodsFilter = new InstrumentedMethodsFilter(className);
+    this.next = next;
     try {
-      this.messageDigest = MessageDigest.getInstance("MD5");
+      this.messageDigest = cv instanceof TraceClassVisitor ? MessageDigest.getInstance("MD5") : null;
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException(e);
     }
@@ -54,6 +87,10 @@ public class CheckSumCalculator extends ClassVisitor {
   }
 
   private void saveChecksum(String name) {
+    if (cv instanceof HashingClassVisitor) {
+      checksums.put(name, ((HashingClassVisitor) cv).getAndResetChecksum());
+      return;
+    }
     PrintWriter pw = null;
     try {
       StringWriter sw = new StringWriter();
@@ -66,13 +103,22 @@ public class CheckSumCalculator extends ClassVisitor {
     }
   }
 
+  @Override
+  public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+    methodsFilter.visit(version, access, name, signature, superName, interfaces);
+    super.visit(version, access, name, signature, superName, interfaces);
+  }
+
   /**
-   * visiting only relevant methods, see {@link InstrumentedMethodsCollector}
+   * Only relevant methods are included into checksums, see {@link InstrumentedMethodsFilter}
    */
   @Override
   public MethodVisitor visitMethod(int access, final String name,
                                    final String desc, String signature,
                                    String[] exceptions) {
+    if (methodsFilter.shouldVisitMethod(access, name, desc, signature, exceptions, false) == InstrumentedMethodsFilter.Decision.NO) {
+      return next == null ? null : next.visitMethod(access, name, desc, signature, exceptions);
+    }
     if (!checksums.containsKey(className)) {
       // class declaration checksum
       saveChecksum(className);
@@ -87,7 +133,10 @@ public class CheckSumCalculator extends ClassVisitor {
     };
   }
 
-  // TODO: directly extend asm Printer instead of Textifier to avoid string building overhead
+  /**
+   * Legacy checksums are calculated from the text printed by this printer.
+   * See {@link HashingClassVisitor} for the faster way.
+   */
   private static class ChecksumPrinter extends Textifier {
     ChecksumPrinter(int api) {
       super(api);
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming hash of a sequence of ints, longs and strings.
+ * {@link #digest()} returns the hash of the data updated so far and resets the state.
+ */
+abstract class ChecksumHash {
+  static final String MURMUR3_128 = "murmur3";
+
+  abstract void update(int value);
+
+  abstract byte[] digest();
+
+  void update(long value) {
+    update((int) value);
+    update((int) (value >>> 32));
+  }
+
+  void update(String value) {
+    if (value == null) {
+      update(-1);
+      return;
+    }
+    final int length = value.length();
+    update(length);
+    int i = 0;
+    for (; i + 1 < length; i += 2) {
+      update(value.charAt(i) | value.charAt(i + 1) << 16);
+    }
+    if (i < length) {
+      update(value.charAt(i));
+    }
+  }
+
+  /**
+   * @param algorithm {@link #MURMUR3_128} or a name of {@link MessageDigest} algorithm
+   */
+  static ChecksumHash create(String algorithm) {
+    if (MURMUR3_128.equals(algorithm)) return new Murmur3Hash128();
+    try {
+      return new MessageDigestHash(MessageDigest.getInstance(algorithm));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * MurmurHash3 x64 128-bit variant with zero seed applied to the little-endian bytes of the updated ints.
+   */
+  static final class Murmur3Hash128 extends ChecksumHash {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long myH1;
+    private long myH2;
+    private long myK1;
+    private long myK2;
+    /**
+     * Number of ints in the current incomplete 16-byte block.
+     */
+    private int myPending;
+    /**
+     * Number of bytes in the processed blocks.
+     */
+    private long myLength;
+
+    @Override
+    void update(int value) {
+      final long v = value & 0xFFFFFFFFL;
+      switch (myPending) {
+        case 0:
+          myK1 = v;
+          break;
+        case 1:
+          myK1 |= v << 32;
+          break;
+        case 2:
+          myK2 = v;
+          break;
+        default:
+          myK2 |= v << 32;
+          mixBlock();
+          myPending = 0;
+          myLength += 16;
+          return;
+      }
+      myPending++;
+    }
+
+    private void mixBlock() {
+      myH1 ^= mixK1(myK1);
+      myH1 = Long.rotateLeft(myH1, 27);
+      myH1 += myH2;
+      myH1 = myH1 * 5 + 0x52dce729;
+
+      myH2 ^= mixK2(myK2);
+      myH2 = Long.rotateLeft(myH2, 31);
+      myH2 += myH1;
+      myH2 = myH2 * 5 + 0x38495ab5;
+    }
+
+    @Override
+    byte[] digest() {
+      long h1 = myH1;
+      long h2 = myH2;
+      if (myPending > 2) h2 ^= mixK2(myK2);
+      if (myPending > 0) h1 ^= mixK1(myK1);
+
+      final long length = myLength + 4L * myPending;
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix(h1);
+      h2 = fmix(h2);
+      h1 += h2;
+      h2 += h1;
+
+      myH1 = myH2 = myK1 = myK2 = myLength = 0;
+      myPending = 0;
+
+      final byte[] result = new byte[16];
+      for (int i = 0; i < 8; i++) {
+        result[i] = (byte) (h1 >>> (8 * i));
+        result[i + 8] = (byte) (h2 >>> (8 * i));
+      }
+      return result;
+    }
+
+    private static long mixK1(long k1) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+  }
+
+  static final class MessageDigestHash extends ChecksumHash {
+    private final MessageDigest myDigest;
+    private final byte[] myBuffer = new byte[4];
+
+    MessageDigestHash(MessageDigest digest) {
+      myDigest = digest;
+    }
+
+    @Override
+    void update(int value) {
+      myBuffer[0] = (byte) value;
+      myBuffer[1] = (byte) (value >>> 8);
+      myBuffer[2] = (byte) (value >>> 16);
+      myBuffer[3] = (byte) (value >>> 24);
+      myDigest.update(myBuffer);
+    }
+
+    @Override
+    byte[] digest() {
+      return myDigest.digest();
+    }
+  }
+}
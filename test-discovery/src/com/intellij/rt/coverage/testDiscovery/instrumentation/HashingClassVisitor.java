@@ -0,0 +1,689 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+import org.jetbrains.coverage.org.objectweb.asm.*;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Feeds all the visited class structure directly into a {@link ChecksumHash}
+ * without building a text representation of the class, and passes it further to the delegate visitor if any.
+ * Line numbers are ignored, labels are identified by the order of their first occurrence in a method.
+ */
+class HashingClassVisitor extends ClassVisitor {
+  private static final int CLASS = 1;
+  private static final int SOURCE = 2;
+  private static final int MODULE = 3;
+  private static final int NEST_HOST = 4;
+  private static final int OUTER_CLASS = 5;
+  private static final int ANNOTATION = 6;
+  private static final int TYPE_ANNOTATION = 7;
+  private static final int ATTRIBUTE = 8;
+  private static final int NEST_MEMBER = 9;
+  private static final int PERMITTED_SUBCLASS = 10;
+  private static final int INNER_CLASS = 11;
+  private static final int RECORD_COMPONENT = 12;
+  private static final int FIELD = 13;
+  private static final int METHOD = 14;
+  private static final int END = 15;
+
+  private static final int PARAMETER = 20;
+  private static final int ANNOTATION_DEFAULT = 21;
+  private static final int ANNOTABLE_PARAMETER_COUNT = 22;
+  private static final int PARAMETER_ANNOTATION = 23;
+  private static final int CODE = 24;
+  private static final int FRAME = 25;
+  private static final int INSN = 26;
+  private static final int INT_INSN = 27;
+  private static final int VAR_INSN = 28;
+  private static final int TYPE_INSN = 29;
+  private static final int FIELD_INSN = 30;
+  private static final int METHOD_INSN = 31;
+  private static final int INVOKE_DYNAMIC_INSN = 32;
+  private static final int JUMP_INSN = 33;
+  private static final int LABEL = 34;
+  private static final int LDC_INSN = 35;
+  private static final int IINC_INSN = 36;
+  private static final int TABLE_SWITCH_INSN = 37;
+  private static final int LOOKUP_SWITCH_INSN = 38;
+  private static final int MULTI_A_NEW_ARRAY_INSN = 39;
+  private static final int INSN_ANNOTATION = 40;
+  private static final int TRY_CATCH_BLOCK = 41;
+  private static final int TRY_CATCH_ANNOTATION = 42;
+  private static final int LOCAL_VARIABLE = 43;
+  private static final int LOCAL_VARIABLE_ANNOTATION = 44;
+  private static final int MAXS = 45;
+
+  private static final int ANNOTATION_VALUE = 50;
+  private static final int ANNOTATION_ENUM = 51;
+  private static final int ANNOTATION_NESTED = 52;
+  private static final int ANNOTATION_ARRAY = 53;
+
+  private static final int NULL_VALUE = 60;
+  private static final int STRING_VALUE = 61;
+  private static final int INT_VALUE = 62;
+  private static final int LONG_VALUE = 63;
+  private static final int FLOAT_VALUE = 64;
+  private static final int DOUBLE_VALUE = 65;
+  private static final int TYPE_VALUE = 66;
+  private static final int HANDLE_VALUE = 67;
+  private static final int CONDY_VALUE = 68;
+  private static final int LABEL_VALUE = 69;
+  private static final int ARRAY_VALUE = 70;
+  private static final int OTHER_VALUE = 71;
+
+  private final ChecksumHash myHash;
+
+  HashingClassVisitor(int api, ClassVisitor cv, ChecksumHash hash) {
+    super(api, cv);
+    myHash = hash;
+  }
+
+  /**
+   * @return hash of the data visited since the previous call
+   */
+  byte[] getAndResetChecksum() {
+    return myHash.digest();
+  }
+
+  @Override
+  public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+    myHash.update(CLASS);
+    myHash.update(version);
+    myHash.update(access);
+    myHash.update(name);
+    myHash.update(signature);
+    myHash.update(superName);
+    updateStrings(interfaces);
+    super.visit(version, access, name, signature, superName, interfaces);
+  }
+
+  @Override
+  public void visitSource(String source, String debug) {
+    myHash.update(SOURCE);
+    myHash.update(source);
+    myHash.update(debug);
+    super.visitSource(source, debug);
+  }
+
+  @Override
+  public ModuleVisitor visitModule(String name, int access, String version) {
+    myHash.update(MODULE);
+    myHash.update(name);
+    myHash.update(access);
+    myHash.update(version);
+    return super.visitModule(name, access, version);
+  }
+
+  @Override
+  public void visitNestHost(String nestHost) {
+    myHash.update(NEST_HOST);
+    myHash.update(nestHost);
+    super.visitNestHost(nestHost);
+  }
+
+  @Override
+  public void visitOuterClass(String owner, String name, String descriptor) {
+    myHash.update(OUTER_CLASS);
+    myHash.update(owner);
+    myHash.update(name);
+    myHash.update(descriptor);
+    super.visitOuterClass(owner, name, descriptor);
+  }
+
+  @Override
+  public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+    return hashAnnotation(ANNOTATION, descriptor, visible, super.visitAnnotation(descriptor, visible));
+  }
+
+  @Override
+  public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+    return hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+  }
+
+  @Override
+  public void visitAttribute(Attribute attribute) {
+    hashAttribute(attribute);
+    super.visitAttribute(attribute);
+  }
+
+  @Override
+  public void visitNestMember(String nestMember) {
+    myHash.update(NEST_MEMBER);
+    myHash.update(nestMember);
+    super.visitNestMember(nestMember);
+  }
+
+  @Override
+  public void visitPermittedSubclass(String permittedSubclass) {
+    myHash.update(PERMITTED_SUBCLASS);
+    myHash.update(permittedSubclass);
+    super.visitPermittedSubclass(permittedSubclass);
+  }
+
+  @Override
+  public void visitInnerClass(String name, String outerName, String innerName, int access) {
+    myHash.update(INNER_CLASS);
+    myHash.update(name);
+    myHash.update(outerName);
+    myHash.update(innerName);
+    myHash.update(access);
+    super.visitInnerClass(name, outerName, innerName, access);
+  }
+
+  @Override
+  public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+    myHash.update(RECORD_COMPONENT);
+    myHash.update(name);
+    myHash.update(descriptor);
+    myHash.update(signature);
+    return new RecordComponentVisitor(api, super.visitRecordComponent(name, descriptor, signature)) {
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return hashAnnotation(ANNOTATION, descriptor, visible, super.visitAnnotation(descriptor, visible));
+      }
+
+      @Override
+      public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+      }
+
+      @Override
+      public void visitAttribute(Attribute attribute) {
+        hashAttribute(attribute);
+        super.visitAttribute(attribute);
+      }
+
+      @Override
+      public void visitEnd() {
+        myHash.update(END);
+        super.visitEnd();
+      }
+    };
+  }
+
+  @Override
+  public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+    myHash.update(FIELD);
+    myHash.update(access);
+    myHash.update(name);
+    myHash.update(descriptor);
+    myHash.update(signature);
+    hashValue(value, null);
+    return new FieldVisitor(api, super.visitField(access, name, descriptor, signature, value)) {
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return hashAnnotation(ANNOTATION, descriptor, visible, super.visitAnnotation(descriptor, visible));
+      }
+
+      @Override
+      public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+      }
+
+      @Override
+      public void visitAttribute(Attribute attribute) {
+        hashAttribute(attribute);
+        super.visitAttribute(attribute);
+      }
+
+      @Override
+      public void visitEnd() {
+        myHash.update(END);
+        super.visitEnd();
+      }
+    };
+  }
+
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+    myHash.update(METHOD);
+    myHash.update(access);
+    myHash.update(name);
+    myHash.update(descriptor);
+    myHash.update(signature);
+    updateStrings(exceptions);
+    return new HashingMethodVisitor(super.visitMethod(access, name, descriptor, signature, exceptions));
+  }
+
+  @Override
+  public void visitEnd() {
+    myHash.update(END);
+    super.visitEnd();
+  }
+
+  private void updateStrings(String[] values) {
+    if (values == null) {
+      myHash.update(-1);
+      return;
+    }
+    myHash.update(values.length);
+    for (String value : values) {
+      myHash.update(value);
+    }
+  }
+
+  private void hashAttribute(Attribute attribute) {
+    myHash.update(ATTRIBUTE);
+    myHash.update(attribute.type);
+  }
+
+  private AnnotationVisitor hashAnnotation(int kind, String descriptor, boolean visible, AnnotationVisitor av) {
+    myHash.update(kind);
+    myHash.update(descriptor);
+    myHash.update(visible ? 1 : 0);
+    return new HashingAnnotationVisitor(av);
+  }
+
+  private AnnotationVisitor hashTypeAnnotation(int kind, int typeRef, TypePath typePath, String descriptor, boolean visible, AnnotationVisitor av) {
+    myHash.update(typeRef);
+    myHash.update(typePath == null ? null : typePath.toString());
+    return hashAnnotation(kind, descriptor, visible, av);
+  }
+
+  /**
+   * @param labels label indices of the current method, <code>null</code> outside of method code
+   */
+  private void hashValue(Object value, Map<Label, Integer> labels) {
+    if (value == null) {
+      myHash.update(NULL_VALUE);
+    } else if (value instanceof String) {
+      myHash.update(STRING_VALUE);
+      myHash.update((String) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      myHash.update(INT_VALUE);
+      myHash.update(((Number) value).intValue());
+    } else if (value instanceof Character) {
+      myHash.update(INT_VALUE);
+      myHash.update(((Character) value).charValue());
+    } else if (value instanceof Boolean) {
+      myHash.update(INT_VALUE);
+      myHash.update(((Boolean) value) ? 1 : 0);
+    } else if (value instanceof Long) {
+      myHash.update(LONG_VALUE);
+      myHash.update(((Long) value).longValue());
+    } else if (value instanceof Float) {
+      myHash.update(FLOAT_VALUE);
+      myHash.update(Float.floatToRawIntBits((Float) value));
+    } else if (value instanceof Double) {
+      myHash.update(DOUBLE_VALUE);
+      myHash.update(Double.doubleToRawLongBits((Double) value));
+    } else if (value instanceof Type) {
+      myHash.update(TYPE_VALUE);
+      myHash.update(((Type) value).getDescriptor());
+    } else if (value instanceof Handle) {
+      final Handle handle = (Handle) value;
+      myHash.update(HANDLE_VALUE);
+      myHash.update(handle.getTag());
+      myHash.update(handle.getOwner());
+      myHash.update(handle.getName());
+      myHash.update(handle.getDesc());
+      myHash.update(handle.isInterface() ? 1 : 0);
+    } else if (value instanceof ConstantDynamic) {
+      final ConstantDynamic constant = (ConstantDynamic) value;
+      myHash.update(CONDY_VALUE);
+      myHash.update(constant.getName());
+      myHash.update(constant.getDescriptor());
+      hashValue(constant.getBootstrapMethod(), labels);
+      final int argumentsCount = constant.getBootstrapMethodArgumentCount();
+      myHash.update(argumentsCount);
+      for (int i = 0; i < argumentsCount; i++) {
+        hashValue(constant.getBootstrapMethodArgument(i), labels);
+      }
+    } else if (value instanceof Label && labels != null) {
+      myHash.update(LABEL_VALUE);
+      myHash.update(labelIndex((Label) value, labels));
+    } else if (value.getClass().isArray()) {
+      final int length = Array.getLength(value);
+      myHash.update(ARRAY_VALUE);
+      myHash.update(length);
+      for (int i = 0; i < length; i++) {
+        hashValue(Array.get(value, i), labels);
+      }
+    } else {
+      myHash.update(OTHER_VALUE);
+      myHash.update(String.valueOf(value));
+    }
+  }
+
+  private static int labelIndex(Label label, Map<Label, Integer> labels) {
+    Integer index = labels.get(label);
+    if (index == null) {
+      index = labels.size();
+      labels.put(label, index);
+    }
+    return index;
+  }
+
+  private class HashingAnnotationVisitor extends AnnotationVisitor {
+    HashingAnnotationVisitor(AnnotationVisitor av) {
+      super(HashingClassVisitor.this.api, av);
+    }
+
+    @Override
+    public void visit(String name, Object value) {
+      myHash.update(ANNOTATION_VALUE);
+      myHash.update(name);
+      hashValue(value, null);
+      super.visit(name, value);
+    }
+
+    @Override
+    public void visitEnum(String name, String descriptor, String value) {
+      myHash.update(ANNOTATION_ENUM);
+      myHash.update(name);
+      myHash.update(descriptor);
+      myHash.update(value);
+      super.visitEnum(name, descriptor, value);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+      myHash.update(ANNOTATION_NESTED);
+      myHash.update(name);
+      myHash.update(descriptor);
+      return new HashingAnnotationVisitor(super.visitAnnotation(name, descriptor));
+    }
+
+    @Override
+    public AnnotationVisitor visitArray(String name) {
+      myHash.update(ANNOTATION_ARRAY);
+      myHash.update(name);
+      return new HashingAnnotationVisitor(super.visitArray(name));
+    }
+
+    @Override
+    public void visitEnd() {
+      myHash.update(END);
+      super.visitEnd();
+    }
+  }
+
+  private class HashingMethodVisitor extends MethodVisitor {
+    private final Map<Label, Integer> myLabels = new HashMap<Label, Integer>();
+
+    HashingMethodVisitor(MethodVisitor mv) {
+      super(HashingClassVisitor.this.api, mv);
+    }
+
+    private void updateLabel(Label label) {
+      myHash.update(labelIndex(label, myLabels));
+    }
+
+    private void updateLabels(Label[] labels) {
+      myHash.update(labels.length);
+      for (Label label : labels) {
+        updateLabel(label);
+      }
+    }
+
+    private void updateValues(Object[] values, int count) {
+      myHash.update(count);
+      for (int i = 0; i < count; i++) {
+        hashValue(values[i], myLabels);
+      }
+    }
+
+    @Override
+    public void visitParameter(String name, int access) {
+      myHash.update(PARAMETER);
+      myHash.update(name);
+      myHash.update(access);
+      super.visitParameter(name, access);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotationDefault() {
+      myHash.update(ANNOTATION_DEFAULT);
+      return new HashingAnnotationVisitor(super.visitAnnotationDefault());
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      return hashAnnotation(ANNOTATION, descriptor, visible, super.visitAnnotation(descriptor, visible));
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      return hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+      myHash.update(ANNOTABLE_PARAMETER_COUNT);
+      myHash.update(parameterCount);
+      myHash.update(visible ? 1 : 0);
+      super.visitAnnotableParameterCount(parameterCount, visible);
+    }
+
+    @Override
+    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+      myHash.update(parameter);
+      return hashAnnotation(PARAMETER_ANNOTATION, descriptor, visible, super.visitParameterAnnotation(parameter, descriptor, visible));
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+      hashAttribute(attribute);
+      super.visitAttribute(attribute);
+    }
+
+    @Override
+    public void visitCode() {
+      myHash.update(CODE);
+      super.visitCode();
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+      myHash.update(FRAME);
+      myHash.update(type);
+      updateValues(local, numLocal);
+      updateValues(stack, numStack);
+      super.visitFrame(type, numLocal, local, numStack, stack);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      myHash.update(INSN);
+      myHash.update(opcode);
+      super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      myHash.update(INT_INSN);
+      myHash.update(opcode);
+      myHash.update(operand);
+      super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+      myHash.update(VAR_INSN);
+      myHash.update(opcode);
+      myHash.update(varIndex);
+      super.visitVarInsn(opcode, varIndex);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      myHash.update(TYPE_INSN);
+      myHash.update(opcode);
+      myHash.update(type);
+      super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+      myHash.update(FIELD_INSN);
+      myHash.update(opcode);
+      myHash.update(owner);
+      myHash.update(name);
+      myHash.update(descriptor);
+      super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+      myHash.update(METHOD_INSN);
+      myHash.update(opcode);
+      myHash.update(owner);
+      myHash.update(name);
+      myHash.update(descriptor);
+      myHash.update(isInterface ? 1 : 0);
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+      myHash.update(INVOKE_DYNAMIC_INSN);
+      myHash.update(name);
+      myHash.update(descriptor);
+      hashValue(bootstrapMethodHandle, myLabels);
+      updateValues(bootstrapMethodArguments, bootstrapMethodArguments.length);
+      super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      myHash.update(JUMP_INSN);
+      myHash.update(opcode);
+      updateLabel(label);
+      super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      myHash.update(LABEL);
+      updateLabel(label);
+      super.visitLabel(label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+      myHash.update(LDC_INSN);
+      hashValue(value, myLabels);
+      super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+      myHash.update(IINC_INSN);
+      myHash.update(varIndex);
+      myHash.update(increment);
+      super.visitIincInsn(varIndex, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      myHash.update(TABLE_SWITCH_INSN);
+      myHash.update(min);
+      myHash.update(max);
+      updateLabel(dflt);
+      updateLabels(labels);
+      super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      myHash.update(LOOKUP_SWITCH_INSN);
+      updateLabel(dflt);
+      myHash.update(keys.length);
+      for (int key : keys) {
+        myHash.update(key);
+      }
+      updateLabels(labels);
+      super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+      myHash.update(MULTI_A_NEW_ARRAY_INSN);
+      myHash.update(descriptor);
+      myHash.update(numDimensions);
+      super.visitMultiANewArrayInsn(descriptor, numDimensions);
+    }
+
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      return hashTypeAnnotation(INSN_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitInsnAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+      myHash.update(TRY_CATCH_BLOCK);
+      updateLabel(start);
+      updateLabel(end);
+      updateLabel(handler);
+      myHash.update(type);
+      super.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      return hashTypeAnnotation(TRY_CATCH_ANNOTATION, typeRef, typePath, descriptor, visible, super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+      myHash.update(LOCAL_VARIABLE);
+      myHash.update(name);
+      myHash.update(descriptor);
+      myHash.update(signature);
+      updateLabel(start);
+      updateLabel(end);
+      myHash.update(index);
+      super.visitLocalVariable(name, descriptor, signature, start, end, index);
+    }
+
+    @Override
+    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+      updateLabels(start);
+      updateLabels(end);
+      myHash.update(index.length);
+      for (int i : index) {
+        myHash.update(i);
+      }
+      return hashTypeAnnotation(LOCAL_VARIABLE_ANNOTATION, typeRef, typePath, descriptor, visible,
+          super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+      // line numbers do not affect the checksum
+      super.visitLineNumber(line, start);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+      myHash.update(MAXS);
+      myHash.update(maxStack);
+      myHash.update(maxLocals);
+      super.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+      myHash.update(END);
+      super.visitEnd();
+    }
+  }
+}
@@ -20,46 +20,72 @@ import com.intellij.rt.coverage.data.ClassMetadata;
 import com.intellij.rt.coverage.data.TestDiscoveryProjectData;
 import com.intellij.rt.coverage.instrumentation.ExtraFieldInstrumenter;
 import org.jetbrains.coverage.org.objectweb.asm.*;
+import org.jetbrains.coverage.org.objectweb.asm.tree.MethodNode;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+/**
+ * Instruments the class in a single pass: methods are enumerated, and sources and checksums are collected
+ * while the class is being instrumented.
+ * As the method names are known only in the end of the class, the field initialization
+ * is extracted into a synthetic method generated in {@link #visitEnd()}.
+ */
 public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
   private final String myClassName;
   int myClassVersion;
   private final InstrumentedMethodsFilter myMethodFilter;
-  volatile boolean myInstrumentConstructors;
-  private int myCurrentMethodCount;
+  private boolean myInstrumentConstructors;
 
   static final String METHODS_VISITED = "__$methodsVisited$__";
   static final String METHODS_VISITED_CLASS = "[Z";
-  private final String[] myMethodNames;
+  static final String METHODS_VISITED_INIT = "__$methodsVisitedInit$__";
+  private final List<String> myMethodNames = new ArrayList<String>();
+  /**
+   * Names of the instrumented methods, <code>null</code> until the whole class is visited.
+   */
+  private String[] myMethodNamesArray;
+  private boolean myInitMethodRequired;
+
+  /**
+   * Default constructor, which is instrumented only if the class has other constructors.
+   */
+  private MethodNode myDefaultConstructor;
+  /**
+   * Static initializer of an interface, which initializes the field with all the method names.
+   */
+  private MethodNode myInterfaceClinit;
+
+  private final SourceFilesCollector mySourceFilesCollector;
+  private final CheckSumCalculator myCheckSumCalculator;
 
+  /**
+   * The class must be passed to the visitor returned from {@link #getMetadataCollector()}, which passes it to this instrumenter.
+   * If the class is passed to the instrumenter directly, the sources and checksums of the class are not collected,
+   * and the class metadata is reported empty.
+   */
   public TestDiscoveryInstrumenter(ClassVisitor cw, ClassReader cr, String className) {
     super(cr, cw, className, METHODS_VISITED, METHODS_VISITED_CLASS, false);
     myMethodFilter = new InstrumentedMethodsFilter(className);
     myClassName = className;
-    myMethodNames = inspectClass(cr);
-  }
-
-  private String[] inspectClass(ClassReader cr) {
     // calculate checksums for class
-    CheckSumCalculator checksumCalculator = new CheckSumCalculator(api, myClassName);
+    myCheckSumCalculator = new CheckSumCalculator(api, this, className);
     // collect source files of class
-    SourceFilesCollector sourceFilesCollector = new SourceFilesCollector(api, checksumCalculator, myClassName);
-    // collect methods to instrument (and calculate checksums for them, see CheckSumCalculator)
-    InstrumentedMethodsCollector methodCollector = new InstrumentedMethodsCollector(api, sourceFilesCollector, this, myClassName);
-    cr.accept(methodCollector, 0);
-    TestDiscoveryProjectData.getProjectData()
-        .addClassMetadata(Collections.singletonList(
-            new ClassMetadata(myClassName,
-                sourceFilesCollector.getSources(),
-                checksumCalculator.getChecksums())));
-    return methodCollector.instrumentedMethods();
+    mySourceFilesCollector = new SourceFilesCollector(api, myCheckSumCalculator, className);
+  }
+
+  /**
+   * @return visitor that collects the class metadata and passes the class to this instrumenter
+   */
+  public ClassVisitor getMetadataCollector() {
+    return mySourceFilesCollector;
   }
 
   @Override
   public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
     myMethodFilter.visit(version, access, name, signature, superName, interfaces);
+    myClassVersion = version;
     super.visit(version, access, name, signature, superName, interfaces);
   }
 
@@ -69,27 +95,78 @@ public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
                                    final String desc,
                                    final String signature,
                                    final String[] exceptions) {
-    final MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
-    if (mv == null) return null;
-    if (myMethodNames.length == 0) {
-      return mv;
-    }
     if ("<clinit>".equals(name)) {
-      return createMethodVisitor(mv, name);
+      // a class initializer is not instrumented, as the field is initialized in the instrumented methods;
+      // an interface initializer is delayed until the method names are known,
+      // except for the one generated in visitEnd, which already contains the field initialization
+      if (!isInterface() || myMethodNamesArray != null) return cv.visitMethod(access, name, desc, signature, exceptions);
+      myInterfaceClinit = new MethodNode(api, access, name, desc, signature, exceptions);
+      return myInterfaceClinit;
     }
 
     InstrumentedMethodsFilter.Decision decision = myMethodFilter.shouldVisitMethod(access, name, desc, signature, exceptions, myInstrumentConstructors);
-    if (decision != InstrumentedMethodsFilter.Decision.YES) return mv;
+    if (decision == InstrumentedMethodsFilter.Decision.NO) {
+      return cv.visitMethod(access, name, desc, signature, exceptions);
+    }
+    if (decision == InstrumentedMethodsFilter.Decision.CHECK_IS_CONSTRUCTOR_DEFAULT) {
+      final MethodNode constructor = new MethodNode(api, access, name, desc, signature, exceptions);
+      return new DefaultConstructorDetectionVisitor(api, constructor) {
+        @Override
+        void onDecisionDone(boolean isDefault) {
+          if (isDefault) {
+            myDefaultConstructor = constructor;
+          } else {
+            instrumentAllConstructors();
+            constructor.accept(instrumentMethod(constructor));
+          }
+        }
+      };
+    }
+    if ("<init>".equals(name) && !myInstrumentConstructors) {
+      instrumentAllConstructors();
+    }
+    return instrumentMethod(access, name, desc, signature, exceptions);
+  }
 
-    MethodVisitor newMv = new MethodVisitor(Opcodes.API_VERSION, mv) {
-      final int myMethodId = myCurrentMethodCount++;
+  private void instrumentAllConstructors() {
+    myInstrumentConstructors = true;
+    if (myDefaultConstructor != null) {
+      myDefaultConstructor.accept(instrumentMethod(myDefaultConstructor));
+      myDefaultConstructor = null;
+    }
+  }
 
+  private MethodVisitor instrumentMethod(MethodNode method) {
+    final String[] exceptions = method.exceptions.toArray(new String[0]);
+    return instrumentMethod(method.access, method.name, method.desc, method.signature, exceptions);
+  }
+
+  private MethodVisitor instrumentMethod(int access, String name, String desc, String signature, String[] exceptions) {
+    final MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+    if (mv == null) return null;
+    final int methodId = myMethodNames.size();
+    myMethodNames.add(TestDiscoveryInstrumentationUtils.getMethodId(name, desc));
+
+    MethodVisitor newMv = new MethodVisitor(Opcodes.API_VERSION, mv) {
+      /**
+       * Marks the method as visited. The first visit since the last cleanup also reports
+       * the class as touched, so that only touched classes are processed after a test.
+       */
       @Override
       public void visitCode() {
+        final Label alreadyVisited = new Label();
         mv.visitFieldInsn(Opcodes.GETSTATIC, getInternalClassName(), METHODS_VISITED, METHODS_VISITED_CLASS);
-        pushInstruction(this, myMethodId);
+        pushInstruction(this, methodId);
+        visitInsn(Opcodes.BALOAD);
+        visitJumpInsn(Opcodes.IFNE, alreadyVisited);
+
+        mv.visitFieldInsn(Opcodes.GETSTATIC, getInternalClassName(), METHODS_VISITED, METHODS_VISITED_CLASS);
+        visitInsn(Opcodes.DUP);
+        pushInstruction(this, methodId);
         visitInsn(Opcodes.ICONST_1);
         visitInsn(Opcodes.BASTORE);
+        visitMethodInsn(Opcodes.INVOKESTATIC, TestDiscoveryProjectData.PROJECT_DATA_OWNER, "touch", "([Z)V", false);
+        visitLabel(alreadyVisited);
 
         super.visitCode();
       }
@@ -99,29 +176,69 @@ public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
 
   @Override
   public void visitEnd() {
-    if (myMethodNames.length > 0) {
+    if (myDefaultConstructor != null) {
+      // the only constructor of the class is default, it is not instrumented
+      myDefaultConstructor.accept(cv);
+      myDefaultConstructor = null;
+    }
+    myMethodNamesArray = myMethodNames.toArray(new String[0]);
+    final boolean instrumented = myMethodNamesArray.length > 0;
+    if (myInterfaceClinit != null) {
+      if (instrumented) {
+        final MethodNode clinit = myInterfaceClinit;
+        clinit.accept(createMethodVisitor(cv.visitMethod(clinit.access, clinit.name, clinit.desc, clinit.signature,
+            clinit.exceptions.toArray(new String[0])), clinit.name));
+      } else {
+        myInterfaceClinit.accept(cv);
+      }
+      myInterfaceClinit = null;
+    }
+    if (instrumented) {
+      if (myInitMethodRequired) {
+        generateInitMethod();
+      }
       generateMembers();
     }
+    TestDiscoveryProjectData.getProjectData()
+        .addClassMetadata(Collections.singletonList(
+            new ClassMetadata(myClassName,
+                mySourceFilesCollector.getSources(),
+                myCheckSumCalculator.getChecksums())));
     super.visitEnd();
   }
 
+  private void generateInitMethod() {
+    MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, METHODS_VISITED_INIT, "()V", null, null);
+    mv.visitCode();
+    initField(mv);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(ADDED_CODE_STACK_SIZE, 0);
+    mv.visitEnd();
+  }
+
   /**
    * Pushes class name, array of boolean and method names from stack to the {@link TestDiscoveryProjectData#trace(java.lang.String, boolean[], java.lang.String[])}
-   * and store result in the field {@link TestDiscoveryInstrumenter#METHODS_VISITED}
+   * and store result in the field {@link TestDiscoveryInstrumenter#METHODS_VISITED}.
+   * Until the whole class is visited, calls the synthetic {@link TestDiscoveryInstrumenter#METHODS_VISITED_INIT} method instead.
    */
   @Override
   public void initField(MethodVisitor mv) {
+    if (myMethodNamesArray == null) {
+      myInitMethodRequired = true;
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, myInternalClassName, METHODS_VISITED_INIT, "()V", false);
+      return;
+    }
     mv.visitLdcInsn(myClassName);
-    pushInstruction(mv, myMethodNames.length);
+    pushInstruction(mv, myMethodNamesArray.length);
     mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
 
-    pushInstruction(mv, myMethodNames.length);
+    pushInstruction(mv, myMethodNamesArray.length);
     mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/String");
 
-    for (int i = 0; i < myMethodNames.length; ++i) {
+    for (int i = 0; i < myMethodNamesArray.length; ++i) {
       mv.visitInsn(Opcodes.DUP);
       pushInstruction(mv, i);
-      mv.visitLdcInsn(myMethodNames[i]);
+      mv.visitLdcInsn(myMethodNamesArray[i]);
       mv.visitInsn(Opcodes.AASTORE);
     }
 
@@ -38,9 +38,19 @@ public class TestDiscoveryTransformer extends AbstractIntellijClassfileTransform
 
   @Override
   protected ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw) {
-    return COUNTERS_IN_INNER_CLASS
+    final TestDiscoveryInstrumenter instrumenter = COUNTERS_IN_INNER_CLASS
         ? new TestDiscoveryInnerClassInstrumenter(cw, cr, className, loader)
         : new TestDiscoveryInstrumenter(cw, cr, className);
+    return instrumenter.getMetadataCollector();
+  }
+
+  /**
+   * Frames are not expanded: they are recomputed by the class writer or passed as is,
+   * and checksums are calculated over the frames as they are stored in the class file.
+   */
+  @Override
+  protected int getReaderFlags() {
+    return 0;
   }
 
   @Override
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.data.api.TestDiscoveryProtocolUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedTraceFileTest {
+  private static final int BLOCK_SIZE = 1024;
+
+  @Test
+  public void testSameDataAsUncompressed() throws Exception {
+    final byte[] uncompressed = write(3);
+    final byte[] compressed = write(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    assertThat(compressed.length).isLessThan(uncompressed.length / 2);
+
+    final RecordingProtocolReader expected = read(uncompressed);
+    final RecordingProtocolReader actual = read(compressed);
+    assertThat(actual.myVersion).isEqualTo(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    assertThat(actual.myFinished).isTrue();
+    assertThat(actual.myErrors).isEmpty();
+    assertThat(actual.myEvents).isEqualTo(expected.myEvents);
+  }
+
+  @Test
+  public void testSortedIdsSameData() throws Exception {
+    final RecordingProtocolReader expected = read(write(3));
+    final RecordingProtocolReader actual = read(write(TestDiscoveryProtocolDataListener.SORTED_IDS_VERSION));
+    assertThat(actual.myVersion).isEqualTo(TestDiscoveryProtocolDataListener.SORTED_IDS_VERSION);
+    assertThat(actual.myFinished).isTrue();
+    assertThat(actual.myErrors).isEmpty();
+    // method ids are enumerated in the order of methods
+    assertThat(actual.myEvents).isEqualTo(expected.myEvents);
+  }
+
+  @Test
+  public void testSortedIdsAreWrittenInAscendingOrder() throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final SingleTrFileDiscoveryProtocolDataListener listener = new SingleTrFileDiscoveryProtocolDataListener(
+        new DataOutputStream(baos), TestDiscoveryProtocolDataListener.SORTED_IDS_VERSION, BLOCK_SIZE);
+    final NameEnumerator enumerator = listener.getNameEnumerator();
+    final Map<Integer, boolean[]> classes = new LinkedHashMap<Integer, boolean[]>();
+    final Map<Integer, int[]> methods = new LinkedHashMap<Integer, int[]>();
+    for (int i = 3; i > 0; i--) {
+      final int classId = enumerator.enumerate("Class" + i);
+      final int[] names = new int[3];
+      for (int j = names.length - 1; j >= 0; j--) {
+        names[j] = enumerator.enumerate("method" + i + j);
+      }
+      classes.put(classId, new boolean[]{true, false, true});
+      methods.put(classId, names);
+    }
+    listener.testFinished("Test", "test", classes, methods, Collections.<int[]>emptyList());
+    listener.testsFinished();
+
+    final List<String> events = read(baos.toByteArray()).myEvents;
+    final List<String> expected = Arrays.asList("test 13.14",
+        "class 1", "used 2", "used 4", "class finished 1",
+        "class 5", "used 6", "used 8", "class finished 5",
+        "class 9", "used 10", "used 12", "class finished 9",
+        "test finished");
+    assertThat(events.subList(events.size() - expected.size(), events.size())).isEqualTo(expected);
+  }
+
+  @Test
+  public void testTruncatedFileIsReadUpToLastBlock() throws Exception {
+    final byte[] compressed = write(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final RecordingProtocolReader full = read(compressed);
+    int blocksRead = 0;
+    // file header and start marker are not compressed
+    for (int length = 6; length < compressed.length; length++) {
+      final RecordingProtocolReader reader = read(Arrays.copyOf(compressed, length));
+      assertThat(reader.myFinished).isFalse();
+      assertThat(full.myEvents.subList(0, reader.myEvents.size())).isEqualTo(reader.myEvents);
+      if (!reader.myEvents.isEmpty()) blocksRead++;
+    }
+    assertThat(blocksRead).isGreaterThan(0);
+  }
+
+  @Test
+  public void testPartialBlockIsWrittenAfterFlushInterval() throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final SingleTrFileDiscoveryProtocolDataListener listener = new SingleTrFileDiscoveryProtocolDataListener(
+        new DataOutputStream(baos), TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION, BLOCK_SIZE, 0);
+    listener.addMetadata(Collections.singletonMap("A", "B"));
+    final RecordingProtocolReader reader = read(baos.toByteArray());
+    assertThat(reader.myFinished).isFalse();
+    assertThat(reader.myErrors).isEmpty();
+    assertThat(reader.myEvents).isNotEmpty();
+    listener.testsFinished();
+    assertThat(read(baos.toByteArray()).myEvents).isEqualTo(reader.myEvents);
+  }
+
+  @Test
+  public void testCorruptedBlockIsReported() throws Exception {
+    final byte[] compressed = write(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final RecordingProtocolReader full = read(compressed);
+    compressed[compressed.length / 2] ^= 0x55;
+    final RecordingProtocolReader reader = read(compressed);
+    assertThat(reader.myFinished).isFalse();
+    assertThat(reader.myErrors).isNotEmpty();
+    assertThat(full.myEvents.subList(0, reader.myEvents.size())).isEqualTo(reader.myEvents);
+  }
+
+  @Test
+  public void testParallelReadSameData() throws Exception {
+    final byte[] compressed = write(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final List<String> expectedEvents = new ArrayList<String>();
+    final List<String> expectedTests = new ArrayList<String>();
+    splitTests(read(compressed).myEvents, expectedEvents, expectedTests);
+
+    final ConcurrentRecordingReader actual = readInParallel(compressed);
+    assertThat(actual.myFinished).isTrue();
+    assertThat(actual.myErrors).isEmpty();
+    assertThat(actual.myEvents).isEqualTo(expectedEvents);
+    assertThat(actual.sortedTests()).isEqualTo(expectedTests);
+  }
+
+  @Test
+  public void testParallelReadStopsAtCorruptedBlock() throws Exception {
+    final byte[] compressed = write(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final List<String> expectedEvents = new ArrayList<String>();
+    final List<String> expectedTests = new ArrayList<String>();
+    splitTests(read(compressed).myEvents, expectedEvents, expectedTests);
+
+    compressed[compressed.length / 2] ^= 0x55;
+    final ConcurrentRecordingReader actual = readInParallel(compressed);
+    assertThat(actual.myFinished).isFalse();
+    assertThat(actual.myErrors).isNotEmpty();
+    assertThat(expectedEvents.subList(0, actual.myEvents.size())).isEqualTo(actual.myEvents);
+    assertThat(actual.myTests.size()).isLessThan(expectedTests.size());
+    assertThat(expectedTests.containsAll(actual.myTests)).isTrue();
+  }
+
+  @Test
+  public void testParallelReadReportsUnknownMessage() throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(baos);
+    output.writeByte(SingleTrFileDiscoveryProtocolDataListener.HEADER_START);
+    output.write(SingleTrFileDiscoveryProtocolDataListener.HEADER_TAIL);
+    output.writeByte(TestDiscoveryProtocolDataListener.START_MARKER);
+    output.writeByte(TestDiscoveryProtocolDataListener.COMPRESSED_BLOCKS_VERSION);
+    final CompressedBlockOutputStream blocks = new CompressedBlockOutputStream(output, BLOCK_SIZE, 0);
+    blocks.write(0x7F);
+    blocks.write(TestDiscoveryProtocolDataListener.FINISH_MARKER);
+    blocks.close();
+
+    final ConcurrentRecordingReader actual = readInParallel(baos.toByteArray());
+    assertThat(actual.myFinished).isFalse();
+    assertThat(actual.myErrors).isEqualTo(Collections.singletonList("Unknown input: 7F, the rest of the data is skipped"));
+  }
+
+  private static byte[] write(int version) throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final SingleTrFileDiscoveryProtocolDataListener listener =
+        new SingleTrFileDiscoveryProtocolDataListener(new DataOutputStream(baos), version, BLOCK_SIZE);
+    listener.addMetadata(Collections.singletonMap("A", "B"));
+    for (int i = 0; i < 200; i++) {
+      final NameEnumerator enumerator = listener.getNameEnumerator();
+      final int classId = enumerator.enumerate("Class" + i % 20);
+      final boolean[] visited = new boolean[50];
+      final int[] names = new int[visited.length];
+      for (int j = 0; j < visited.length; j++) {
+        visited[j] = (i + j) % 3 == 0;
+        names[j] = enumerator.enumerate("method" + j);
+      }
+      final Map<Integer, boolean[]> classes = new HashMap<Integer, boolean[]>();
+      final Map<Integer, int[]> methods = new HashMap<Integer, int[]>();
+      classes.put(classId, visited);
+      methods.put(classId, names);
+      listener.testFinished("Test", "test" + i, classes, methods,
+          Collections.singletonList(new int[]{enumerator.enumerate("file" + i % 7)}));
+      if (i % 20 == 0) {
+        listener.addClassMetadata(Collections.singletonList(new ClassMetadata("Class" + i % 20,
+            Collections.singletonList("Class.java"), Collections.singletonMap("method0", new byte[]{1, 2, 3}))));
+      }
+    }
+    listener.testsFinished();
+    return baos.toByteArray();
+  }
+
+  private static RecordingProtocolReader read(byte[] data) throws IOException {
+    final RecordingProtocolReader reader = new RecordingProtocolReader();
+    TestDiscoveryProtocolUtil.readSequentially(new ByteArrayInputStream(data), reader);
+    return reader;
+  }
+
+  private static ConcurrentRecordingReader readInParallel(byte[] data) throws IOException {
+    final ConcurrentRecordingReader reader = new ConcurrentRecordingReader();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      TestDiscoveryProtocolUtil.readInParallel(new ByteArrayInputStream(data), reader, executor);
+    } finally {
+      executor.shutdown();
+    }
+    return reader;
+  }
+
+  /**
+   * Moves the events of each test into a single sorted <code>tests</code> entry, the rest of the events are added to <code>other</code>.
+   */
+  private static void splitTests(List<String> events, List<String> other, List<String> tests) {
+    StringBuilder test = null;
+    for (String event : events) {
+      if (event.startsWith("test ") && !event.equals("test finished")) {
+        test = new StringBuilder();
+      }
+      if (test == null) {
+        other.add(event);
+        continue;
+      }
+      test.append(event).append('\n');
+      if (event.equals("test finished")) {
+        tests.add(test.toString());
+        test = null;
+      }
+    }
+    Collections.sort(tests);
+  }
+
+  /**
+   * Records the events of each test separately, as the tests are read concurrently.
+   */
+  private static class ConcurrentRecordingReader extends RecordingProtocolReader {
+    final List<String> myTests = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public TestDataReader createTestDataReader(int classId, int methodId) {
+      final StringBuilder test = new StringBuilder("test " + classId + "." + methodId + "\n");
+      return new TestDataReader() {
+        public void classProcessingStarted(int classId) {
+          test.append("class ").append(classId).append('\n');
+        }
+
+        public void processUsedMethod(int methodId) {
+          test.append("used ").append(methodId).append('\n');
+        }
+
+        public void classProcessingFinished(int classId) {
+          test.append("class finished ").append(classId).append('\n');
+        }
+
+        public void testDataProcessed() {
+          test.append("test finished\n");
+          myTests.add(test.toString());
+        }
+
+        public void processAffectedFile(int[] chunks) {
+          test.append("affected file ").append(Arrays.toString(chunks)).append('\n');
+        }
+      };
+    }
+
+    List<String> sortedTests() {
+      final List<String> result = new ArrayList<String>(myTests);
+      Collections.sort(result);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GenerationalCacheTest {
+  @Test
+  public void testRecentlyUsedEntriesAreKept() {
+    final GenerationalCache<String, String> cache = new GenerationalCache<String, String>(4);
+    cache.put("a", "A");
+    // the first generation is full and becomes old
+    cache.put("b", "B");
+    // "a" is moved to the current generation
+    assertThat(cache.get("a")).isEqualTo("A");
+    // the current generation is full, the generation with "b" is dropped
+    cache.put("c", "C");
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isEqualTo("A");
+    assertThat(cache.get("c")).isEqualTo("C");
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    final GenerationalCache<Integer, Integer> cache = new GenerationalCache<Integer, Integer>(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    int size = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (cache.get(i) != null) size++;
+    }
+    assertThat(size).isLessThanOrEqualTo(100);
+    assertThat(cache.get(999)).isEqualTo(999);
+  }
+}
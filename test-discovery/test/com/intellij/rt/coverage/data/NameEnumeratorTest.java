@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameEnumeratorTest {
+  private static final int THREADS = 8;
+  private static final int NAMES = 10000;
+
+  @Test
+  public void testConcurrentEnumerationReturnsReportedIds() throws Exception {
+    final Map<Integer, String> reported = new ConcurrentHashMap<Integer, String>();
+    final NameEnumerator enumerator = new NameEnumerator() {
+      @Override
+      protected void updateDataIncrement(String name, int id) {
+        assertThat(reported.put(id, name)).isNull();
+      }
+    };
+    final List<int[]> results = enumerateConcurrently(enumerator, reported);
+
+    for (int i = 0; i < NAMES; i++) {
+      final int id = results.get(0)[i];
+      assertThat(reported.get(id)).isEqualTo(name(i));
+      for (int[] result : results) {
+        assertThat(result[i]).isEqualTo(id);
+      }
+    }
+    assertThat(enumerator.getNamesMap().size()).isEqualTo(NAMES);
+    // each name gets exactly one id, without gaps
+    assertThat(reported.size()).isEqualTo(NAMES);
+    for (int id = 1; id <= NAMES; id++) {
+      assertThat(reported).containsKey(id);
+    }
+  }
+
+  @Test
+  public void testIncrementContainsAllNames() throws Exception {
+    final NameEnumerator.Incremental enumerator = new NameEnumerator.Incremental();
+    final List<int[]> results = enumerateConcurrently(enumerator, null);
+
+    final Map<Integer, String> increment = new ConcurrentHashMap<Integer, String>();
+    for (NameEnumerator.Incremental.NameAndId nameAndId : enumerator.getAndClearDataIncrement()) {
+      assertThat(increment.put(nameAndId.getId(), nameAndId.getName())).isNull();
+    }
+    for (int i = 0; i < NAMES; i++) {
+      assertThat(increment.get(results.get(0)[i])).isEqualTo(name(i));
+    }
+    assertThat(increment.size()).isEqualTo(NAMES);
+    assertThat(enumerator.getAndClearDataIncrement()).isEmpty();
+  }
+
+  /**
+   * Each thread enumerates all the names in a different order.
+   * If <code>reported</code> is not null, every returned id is checked to be reported already.
+   */
+  private static List<int[]> enumerateConcurrently(final NameEnumerator enumerator, final Map<Integer, String> reported) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    try {
+      final List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+      for (int t = 0; t < THREADS; t++) {
+        final int shift = t * NAMES / THREADS;
+        futures.add(executor.submit(new Callable<int[]>() {
+          public int[] call() throws Exception {
+            start.await();
+            final int[] ids = new int[NAMES];
+            for (int k = 0; k < NAMES; k++) {
+              final int i = (k + shift) % NAMES;
+              ids[i] = enumerator.enumerate(name(i));
+              if (reported != null) {
+                assertThat(reported.get(ids[i])).isEqualTo(name(i));
+              }
+            }
+            return ids;
+          }
+        }));
+      }
+      start.countDown();
+      final List<int[]> results = new ArrayList<int[]>();
+      for (Future<int[]> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static String name(int i) {
+    return "name" + i;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrefixTrieTest {
+  @Test
+  public void testFirstPrefixInOrder() {
+    final PrefixTrie trie = new PrefixTrie(new String[]{"/project/module/", "/project/", "/other/"});
+    assertThat(trie.findFirstPrefix("/project/module/a.txt")).isEqualTo("/project/module/");
+    assertThat(trie.findFirstPrefix("/project/b.txt")).isEqualTo("/project/");
+    assertThat(trie.findFirstPrefix("/other/c.txt")).isEqualTo("/other/");
+    assertThat(trie.findFirstPrefix("/project")).isNull();
+    assertThat(trie.findFirstPrefix("/none/d.txt")).isNull();
+  }
+
+  @Test
+  public void testShorterPrefixGoesFirst() {
+    final PrefixTrie trie = new PrefixTrie(new String[]{"/project/", "/project/module/"});
+    assertThat(trie.findFirstPrefix("/project/module/a.txt")).isEqualTo("/project/");
+  }
+
+  @Test
+  public void testHasPrefix() {
+    final PrefixTrie trie = new PrefixTrie(new String[]{"/project/build/", "/project/out/"});
+    assertThat(trie.hasPrefix("/project/build/a.txt")).isTrue();
+    assertThat(trie.hasPrefix("/project/out")).isFalse();
+    assertThat(trie.hasPrefix("/project/src/a.txt")).isFalse();
+    assertThat(new PrefixTrie(new String[0]).hasPrefix("/project/a.txt")).isFalse();
+    assertThat(new PrefixTrie(new String[]{""}).hasPrefix("/project/a.txt")).isTrue();
+  }
+}
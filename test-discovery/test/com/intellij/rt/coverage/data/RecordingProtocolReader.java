@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.data.api.TestDiscoveryProtocolReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records all the read events as strings, except the format version.
+ */
+class RecordingProtocolReader implements TestDiscoveryProtocolReader {
+  final List<String> myEvents = new ArrayList<String>();
+  final List<String> myErrors = new ArrayList<String>();
+  int myVersion;
+  boolean myFinished;
+
+  public void testDiscoveryDataProcessingStarted(int version) {
+    myVersion = version;
+  }
+
+  public void testDiscoveryDataProcessingFinished() {
+    myFinished = true;
+  }
+
+  public MetadataReader createMetadataReader() {
+    return new MetadataReader() {
+      public void processMetadataEntry(String key, String value) {
+        myEvents.add("metadata " + key + "=" + value);
+      }
+    };
+  }
+
+  public ClassMetadataReader createClassMetadataReader() {
+    return new ClassMetadataReader() {
+      public void classStarted(int classId) {
+        myEvents.add("class metadata " + classId);
+      }
+
+      public void file(int fileId) {
+        myEvents.add("file " + fileId);
+      }
+
+      public void method(int methodId, byte[] hash) {
+        myEvents.add("method " + methodId + " " + Arrays.toString(hash));
+      }
+
+      public void classFinished(int classId) {
+        myEvents.add("class metadata finished " + classId);
+      }
+
+      public void finished() {
+        myEvents.add("class metadata finished");
+      }
+    };
+  }
+
+  public NameEnumeratorReader createNameEnumeratorReader() {
+    return new NameEnumeratorReader() {
+      public void enumerate(String name, int id) {
+        myEvents.add("name " + id + "=" + name);
+      }
+    };
+  }
+
+  public TestDataReader createTestDataReader(int classId, int methodId) {
+    myEvents.add("test " + classId + "." + methodId);
+    return new TestDataReader() {
+      public void classProcessingStarted(int classId) {
+        myEvents.add("class " + classId);
+      }
+
+      public void processUsedMethod(int methodId) {
+        myEvents.add("used " + methodId);
+      }
+
+      public void classProcessingFinished(int classId) {
+        myEvents.add("class finished " + classId);
+      }
+
+      public void testDataProcessed() {
+        myEvents.add("test finished");
+      }
+
+      public void processAffectedFile(int[] chunks) {
+        myEvents.add("affected file " + Arrays.toString(chunks));
+      }
+    };
+  }
+
+  public void debug(String message) {
+  }
+
+  public void error(String message) {
+    myErrors.add(message);
+  }
+
+  public void error(Exception error) {
+    myErrors.add(error.toString());
+  }
+}
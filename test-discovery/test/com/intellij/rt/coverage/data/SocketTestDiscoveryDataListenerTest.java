@@ -0,0 +1,184 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.runners.Parameterized.Parameter;
+import static org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class SocketTestDiscoveryDataListenerTest {
+  @Parameters(name = "V{0}")
+  public static Object[] versions() {
+    return TraceFileVersions.VERSIONS;
+  }
+
+  @Parameter
+  public int version;
+
+  @Test
+  public void testTwoTestsIncrementalDict() throws Exception {
+    final BinaryResponseBuilder builder = new BinaryResponseBuilder()
+        .withStart(version)
+        .withIncrementalDictionaryStart(2)
+        .withDictionaryElement(1, 0x41) // 1-A
+        .withDictionaryElement(2, 0x42) // 2-B
+        .withTestResultStart(1, 2, 1) // Test A.B, 1 class
+        .withTestResultClass(1, 1) // Class A, 1 method
+        .withTestResultMethod(1); // Method A
+    if (version >= 3) builder.withNoneAffectedFiles();
+    builder
+        .withTestResultStart(2, 1, 1) // Test B.A, 1 class
+        .withTestResultClass(1, 1) // Class A, 1 method
+        .withTestResultMethod(1); // Method A
+    if (version >= 3) builder.withNoneAffectedFiles();
+
+    final byte[] received = receive(10, new ListenerAction() {
+      public void run(TestDiscoveryProtocolDataListener listener) throws Exception {
+        listener.getNameEnumerator().enumerate("A");
+        final Map<Integer, boolean[]> classes = Collections.singletonMap(1, new boolean[]{true});
+        final Map<Integer, int[]> methods = Collections.singletonMap(1, new int[]{1});
+        listener.testFinished("A", "B", classes, methods, Collections.<int[]>emptyList());
+        listener.testFinished("B", "A", classes, methods, Collections.<int[]>emptyList());
+      }
+    });
+    assertThat(received).isEqualTo(builder.build());
+  }
+
+  @Test
+  public void testManyTestsWithSmallQueue() throws Exception {
+    final ListenerAction action = new ListenerAction() {
+      public void run(TestDiscoveryProtocolDataListener listener) throws Exception {
+        listener.addMetadata(Collections.singletonMap("A", "B"));
+        for (int i = 0; i < 1000; i++) {
+          final int classId = listener.getNameEnumerator().enumerate("Class" + i % 100);
+          final Map<Integer, boolean[]> classes = new HashMap<Integer, boolean[]>();
+          final Map<Integer, int[]> methods = new HashMap<Integer, int[]>();
+          final boolean[] visited = new boolean[500];
+          final int[] names = new int[visited.length];
+          for (int j = 0; j < visited.length; j++) {
+            visited[j] = (i + j) % 3 == 0;
+            names[j] = listener.getNameEnumerator().enumerate("method" + j);
+          }
+          classes.put(classId, visited);
+          methods.put(classId, names);
+          listener.testFinished("Test", "test" + i, classes, methods, Collections.<int[]>emptyList());
+        }
+      }
+    };
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final SingleTrFileDiscoveryProtocolDataListener fileListener = new SingleTrFileDiscoveryProtocolDataListener(new DataOutputStream(baos), version);
+    action.run(fileListener);
+    fileListener.testsFinished();
+    final byte[] expected = baos.toByteArray();
+
+    // the socket data has no file header
+    assertThat(receive(1, action)).isEqualTo(Arrays.copyOfRange(expected, 4, expected.length));
+  }
+
+  @Test
+  public void testDataAfterFinishIsDropped() throws Exception {
+    final ListenerAction action = new ListenerAction() {
+      public void run(TestDiscoveryProtocolDataListener listener) throws Exception {
+        listener.testsFinished();
+        final Map<Integer, boolean[]> classes = Collections.singletonMap(1, new boolean[]{true});
+        final Map<Integer, int[]> methods = Collections.singletonMap(1, new int[]{1});
+        // must not block on the full queue
+        for (int i = 0; i < 10; i++) {
+          listener.testFinished("A", "B", classes, methods, Collections.<int[]>emptyList());
+        }
+      }
+    };
+    final ListenerAction empty = new ListenerAction() {
+      public void run(TestDiscoveryProtocolDataListener listener) {
+      }
+    };
+    assertThat(receive(1, action)).isEqualTo(receive(1, empty));
+  }
+
+  @Test
+  public void testCompressedVersionIsNotUsed() throws Exception {
+    final ListenerAction empty = new ListenerAction() {
+      public void run(TestDiscoveryProtocolDataListener listener) {
+      }
+    };
+    final byte[] received = receive((byte) TestDiscoveryProtocolDataListener.SORTED_IDS_VERSION, 1, empty);
+    assertThat(received[0]).isEqualTo((byte) TestDiscoveryProtocolDataListener.START_MARKER);
+    assertThat(received[1]).isEqualTo(SocketTestDiscoveryProtocolDataListener.MAX_VERSION);
+  }
+
+  private byte[] receive(int queueSize, ListenerAction action) throws Exception {
+    return receive((byte) version, queueSize, action);
+  }
+
+  private byte[] receive(byte version, int queueSize, ListenerAction action) throws Exception {
+    final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<byte[]> data = executor.submit(new Callable<byte[]>() {
+        public byte[] call() throws Exception {
+          final Socket socket = serverSocket.accept();
+          try {
+            final InputStream input = socket.getInputStream();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+              output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+          } finally {
+            socket.close();
+          }
+        }
+      });
+      final SocketTestDiscoveryProtocolDataListener listener =
+          new SocketTestDiscoveryProtocolDataListener("127.0.0.1", serverSocket.getLocalPort(), version, queueSize);
+      action.run(listener);
+      listener.testsFinished();
+      return data.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+      serverSocket.close();
+    }
+  }
+
+  private interface ListenerAction {
+    void run(TestDiscoveryProtocolDataListener listener) throws Exception;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeakIdentityMapTest {
+  @Test
+  public void testKeysAreComparedByIdentity() {
+    final WeakIdentityMap<Object, String> map = new WeakIdentityMap<Object, String>();
+    final String first = new String("a");
+    final String second = new String("a");
+    map.put(first, "first");
+    map.put(second, "second");
+    assertThat(map.size()).isEqualTo(2);
+    assertThat(map.get(first)).isEqualTo("first");
+    assertThat(map.remove(second)).isEqualTo("second");
+    assertThat(map.remove(second)).isNull();
+    assertThat(map.get(first)).isEqualTo("first");
+    assertThat(map.values()).containsExactly("first");
+  }
+
+  @Test
+  public void testCollectedKeysAreRemoved() throws Exception {
+    final WeakIdentityMap<Object, String> map = new WeakIdentityMap<Object, String>();
+    final Object kept = new Object();
+    map.put(kept, "kept");
+    for (int i = 0; i < 100; i++) {
+      map.put(new Object(), "collected");
+    }
+    for (int i = 0; i < 10 && map.size() > 1; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(map.values()).containsExactly("kept");
+    assertThat(map.get(kept)).isEqualTo("kept");
+  }
+}
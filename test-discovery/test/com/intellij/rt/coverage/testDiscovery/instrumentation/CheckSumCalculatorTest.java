@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
+import org.jetbrains.coverage.org.objectweb.asm.Label;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.runners.Parameterized.Parameter;
+import static org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class CheckSumCalculatorTest {
+  @Parameters(name = "{0}")
+  public static Object[] algorithms() {
+    return new Object[]{CheckSumCalculator.LEGACY_ALGORITHM, ChecksumHash.MURMUR3_128, "SHA-1"};
+  }
+
+  @Parameter
+  public String algorithm;
+
+  @Test
+  public void testLineNumbersAreIgnored() {
+    final Map<String, byte[]> checksums = calculate(generateClass(10, "a"));
+    assertThat(checksums).containsOnlyKeys("Foo", "m/(I)Ljava/lang/String;");
+    assertThat(calculate(generateClass(20, "a"))).containsAllEntriesOf(checksums);
+  }
+
+  @Test
+  public void testMethodChangeAffectsOnlyMethodChecksum() {
+    final Map<String, byte[]> checksums = calculate(generateClass(10, "a"));
+    final Map<String, byte[]> changed = calculate(generateClass(10, "b"));
+    assertThat(changed.get("Foo")).isEqualTo(checksums.get("Foo"));
+    assertThat(changed.get("m/(I)Ljava/lang/String;")).isNotEqualTo(checksums.get("m/(I)Ljava/lang/String;"));
+  }
+
+  @Test
+  public void testClassIsPassedToNextVisitor() {
+    final ClassWriter cw = new ClassWriter(0);
+    final CheckSumCalculator calculator = new CheckSumCalculator(Opcodes.API_VERSION, cw, "Foo", algorithm);
+    new ClassReader(generateClass(10, "a")).accept(calculator, 0);
+    assertThat(calculator.getChecksums()).containsOnlyKeys("Foo", "m/(I)Ljava/lang/String;");
+    assertThat(calculate(cw.toByteArray())).containsAllEntriesOf(calculator.getChecksums());
+  }
+
+  @Test
+  public void testMurmur3() {
+    final ChecksumHash hash = ChecksumHash.create(ChecksumHash.MURMUR3_128);
+    assertThat(hash.digest()).isEqualTo(new byte[16]);
+    for (int i = 0; i < 5; i++) {
+      hash.update(i * 0x01020304 + 7);
+    }
+    assertThat(hash.digest()).isEqualTo(new byte[]{
+        (byte) 0x94, 0x63, 0x03, (byte) 0x9e, 0x78, (byte) 0xf7, 0x1b, (byte) 0xf9,
+        0x06, 0x66, (byte) 0x9c, (byte) 0xf2, (byte) 0x9e, (byte) 0x8d, 0x26, (byte) 0xaa});
+  }
+
+  private Map<String, byte[]> calculate(byte[] bytes) {
+    final CheckSumCalculator calculator = new CheckSumCalculator(Opcodes.API_VERSION, "Foo", algorithm);
+    new ClassReader(bytes).accept(calculator, 0);
+    return calculator.getChecksums();
+  }
+
+  private static byte[] generateClass(int line, String constant) {
+    final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "Foo", null, "java/lang/Object", null);
+    cw.visitField(Opcodes.ACC_STATIC, "f", "I", null, 5).visitEnd();
+
+    final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m", "(I)Ljava/lang/String;", null, null);
+    mv.visitCode();
+    final Label start = new Label();
+    mv.visitLabel(start);
+    mv.visitLineNumber(line, start);
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    final Label zero = new Label();
+    mv.visitJumpInsn(Opcodes.IFEQ, zero);
+    mv.visitLdcInsn(constant);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitLabel(zero);
+    mv.visitInsn(Opcodes.ACONST_NULL);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class HitsMappingTest extends TestCase {
+  private static final int IDS_COUNT = 40;
+
+  public void testApplyHitsAsLinesTraversal() {
+    for (int seed = 0; seed < 20; seed++) {
+      final ClassData actual = createClass(seed, 30);
+      final ClassData expected = createClass(seed, 30);
+      final Random random = new Random(seed);
+
+      // the second application uses the cached mapping
+      for (int i = 0; i < 2; i++) {
+        applyHits(actual, expected, createHits(random));
+      }
+
+      // merged lines extend the lines array and replace the ids of the existing lines
+      actual.merge(createClass(seed + 100, 50));
+      expected.merge(createClass(seed + 100, 50));
+      applyHits(actual, expected, createHits(random));
+
+      // merged lines fit into the lines array
+      actual.merge(createClass(seed + 200, 10));
+      expected.merge(createClass(seed + 200, 10));
+      applyHits(actual, expected, createHits(random));
+    }
+  }
+
+  public void testHitsAreTrimmed() {
+    final ClassData classData = new ClassData("A");
+    final LineData lineData = new LineData(1, "m()V");
+    lineData.setId(0);
+    lineData.setHits(ClassData.trimHits(Integer.MAX_VALUE) - 1);
+    classData.setLines(new LineData[]{null, lineData});
+    classData.setHitsMask(new int[]{5});
+    classData.applyHits();
+    assertEquals(ClassData.trimHits(Integer.MAX_VALUE), lineData.getHits());
+    assertEquals(0, ((int[]) classData.getHitsMask())[0]);
+  }
+
+  public void testIdOutOfHitsArrayIsIgnored() {
+    final ClassData classData = new ClassData("A");
+    final LineData lineData = new LineData(1, "m()V");
+    lineData.setId(3);
+    classData.setLines(new LineData[]{null, lineData});
+    classData.setHitsMask(new int[]{1, 1});
+    classData.applyHits();
+    assertEquals(0, lineData.getHits());
+  }
+
+  private static void applyHits(ClassData actual, ClassData expected, int[] hits) {
+    actual.setHitsMask(hits.clone());
+    actual.applyHits();
+    applyHitsByLines(expected, hits.clone());
+    assertEquals(0, sum((int[]) actual.getHitsMask()));
+    assertSameHits(expected, actual);
+  }
+
+  /**
+   * Applies the hits traversing the lines, jumps and switches.
+   */
+  private static void applyHitsByLines(ClassData classData, int[] hits) {
+    for (Object line : classData.getLines()) {
+      final LineData lineData = (LineData) line;
+      if (lineData == null) continue;
+      if (lineData.getId() != -1) lineData.setHits(lineData.getHits() + hits[lineData.getId()]);
+      final JumpData[] jumps = lineData.getJumps();
+      if (jumps != null) {
+        for (JumpData jumpData : jumps) {
+          if (jumpData.getId(true) != -1) jumpData.setTrueHits(jumpData.getTrueHits() + hits[jumpData.getId(true)]);
+          if (jumpData.getId(false) != -1) jumpData.setFalseHits(jumpData.getFalseHits() + hits[jumpData.getId(false)]);
+        }
+      }
+      final SwitchData[] switches = lineData.getSwitches();
+      if (switches != null) {
+        for (SwitchData switchData : switches) {
+          if (switchData.getId(-1) != -1) switchData.setDefaultHits(switchData.getDefaultHits() + hits[switchData.getId(-1)]);
+          final int[] switchHits = switchData.getHits();
+          for (int i = 0; i < switchHits.length; i++) {
+            if (switchData.getId(i) != -1) switchHits[i] += hits[switchData.getId(i)];
+          }
+        }
+      }
+    }
+  }
+
+  private static void assertSameHits(ClassData expected, ClassData actual) {
+    final Object[] expectedLines = expected.getLines();
+    final Object[] actualLines = actual.getLines();
+    assertEquals(expectedLines.length, actualLines.length);
+    for (int i = 0; i < expectedLines.length; i++) {
+      final LineData expectedLine = (LineData) expectedLines[i];
+      final LineData actualLine = (LineData) actualLines[i];
+      if (expectedLine == null) {
+        assertNull(actualLine);
+        continue;
+      }
+      assertEquals(expectedLine.getHits(), actualLine.getHits());
+      final JumpData[] expectedJumps = expectedLine.getJumps();
+      final JumpData[] actualJumps = actualLine.getJumps();
+      assertEquals(expectedJumps == null, actualJumps == null);
+      if (expectedJumps != null) {
+        assertEquals(expectedJumps.length, actualJumps.length);
+        for (int j = 0; j < expectedJumps.length; j++) {
+          assertEquals(expectedJumps[j].getTrueHits(), actualJumps[j].getTrueHits());
+          assertEquals(expectedJumps[j].getFalseHits(), actualJumps[j].getFalseHits());
+        }
+      }
+      final SwitchData[] expectedSwitches = expectedLine.getSwitches();
+      final SwitchData[] actualSwitches = actualLine.getSwitches();
+      assertEquals(expectedSwitches == null, actualSwitches == null);
+      if (expectedSwitches != null) {
+        assertEquals(expectedSwitches.length, actualSwitches.length);
+        for (int j = 0; j < expectedSwitches.length; j++) {
+          assertEquals(expectedSwitches[j].getDefaultHits(), actualSwitches[j].getDefaultHits());
+          for (int k = 0; k < expectedSwitches[j].getHits().length; k++) {
+            assertEquals(expectedSwitches[j].getHits()[k], actualSwitches[j].getHits()[k]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates lines with jumps and switches, several counters may share an id.
+   */
+  private static ClassData createClass(long seed, int linesCount) {
+    final Random random = new Random(seed);
+    final LineData[] lines = new LineData[linesCount + 1];
+    for (int line = 1; line <= linesCount; line++) {
+      if (random.nextInt(4) == 0) continue;
+      final LineData lineData = new LineData(line, "m" + random.nextInt(3) + "()V");
+      lineData.setId(createId(random));
+      final int jumpsCount = random.nextInt(3);
+      for (int j = 0; j < jumpsCount; j++) {
+        final JumpData jumpData = lineData.addJump(j);
+        jumpData.setId(createId(random), true);
+        jumpData.setId(createId(random), false);
+      }
+      if (random.nextInt(3) == 0) {
+        final int[] keys = new int[random.nextInt(4)];
+        for (int k = 0; k < keys.length; k++) {
+          keys[k] = k;
+        }
+        final SwitchData switchData = lineData.addSwitch(0, keys);
+        for (int k = -1; k < keys.length; k++) {
+          switchData.setId(createId(random), k);
+        }
+      }
+      lineData.fillArrays();
+      lines[line] = lineData;
+    }
+    final ClassData classData = new ClassData("A");
+    classData.setLines(lines);
+    return classData;
+  }
+
+  private static int createId(Random random) {
+    return random.nextInt(5) == 0 ? -1 : random.nextInt(IDS_COUNT);
+  }
+
+  private static int[] createHits(Random random) {
+    final int[] hits = new int[IDS_COUNT];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(10);
+    }
+    return hits;
+  }
+
+  private static int sum(int[] values) {
+    int sum = 0;
+    for (int value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+}
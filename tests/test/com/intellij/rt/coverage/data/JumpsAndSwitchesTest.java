@@ -0,0 +1,207 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.data;
+
+import junit.framework.TestCase;
+
+public class JumpsAndSwitchesTest extends TestCase {
+  public void testAddJumpsAreVisibleAfterFill() {
+    final JumpsAndSwitches data = new JumpsAndSwitches();
+    data.addJump(1).setTrueHits(3);
+    assertNull(data.getJumps());
+    assertEquals(2, data.jumpsCount());
+
+    data.fillArrays();
+    final JumpData[] jumps = data.getJumps();
+    assertEquals(2, jumps.length);
+    assertJump(jumps[0], 0, 0, -1, -1);
+    assertJump(jumps[1], 3, 0, -1, -1);
+  }
+
+  public void testAddJumpOnFilledLineStartsFromZero() {
+    final JumpsAndSwitches data = createFilled(new int[]{1, 2}, new int[]{3, 4});
+    data.getJumpData(0).setId(7, true);
+
+    data.addJump(2);
+    assertEquals(3, data.jumpsCount());
+    // the filled jumps stay visible while the new ones are collected
+    final JumpData[] filled = data.getJumps();
+    assertEquals(2, filled.length);
+    assertJump(filled[0], 1, 3, 7, -1);
+    assertJump(filled[1], 2, 4, -1, -1);
+    assertJump(data.getJumpData(1), 2, 4, -1, -1);
+    assertEquals(2, data.getFilledJumpsCount());
+    assertEquals(4, data.getCoveredJumpBranches());
+
+    data.fillArrays();
+    final JumpData[] jumps = data.getJumps();
+    assertEquals(3, jumps.length);
+    for (JumpData jump : jumps) {
+      assertJump(jump, 0, 0, -1, -1);
+    }
+  }
+
+  public void testRemoveJumpDoesNotLeakHits() {
+    final JumpsAndSwitches data = new JumpsAndSwitches();
+    data.addJump(0).setTrueHits(1);
+    final JumpData second = data.addJump(1);
+    second.setTrueHits(2);
+    second.setId(5, false);
+
+    data.removeJump(0);
+    assertEquals(1, data.jumpsCount());
+    data.addJump(1);
+    data.fillArrays();
+    final JumpData[] jumps = data.getJumps();
+    assertEquals(2, jumps.length);
+    assertJump(jumps[0], 2, 0, -1, 5);
+    assertJump(jumps[1], 0, 0, -1, -1);
+  }
+
+  public void testRemoveFilledJump() {
+    final JumpsAndSwitches data = createFilled(new int[]{1, 2, 3}, new int[]{4, 5, 6});
+    final JumpData view = data.getJumps()[1];
+    data.removeJump(1);
+    assertEquals(2, data.getJumps().length);
+    assertJump(data.getJumps()[1], 3, 6, -1, -1);
+    // a view is bound to an index
+    assertJump(view, 3, 6, -1, -1);
+  }
+
+  public void testViewsShareStorage() {
+    final JumpsAndSwitches data = createFilled(new int[]{0}, new int[]{0});
+    final JumpData[] jumps = data.getJumps();
+    jumps[0].touchTrueHit();
+    jumps[0].touchFalseHit();
+    jumps[0].touchFalseHit();
+    assertJump(data.getJumpData(0), 1, 2, -1, -1);
+    assertJump(data.getJumps()[0], 1, 2, -1, -1);
+    assertFalse(data.hasPartiallyCoveredJump());
+  }
+
+  public void testViewTakenBeforeFillWritesToNewJumps() {
+    final JumpsAndSwitches data = createFilled(new int[]{1, 2}, new int[]{3, 4});
+    data.addJump(1);
+    final JumpData[] filled = data.getJumps();
+    final JumpData view = data.getJumpData(0);
+    assertJump(view, 1, 3, -1, -1);
+
+    data.fillArrays();
+    view.setTrueHits(5);
+    filled[1].touchFalseHit();
+    assertJump(data.getJumpData(0), 5, 0, -1, -1);
+    assertJump(data.getJumps()[1], 0, 1, -1, -1);
+    assertEquals(2, data.getCoveredJumpBranches());
+  }
+
+  public void testJumpsArrayIsReused() {
+    final JumpsAndSwitches data = createFilled(new int[]{1, 2, 3}, new int[]{4, 5, 6});
+    final JumpData[] jumps = data.getJumps();
+    assertSame(jumps, data.getJumps());
+    assertSame(jumps[2], data.getJumpData(2));
+    data.removeJump(0);
+    assertEquals(2, data.getJumps().length);
+  }
+
+  public void testMergeExtendsJumps() {
+    final JumpsAndSwitches data = createFilled(new int[]{1}, new int[]{0});
+    final JumpsAndSwitches other = createFilled(new int[]{2, 3}, new int[]{4, 5});
+    other.getJumpData(1).setId(9, true);
+
+    data.merge(other);
+    final JumpData[] jumps = data.getJumps();
+    assertEquals(2, jumps.length);
+    assertJump(jumps[0], 3, 4, -1, -1);
+    assertJump(jumps[1], 3, 5, 9, -1);
+    // the merged data is not changed
+    assertJump(other.getJumpData(0), 2, 4, -1, -1);
+  }
+
+  public void testMergeIntoEmpty() {
+    final JumpsAndSwitches data = new JumpsAndSwitches();
+    data.merge(createFilled(new int[]{1, 2}, new int[]{3, 4}));
+    assertEquals(2, data.getJumps().length);
+    assertJump(data.getJumps()[1], 2, 4, -1, -1);
+
+    // unfilled jumps are not merged
+    final JumpsAndSwitches collecting = new JumpsAndSwitches();
+    collecting.addJump(0).setTrueHits(5);
+    data.merge(collecting);
+    assertJump(data.getJumps()[0], 1, 3, -1, -1);
+  }
+
+  public void testMergeWhileCollecting() {
+    final JumpsAndSwitches data = createFilled(new int[]{1}, new int[]{1});
+    data.addJump(1).setTrueHits(7);
+    data.merge(createFilled(new int[]{2}, new int[]{3}));
+    // merged into the visible jumps
+    assertEquals(1, data.getJumps().length);
+    assertJump(data.getJumps()[0], 3, 4, -1, -1);
+
+    data.fillArrays();
+    assertEquals(2, data.getJumps().length);
+    assertJump(data.getJumps()[1], 7, 0, -1, -1);
+  }
+
+  public void testSwitches() {
+    final JumpsAndSwitches data = new JumpsAndSwitches();
+    data.addSwitch(1, new int[]{1, 2}).setDefaultHits(3);
+    assertNull(data.getSwitches());
+    data.fillArrays();
+    final SwitchData[] switches = data.getSwitches();
+    assertEquals(2, switches.length);
+    assertEquals(0, switches[0].getKeys().length);
+    assertEquals(3, switches[1].getDefaultHits());
+
+    data.addSwitch(0, new int[]{5});
+    // the filled switches stay visible while the new ones are collected
+    assertSame(switches, data.getSwitches());
+    assertSame(switches[1], data.getSwitchData(1));
+    data.fillArrays();
+    assertEquals(1, data.getSwitches().length);
+    assertEquals(5, data.getSwitches()[0].getKeys()[0]);
+
+    final JumpsAndSwitches other = new JumpsAndSwitches();
+    other.addSwitch(0, new int[]{5}).setDefaultHits(2);
+    other.addSwitch(1, new int[]{6});
+    other.fillArrays();
+    data.merge(other);
+    assertEquals(2, data.getSwitches().length);
+    assertEquals(2, data.getSwitches()[0].getDefaultHits());
+    assertEquals(6, data.getSwitches()[1].getKeys()[0]);
+    assertEquals(2, data.switchesCount());
+  }
+
+  private static JumpsAndSwitches createFilled(int[] trueHits, int[] falseHits) {
+    final JumpsAndSwitches data = new JumpsAndSwitches();
+    for (int i = 0; i < trueHits.length; i++) {
+      final JumpData jump = data.addJump(i);
+      jump.setTrueHits(trueHits[i]);
+      jump.setFalseHits(falseHits[i]);
+    }
+    data.fillArrays();
+    return data;
+  }
+
+  private static void assertJump(JumpData jump, int trueHits, int falseHits, int trueId, int falseId) {
+    assertEquals(trueHits, jump.getTrueHits());
+    assertEquals(falseHits, jump.getFalseHits());
+    assertEquals(trueId, jump.getId(true));
+    assertEquals(falseId, jump.getId(false));
+  }
+}
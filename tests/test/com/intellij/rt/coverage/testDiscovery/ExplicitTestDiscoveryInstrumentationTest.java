@@ -20,8 +20,10 @@ import com.intellij.rt.coverage.TransformedClassLoader;
 import com.intellij.rt.coverage.data.ClassMetadata;
 import com.intellij.rt.coverage.data.TestDiscoveryProjectData;
 import com.intellij.rt.coverage.data.TestDiscoveryProjectDataTestAccessor;
+import com.intellij.rt.coverage.testDiscovery.instrumentation.CheckSumCalculator;
 import com.intellij.rt.coverage.testDiscovery.main.TestDiscoveryTransformer;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
 import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
 import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
@@ -32,6 +34,7 @@ import org.junit.Test;
 import java.io.*;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
@@ -95,6 +98,37 @@ public class ExplicitTestDiscoveryInstrumentationTest {
     assertTrue(serializable.getMethods().containsKey("getField/()Ljava/lang/String;"));
   }
 
+  /**
+   * Checksums collected while the class is instrumented are the same as those of a separate pass over the class,
+   * as the former pre-pass did before the instrumentation.
+   */
+  @Test
+  public void testChecksumsMatchSeparatePass() throws Exception {
+    final String[] names = {
+        MySerializable.class.getName(), InitClass.class.getName(), InitClass.A.class.getName(), InitClass.B.class.getName(),
+        ExplicitTestDiscoveryInstrumentationTest.class.getName(), "java.util.ArrayList", "java.util.concurrent.ConcurrentHashMap"};
+    for (String name : names) {
+      final byte[] bytes = TransformedClassLoader.readBytes(ClassLoader.getSystemResourceAsStream(name.replace('.', '/') + ".class"));
+      final CheckSumCalculator calculator = new CheckSumCalculator(Opcodes.API_VERSION, name);
+      new ClassReader(bytes).accept(calculator, 0);
+      final Map<String, byte[]> expected = calculator.getChecksums();
+
+      doTransform(name, bytes, ClassLoader.getSystemClassLoader());
+      final Map<String, byte[]> actual = getMetadata(name).getMethods();
+      assertEquals(name, expected.keySet(), actual.keySet());
+      for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+        assertArrayEquals(name + " " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+      }
+    }
+  }
+
+  private static ClassMetadata getMetadata(String fqn) {
+    for (ClassMetadata classMeta : TestDiscoveryProjectDataTestAccessor.getClassMetaData()) {
+      if (fqn.equals(classMeta.getFqn())) return classMeta;
+    }
+    throw new AssertionError("No metadata for " + fqn);
+  }
+
   @Test
   public void testSerializable() throws Exception {
     String name = MySerializable.class.getName();
@@ -142,12 +176,40 @@ public class ExplicitTestDiscoveryInstrumentationTest {
     l2.loadClass("Foo").getDeclaredMethod("baz2").invoke(null);
   }
 
+  @Test
+  public void testVisitedMethodsAreCleanedUpBetweenTests() throws Exception {
+    final byte[] bytes = generateClassWithStaticMethods("Touched", "m1", "m2");
+    ClassLoader loader = new ClassLoader(ClassLoader.getSystemClassLoader()) {{
+      byte[] transformed = doTransform("Touched", bytes, this);
+      defineClass("Touched", transformed, 0, transformed.length);
+    }};
+
+    loader.loadClass("Touched").getDeclaredMethod("m1").invoke(null);
+    boolean[] usedMethods = TestDiscoveryProjectDataTestAccessor.getClass2UsedMethodsMap().get("Touched");
+    assertArrayEquals(new boolean[]{true, false}, usedMethods);
+
+    TestDiscoveryProjectData.getProjectData().testDiscoveryStarted("Test", "test");
+    assertArrayEquals(new boolean[]{false, false}, usedMethods);
+
+    loader.loadClass("Touched").getDeclaredMethod("m2").invoke(null);
+    loader.loadClass("Touched").getDeclaredMethod("m2").invoke(null);
+    assertArrayEquals(new boolean[]{false, true}, usedMethods);
+
+    TestDiscoveryProjectData.getProjectData().testDiscoveryStarted("Test", "test");
+    assertArrayEquals(new boolean[]{false, false}, usedMethods);
+  }
+
   @Nullable
   private byte[] generateClassWithSingleStaticMethods(String... methodNames) {
+    return generateClassWithStaticMethods("Foo", methodNames);
+  }
+
+  @Nullable
+  private byte[] generateClassWithStaticMethods(String className, String... methodNames) {
     ClassWriter cw = new ClassWriter(0);
     cw.visit(Opcodes.V1_5,
         Opcodes.ACC_PUBLIC,
-        "Foo",
+        className,
         null,
         "java/lang/Object",
         null);
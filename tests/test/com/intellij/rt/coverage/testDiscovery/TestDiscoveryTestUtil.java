@@ -20,6 +20,7 @@ import com.intellij.rt.coverage.util.ProcessUtil;
 import com.intellij.rt.coverage.util.ResourceUtil;
 import com.intellij.rt.coverage.util.StringUtil;
 import com.sun.tools.javac.Main;
+import com.intellij.rt.coverage.testDiscovery.launcher.TestDiscoveryCallbacks;
 import junit.framework.TestCase;
 import org.hamcrest.Matcher;
 import org.junit.Assert;
@@ -65,6 +66,7 @@ public class TestDiscoveryTestUtil {
     args.add("-classpath");
     args.add(StringUtil.join(File.pathSeparator, testDataPath,
         ResourceUtil.getResourceRoot(JUnitLauncher.class),
+        ResourceUtil.getResourceRoot(TestDiscoveryCallbacks.class),
         ResourceUtil.getResourceRoot(TestCase.class),
         ResourceUtil.getResourceRoot(Matcher.class)));
     args.addAll(additionalJavaOptions);
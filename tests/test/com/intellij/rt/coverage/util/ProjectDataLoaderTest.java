@@ -0,0 +1,201 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.util;
+
+import com.intellij.rt.coverage.data.*;
+import com.intellij.rt.coverage.instrumentation.InstrumentationOptions;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ProjectDataLoaderTest extends TestCase {
+  public void testSaveAndLoad() throws IOException {
+    final File file = File.createTempFile("report", ".ic");
+    try {
+      CoverageReport.save(createProjectData(), new InstrumentationOptions.Builder().setDataFile(file).build());
+      assertSameData(createProjectData(), ProjectDataLoader.load(file));
+      // the older loaders read the reports written by default
+      assertTrue(Arrays.equals(readBytes(getVersion1Report()), readBytes(file)));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testSaveAndLoadSignaturesDictionary() throws IOException {
+    final File file = File.createTempFile("report", ".ic");
+    try {
+      CoverageReport.save(createProjectData(), new InstrumentationOptions.Builder().setDataFile(file).build(),
+          ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION);
+      assertSameData(createProjectData(), ProjectDataLoader.load(file));
+
+      final DataInputStream in = CoverageIOUtil.openReadFile(file);
+      try {
+        // a loader before version 2 reads the marker as an empty class list
+        assertEquals(ProjectDataLoader.VERSION_MARKER, CoverageIOUtil.readINT(in));
+        // and rejects the version in place of the extra info version
+        assertEquals(ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION, CoverageIOUtil.readINT(in));
+        assertTrue(ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION > ProjectDataLoader.LEGACY_REPORT_VERSION);
+      } finally {
+        CoverageIOUtil.close(in);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testSignatureMissingInDictionaryIsWrittenInline() throws IOException {
+    final ProjectData projectData = createProjectData();
+    final ClassData classData = projectData.getClassData("p.A");
+    final File file = File.createTempFile("report", ".ic");
+    try {
+      final DataOutputStream os = CoverageIOUtil.openWriteFile(file);
+      try {
+        CoverageIOUtil.writeINT(os, ProjectDataLoader.VERSION_MARKER);
+        CoverageIOUtil.writeINT(os, ProjectDataLoader.SIGNATURES_DICTIONARY_VERSION);
+        CoverageIOUtil.writeINT(os, 1);
+        CoverageIOUtil.writeUTF(os, classData.getName());
+        // empty signatures dictionary
+        CoverageIOUtil.writeINT(os, 0);
+        classData.save(os, new DictionaryLookup() {
+          public int getDictionaryIndex(String className) {
+            return 0;
+          }
+        }, new DictionaryLookup() {
+          public int getDictionaryIndex(String signature) {
+            return -1;
+          }
+        });
+      } finally {
+        CoverageIOUtil.close(os);
+      }
+      final ProjectData loaded = ProjectDataLoader.load(file);
+      assertEquals(Collections.singleton(classData.getName()), loaded.getClasses().keySet());
+      assertSameClass(classData, loaded.getClassData(classData.getName()));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * The report is saved by the agent before version 2 from {@link #createProjectData()}.
+   */
+  public void testLoadVersion1Report() {
+    assertSameData(createProjectData(), ProjectDataLoader.load(getVersion1Report()));
+  }
+
+  private File getVersion1Report() {
+    return new File(getClass().getClassLoader().getResource("report-v1.ic").getPath());
+  }
+
+  private static byte[] readBytes(File file) throws IOException {
+    final DataInputStream input = new DataInputStream(new FileInputStream(file));
+    try {
+      final byte[] bytes = new byte[(int) file.length()];
+      input.readFully(bytes);
+      return bytes;
+    } finally {
+      CoverageIOUtil.close(input);
+    }
+  }
+
+  private static ProjectData createProjectData() {
+    final ProjectData projectData = new ProjectData();
+    final LineData[] aLines = new LineData[6];
+    aLines[1] = createLine(1, "<init>()V", 1);
+    aLines[2] = createLine(2, "foo(Lp/B;[Lp/A;I)Lp/B;", 3);
+    aLines[2].setTrueHits(0, 2);
+    aLines[2].setFalseHits(0, 1);
+    aLines[2].setTrueHits(1, 0);
+    aLines[2].setFalseHits(1, 3);
+    aLines[3] = createLine(3, "foo(Lp/B;[Lp/A;I)Lp/B;", 0);
+    aLines[5] = createLine(5, "bar(Ljava/lang/String;)V", 4);
+    aLines[5].setDefaultHits(0, new int[]{1, 5}, 1);
+    aLines[5].setSwitchHits(0, new int[]{1, 5}, new int[]{2, 0});
+    setLines(projectData.getOrCreateClassData("p.A"), aLines);
+
+    final LineData[] bLines = new LineData[3];
+    bLines[2] = createLine(2, "baz(Lp/A;)Lp/A;", 0);
+    setLines(projectData.getOrCreateClassData("p.B"), bLines);
+
+    // signatures with classes of the default package are collapsed to class indices before version 2
+    final LineData[] qLines = new LineData[2];
+    qLines[1] = createLine(1, "copy([LQ;Lp/A;)LQ;", 2);
+    setLines(projectData.getOrCreateClassData("Q"), qLines);
+    return projectData;
+  }
+
+  private static LineData createLine(int line, String signature, int hits) {
+    final LineData lineData = new LineData(line, signature);
+    lineData.setHits(hits);
+    return lineData;
+  }
+
+  private static void setLines(ClassData classData, LineData[] lines) {
+    for (LineData lineData : lines) {
+      if (lineData == null) continue;
+      lineData.fillArrays();
+      classData.registerMethodSignature(lineData);
+    }
+    classData.setLines(lines);
+  }
+
+  private static void assertSameData(ProjectData expected, ProjectData actual) {
+    assertEquals(expected.getClasses().keySet(), actual.getClasses().keySet());
+    for (ClassData expectedClass : expected.getClassesCollection()) {
+      assertSameClass(expectedClass, actual.getClassData(expectedClass.getName()));
+    }
+  }
+
+  private static void assertSameClass(ClassData expectedClass, ClassData actualClass) {
+    final Object[] expectedLines = expectedClass.getLines();
+    final Object[] actualLines = actualClass.getLines();
+    assertEquals(expectedLines.length, actualLines.length);
+    for (int i = 0; i < expectedLines.length; i++) {
+      final LineData expectedLine = (LineData) expectedLines[i];
+      final LineData actualLine = (LineData) actualLines[i];
+      if (expectedLine == null) {
+        assertNull(actualLine);
+        continue;
+      }
+      assertEquals(expectedLine.getMethodSignature(), actualLine.getMethodSignature());
+      assertEquals(expectedLine.getHits(), actualLine.getHits());
+      final JumpData[] expectedJumps = expectedLine.getJumps();
+      final JumpData[] actualJumps = actualLine.getJumps();
+      assertEquals(expectedJumps == null ? 0 : expectedJumps.length, actualJumps == null ? 0 : actualJumps.length);
+      for (int j = 0; expectedJumps != null && j < expectedJumps.length; j++) {
+        assertEquals(expectedJumps[j].getTrueHits(), actualJumps[j].getTrueHits());
+        assertEquals(expectedJumps[j].getFalseHits(), actualJumps[j].getFalseHits());
+      }
+      final SwitchData[] expectedSwitches = expectedLine.getSwitches();
+      final SwitchData[] actualSwitches = actualLine.getSwitches();
+      assertEquals(expectedSwitches == null ? 0 : expectedSwitches.length, actualSwitches == null ? 0 : actualSwitches.length);
+      for (int s = 0; expectedSwitches != null && s < expectedSwitches.length; s++) {
+        assertEquals(expectedSwitches[s].getDefaultHits(), actualSwitches[s].getDefaultHits());
+        assertTrue(Arrays.equals(expectedSwitches[s].getKeys(), actualSwitches[s].getKeys()));
+        assertTrue(Arrays.equals(expectedSwitches[s].getHits(), actualSwitches[s].getHits()));
+      }
+    }
+    assertEquals(expectedClass.getMethodSigs(), actualClass.getMethodSigs());
+  }
+}
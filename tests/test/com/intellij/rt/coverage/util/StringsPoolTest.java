@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2024 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intellij.rt.coverage.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StringsPoolTest extends TestCase {
+  public void testCollidingHashes() {
+    final List<String> strings = createCollidingStrings(10);
+    for (String s : strings) {
+      assertEquals(strings.get(0).hashCode(), s.hashCode());
+    }
+
+    final StringsPool pool = new StringsPool();
+    final List<String> pooled = new ArrayList<String>();
+    for (String s : strings) {
+      pooled.add(pool.getFromPool(s));
+    }
+    for (int i = 0; i < strings.size(); i++) {
+      final String s = strings.get(i);
+      assertEquals(s, pooled.get(i));
+      // an equal string gets the pooled instance, a string with the same hash does not replace it
+      assertSame(pooled.get(i), pool.getFromPool(new String(s)));
+    }
+  }
+
+  public void testGrowth() {
+    final StringsPool pool = new StringsPool();
+    final List<String> pooled = new ArrayList<String>();
+    for (int i = 0; i < 5000; i++) {
+      pooled.add(pool.getFromPool("s" + i));
+    }
+    final List<String> colliding = createCollidingStrings(11);
+    for (String s : colliding) {
+      pooled.add(pool.getFromPool(s));
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertSame(pooled.get(i), pool.getFromPool("s" + i));
+    }
+    for (int i = 0; i < colliding.size(); i++) {
+      assertSame(pooled.get(5000 + i), pool.getFromPool(new String(colliding.get(i))));
+    }
+  }
+
+  public void testNullAndEmpty() {
+    final StringsPool pool = new StringsPool();
+    assertNull(pool.getFromPool(null));
+    assertEquals("", pool.getFromPool(new String("")));
+  }
+
+  /**
+   * @return all the strings of "Aa" and "BB" blocks, which have the same hash code
+   */
+  private static List<String> createCollidingStrings(int blocks) {
+    List<String> strings = new ArrayList<String>();
+    strings.add("");
+    for (int i = 0; i < blocks; i++) {
+      final List<String> next = new ArrayList<String>();
+      for (String s : strings) {
+        next.add(s + "Aa");
+        next.add(s + "BB");
+      }
+      strings = next;
+    }
+    return strings;
+  }
+}
@@ -168,8 +168,24 @@ public abstract class AbstractIntellijClassfileTransformer implements ClassFileT
 
     final ClassVisitor cv = createClassVisitor(className, loader, cr, cw);
     if (cv == null) return null;
-    cr.accept(cv, ClassReader.EXPAND_FRAMES);
-    return cw.toByteArray();
+    cr.accept(cv, getReaderFlags());
+    return finishTransformation(cv, cw.toByteArray());
+  }
+
+  /**
+   * Post-processes the bytes of a transformed class.
+   *
+   * @param cv the visitor returned from {@link #createClassVisitor} for this class
+   */
+  protected byte[] finishTransformation(ClassVisitor cv, byte[] bytes) {
+    return bytes;
+  }
+
+  /**
+   * Flags passed to {@link ClassReader#accept(ClassVisitor, int)} during instrumentation.
+   */
+  protected int getReaderFlags() {
+    return ClassReader.EXPAND_FRAMES;
   }
 
   protected abstract ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw);
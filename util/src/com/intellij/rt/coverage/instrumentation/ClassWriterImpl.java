@@ -126,33 +126,49 @@ class ClassWriterImpl extends ClassWriter {
     return false;
   }
 
-  private synchronized ClassReader getOrLoadClassReader(String className) throws IOException {
-    Map<String, ClassReader> loaderClassReaders = myClassReaders.get(myClassLoader);
-    if (loaderClassReaders == null) {
-      myClassReaders.put(myClassLoader, loaderClassReaders = new HashMap<String, ClassReader>());
-    }
-    ClassReader classReader = loaderClassReaders.get(className);
-    if (classReader == null) {
-      InputStream is = null;
-      try {
-        String resource = className + ".class";
-        if (myClassLoader != null) {
-          is = myClassLoader.getResourceAsStream(resource);
-        }
-        if (is == null) {
-          is = ClassLoader.getSystemResourceAsStream(resource);
-        }
-        if (is == null) {
-          throw new FrameComputationClassNotFoundException("Class " + className + " not found");
-        }
-        loaderClassReaders.put(className, classReader = new ClassReader(is));
-      } finally {
-        CoverageIOUtil.close(is);
+  /**
+   * The cache is shared by all the writers of a transformer, and classes may be transformed concurrently.
+   * Only the cache is accessed under the lock, a class may be loaded by several threads at once.
+   */
+  private ClassReader getOrLoadClassReader(String className) throws IOException {
+    final Map<String, ClassReader> loaderClassReaders;
+    synchronized (myClassReaders) {
+      Map<String, ClassReader> readers = myClassReaders.get(myClassLoader);
+      if (readers == null) {
+        myClassReaders.put(myClassLoader, readers = new HashMap<String, ClassReader>());
       }
+      final ClassReader classReader = readers.get(className);
+      if (classReader != null) return classReader;
+      loaderClassReaders = readers;
+    }
+    final ClassReader classReader = loadClassReader(className);
+    synchronized (myClassReaders) {
+      final ClassReader existing = loaderClassReaders.get(className);
+      if (existing != null) return existing;
+      loaderClassReaders.put(className, classReader);
     }
     return classReader;
   }
 
+  private ClassReader loadClassReader(String className) throws IOException {
+    InputStream is = null;
+    try {
+      String resource = className + ".class";
+      if (myClassLoader != null) {
+        is = myClassLoader.getResourceAsStream(resource);
+      }
+      if (is == null) {
+        is = ClassLoader.getSystemResourceAsStream(resource);
+      }
+      if (is == null) {
+        throw new FrameComputationClassNotFoundException("Class " + className + " not found");
+      }
+      return new ClassReader(is);
+    } finally {
+      CoverageIOUtil.close(is);
+    }
+  }
+
   static class FrameComputationClassNotFoundException extends RuntimeException {
     public FrameComputationClassNotFoundException(String message) {
       super(message);